@@ -0,0 +1,80 @@
+package com.example.demo.config;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceRepository;
+import com.example.demo.service.AgentAuthenticationService;
+import com.example.demo.service.AgentCommandChannel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.Map;
+
+/**
+ * Authenticates device agents on STOMP CONNECT.
+ * A CONNECT with a device-id header must carry the owning user's email in user-email and the secret
+ * issued to the device at registration in device-token; the session then runs as agent:{deviceId}.
+ * Only agent sessions may subscribe to the command queue. Browser sessions (no device-id header)
+ * run as the user their handshake resolved; an anonymous handshake to /mobile-ws is open to agents only.
+ */
+@Component
+public class AgentStompInterceptor implements ChannelInterceptor {
+
+    public static final String ANONYMOUS_HANDSHAKE_ATTRIBUTE = "anonymousHandshake";
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private AgentAuthenticationService agentAuthService;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) {
+            return message;
+        }
+
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            String deviceId = accessor.getFirstNativeHeader("device-id");
+            if (deviceId == null) {
+                Map<String, Object> attributes = accessor.getSessionAttributes();
+                if (attributes != null && Boolean.TRUE.equals(attributes.get(ANONYMOUS_HANDSHAKE_ATTRIBUTE))) {
+                    throw new MessageDeliveryException("Authentication required");
+                }
+                // SockJS HTTP fallbacks skip the handshake handler; take the user the handshake check found
+                if (accessor.getUser() == null) {
+                    Principal user = LoggedInUserInterceptor.principalOf(attributes);
+                    if (user != null) {
+                        accessor.setUser(user);
+                    }
+                }
+                return message;
+            }
+            String userEmail = accessor.getFirstNativeHeader("user-email");
+            Device device = deviceRepository.findByDeviceId(deviceId).orElse(null);
+            if (device == null || userEmail == null || !userEmail.equals(device.getUserEmail())
+                    || !agentAuthService.validateDeviceToken(device, accessor.getFirstNativeHeader("device-token"))) {
+                System.out.println("❌ Agent channel authentication failed for device " + deviceId);
+                throw new MessageDeliveryException("Agent authentication failed");
+            }
+            String agentUser = AgentCommandChannel.agentUser(deviceId);
+            Principal principal = () -> agentUser;
+            accessor.setUser(principal);
+
+        } else if (StompCommand.SUBSCRIBE.equals(accessor.getCommand())
+                && accessor.getDestination() != null
+                && accessor.getDestination().startsWith(AgentCommandChannel.SUBSCRIBED_DESTINATION)
+                && AgentCommandChannel.deviceIdOf(accessor.getUser()) == null) {
+            throw new MessageDeliveryException("Only device agents can subscribe to commands");
+        }
+        return message;
+    }
+}
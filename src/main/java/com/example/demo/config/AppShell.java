@@ -1,8 +1,11 @@
 package com.example.demo.config;
 
 import com.vaadin.flow.component.page.AppShellConfigurator;
+import com.vaadin.flow.component.page.Push;
 
 // PWA disabled to prevent ServiceWorker errors
+// Server push lets views such as the map receive device changes without polling or reloads
+@Push
 public class AppShell implements AppShellConfigurator {
     // This class configures the app shell for Vaadin
 }
@@ -0,0 +1,56 @@
+package com.example.demo.config;
+
+import com.example.demo.service.PerfectAuthService;
+import com.example.demo.service.WebSocketService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.security.Principal;
+import java.util.Map;
+
+/**
+ * WebSocket handshake check for browser endpoints: the handshake runs as the user logged in to the
+ * browser's Vaadin session and is refused otherwise. The user's email goes into the session attributes.
+ */
+public class LoggedInUserInterceptor implements HandshakeInterceptor {
+
+    private final PerfectAuthService authService;
+
+    public LoggedInUserInterceptor(PerfectAuthService authService) {
+        this.authService = authService;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String userEmail = request instanceof ServletServerHttpRequest servletRequest
+                ? authService.getLoggedInUser(servletRequest.getServletRequest().getSession(false))
+                : null;
+        if (userEmail == null) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        attributes.put(WebSocketService.USER_EMAIL_ATTRIBUTE, userEmail);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    /**
+     * Principal for a session whose handshake passed this interceptor, or null
+     */
+    public static Principal principalOf(Map<String, Object> attributes) {
+        Object userEmail = attributes != null ? attributes.get(WebSocketService.USER_EMAIL_ATTRIBUTE) : null;
+        if (!(userEmail instanceof String name)) {
+            return null;
+        }
+        return () -> name;
+    }
+}
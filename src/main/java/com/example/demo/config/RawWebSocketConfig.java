@@ -0,0 +1,32 @@
+package com.example.demo.config;
+
+import com.example.demo.service.PerfectAuthService;
+import com.example.demo.service.WebSocketService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Raw (non-STOMP) WebSocket endpoint served by WebSocketService.
+ * The handshake runs as the user logged in to the browser's Vaadin session and is refused otherwise,
+ * so every session lands in the per-user registry with its bounded send queue.
+ */
+@Configuration
+@EnableWebSocket
+public class RawWebSocketConfig implements WebSocketConfigurer {
+
+    @Autowired
+    private WebSocketService webSocketService;
+
+    @Autowired
+    private PerfectAuthService authService;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(webSocketService, "/raw-ws")
+                .addInterceptors(new LoggedInUserInterceptor(authService))
+                .setAllowedOriginPatterns("*");
+    }
+}
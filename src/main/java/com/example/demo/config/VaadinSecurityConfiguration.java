@@ -63,6 +63,10 @@ public class VaadinSecurityConfiguration {
             .requestMatchers(
                 "/login", "/dashboard", "/", "/map", "/analytics", "/add-device", "/download-agent",
                 "/api/**", 
+                // WebSockets; the handshakes check the logged-in Vaadin session themselves
+                "/raw-ws", "/ws", "/ws/**",
+                // Agent STOMP endpoint; CONNECT is authenticated by AgentStompInterceptor
+                "/mobile-ws",
                 // Static resources
                 "/static/**", "/js/**", "/css/**", "/webjars/**", "/favicon.ico",
                 "/*.html", 
@@ -1,10 +1,25 @@
 package com.example.demo.config;
 
+import com.example.demo.service.PerfectAuthService;
+import com.example.demo.service.WebSocketService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.security.Principal;
+import java.util.Map;
 
 /**
  * Professional WebSocket Configuration
@@ -14,23 +29,100 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Autowired
+    private AgentStompInterceptor agentStompInterceptor;
+
+    @Autowired
+    private PerfectAuthService authService;
+
+    @Value("${app.websocket.heartbeat-ms:25000}")
+    private long heartbeatMs;
+
+    @Value("${app.websocket.stomp-send-buffer-bytes:262144}")
+    private int stompSendBufferBytes;
+
+    @Value("${app.websocket.stomp-send-time-limit-ms:10000}")
+    private int stompSendTimeLimitMs;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
+        // Heartbeats let both sides notice dead connections (mostly idle device agents) without polling
+        ThreadPoolTaskScheduler heartbeatScheduler = new ThreadPoolTaskScheduler();
+        heartbeatScheduler.setPoolSize(1);
+        heartbeatScheduler.setThreadNamePrefix("stomp-heartbeat-");
+        heartbeatScheduler.setDaemon(true);
+        heartbeatScheduler.initialize();
+
         // Enable simple message broker for real-time updates
-        config.enableSimpleBroker("/topic", "/queue");
+        config.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[] {heartbeatMs, heartbeatMs})
+                .setTaskScheduler(heartbeatScheduler);
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
-        // Register STOMP endpoint for WebSocket connections
+        // Browser STOMP endpoint; sessions run as the user logged in to the Vaadin session, so
+        // /user/queue/... destinations reach them
         registry.addEndpoint("/ws")
+                .setHandshakeHandler(new LoggedInUserHandshakeHandler())
+                .addInterceptors(new LoggedInUserInterceptor(authService))
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
         
-        // Additional endpoint for mobile clients
+        // Additional endpoint for mobile clients and device agents (plain WebSocket, no SockJS)
         registry.addEndpoint("/mobile-ws")
-                .setAllowedOriginPatterns("*");
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(new AnonymousHandshakeMarker());
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(agentStompInterceptor);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Drop sockets that never send CONNECT instead of holding them for the default minute
+        registration.setTimeToFirstMessage(30000);
+        // Bounded outbound buffer per session: a client that falls this far behind is disconnected
+        // instead of holding frames in memory or stalling the broker's sending threads
+        registration.setSendBufferSizeLimit(stompSendBufferBytes);
+        registration.setSendTimeLimit(stompSendTimeLimitMs);
+    }
+
+    /**
+     * Principal of a browser session: the user LoggedInUserInterceptor found in the Vaadin session
+     */
+    private static class LoggedInUserHandshakeHandler extends DefaultHandshakeHandler {
+
+        @Override
+        protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler,
+                                          Map<String, Object> attributes) {
+            Principal user = LoggedInUserInterceptor.principalOf(attributes);
+            return user != null ? user : super.determineUser(request, wsHandler, attributes);
+        }
+    }
+
+    /**
+     * Marks sessions whose handshake carried no authenticated user, so AgentStompInterceptor only
+     * lets device agents (with their device token) connect over them
+     */
+    private static class AnonymousHandshakeMarker implements HandshakeInterceptor {
+
+        @Override
+        public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Map<String, Object> attributes) {
+            if (request.getPrincipal() == null) {
+                attributes.put(AgentStompInterceptor.ANONYMOUS_HANDSHAKE_ATTRIBUTE, Boolean.TRUE);
+            }
+            return true;
+        }
+
+        @Override
+        public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Exception exception) {
+        }
     }
 }
@@ -1,15 +1,18 @@
 package com.example.demo.controller;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.User;
 import com.example.demo.model.LocationHistory;
 import com.example.demo.service.DeviceService;
+import com.example.demo.service.DeviceUpdatePublisher;
+import com.example.demo.service.GeofenceEvaluationStage;
+import com.example.demo.service.OutboxService;
 import com.example.demo.repository.UserRepository;
 import com.example.demo.repository.LocationHistoryRepository;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.CacheEvict;
@@ -48,8 +51,15 @@ public class AgentDataController {
     @Autowired
     private UserRepository userRepository;
 
+    // Alerts and live updates go through the outbox so they are sent after the heartbeat commits
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private OutboxService outboxService;
+
+    @Autowired
+    private DeviceUpdatePublisher deviceUpdatePublisher;
+
+    @Autowired
+    private GeofenceEvaluationStage geofenceEvaluationStage;
     
     @Autowired
     private com.example.demo.service.AgentAuthenticationService agentAuthService;
@@ -139,13 +149,14 @@ public class AgentDataController {
             
             // Update location if provided
                 // Update location if provided with sanity checks
+                boolean locationAccepted = false;
                 if (request.getLatitude() != null && request.getLongitude() != null) {
                     boolean acceptLocation = true;
                     Double prevLat = device.getLatitude();
                     Double prevLng = device.getLongitude();
 
                     if (prevLat != null && prevLng != null) {
-                        double distanceKm = haversineKm(prevLat, prevLng, request.getLatitude(), request.getLongitude());
+                        double distanceKm = GeoKernel.haversineKm(prevLat, prevLng, request.getLatitude(), request.getLongitude());
                         Double acc = request.getAccuracy();
                         // Reject big jumps (>30km) unless accuracy is reasonable (<= 2km)
                         if (distanceKm > 30 && (acc == null || acc > 2000)) {
@@ -157,6 +168,7 @@ public class AgentDataController {
                     }
 
                     if (acceptLocation) {
+                        locationAccepted = true;
                         device.setLatitude(request.getLatitude());
                         device.setLongitude(request.getLongitude());
                         device.setAddress(request.getAddress());
@@ -186,11 +198,17 @@ public class AgentDataController {
             device = deviceService.saveDevice(device);
             System.out.println("💾 Device saved successfully. DB ID: " + device.getId() + " | User: " + user.getEmail());
             
+            // Geofence entry/exit is evaluated off the request thread once this transaction commits
+            if (locationAccepted) {
+                geofenceEvaluationStage.submit(device.getDeviceId(), device.getDeviceName(), user.getEmail(),
+                    device.getLatitude(), device.getLongitude(), device.getAccuracy());
+            }
+            
             // Send battery low alert if battery drops below 20% and not charging
             if (newBattery != null && newBattery < 20 && !Boolean.TRUE.equals(isCharging)) {
                 if (oldBattery == null || oldBattery >= 20) {
                     // Battery just dropped below 20%
-                    messagingTemplate.convertAndSend("/topic/alerts/" + user.getEmail(), Map.of(
+                    outboxService.publish(device.getDeviceId(), "/topic/alerts/" + user.getEmail(), Map.of(
                         "type", "BATTERY_LOW",
                         "severity", "warning",
                         "deviceId", device.getDeviceId(),
@@ -199,13 +217,13 @@ public class AgentDataController {
                         "message", "⚠️ " + device.getDeviceName() + " battery is low (" + newBattery + "%)",
                         "timestamp", LocalDateTime.now()
                     ));
-                    System.out.println("🔋 LOW BATTERY ALERT sent for " + device.getDeviceName() + ": " + newBattery + "%");
+                    System.out.println("🔋 LOW BATTERY ALERT queued for " + device.getDeviceName() + ": " + newBattery + "%");
                 }
             }
             
             // Send unplugged alert if device was charging and now isn't
             if (Boolean.TRUE.equals(wasCharging) && !Boolean.TRUE.equals(isCharging) && newBattery != null && newBattery < 100) {
-                messagingTemplate.convertAndSend("/topic/alerts/" + user.getEmail(), Map.of(
+                outboxService.publish(device.getDeviceId(), "/topic/alerts/" + user.getEmail(), Map.of(
                     "type", "DEVICE_UNPLUGGED",
                     "severity", "info",
                     "deviceId", device.getDeviceId(),
@@ -214,11 +232,11 @@ public class AgentDataController {
                     "message", "🔌 " + device.getDeviceName() + " was unplugged (" + newBattery + "% remaining)",
                     "timestamp", LocalDateTime.now()
                 ));
-                System.out.println("🔌 UNPLUGGED ALERT sent for " + device.getDeviceName());
+                System.out.println("🔌 UNPLUGGED ALERT queued for " + device.getDeviceName());
             }
             
-            // Send real-time update to all connected clients via WebSocket
-            messagingTemplate.convertAndSend("/topic/device-updates", new DeviceUpdateMessage(
+            // Send real-time update to the owner's and share recipients' dashboards
+            deviceUpdatePublisher.publish(device, new DeviceUpdateMessage(
                 device.getId(),
                 device.getDeviceId(),
                 device.getDeviceName(),
@@ -283,8 +301,8 @@ public class AgentDataController {
             
             deviceService.saveDevice(device);
             
-            // Send real-time update to dashboard via WebSocket
-            messagingTemplate.convertAndSend("/topic/device-updates", new DeviceUpdateMessage(
+            // Send real-time update to the owner's and share recipients' dashboards
+            deviceUpdatePublisher.publish(device, new DeviceUpdateMessage(
                 device.getId(),
                 device.getDeviceId(),
                 device.getDeviceName(),
@@ -779,18 +797,6 @@ public class AgentDataController {
         return "http://localhost:8086"; // In production, this should be configurable
     }
 
-    // Haversine distance in kilometers
-    private double haversineKm(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371.0; // km
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
-    }
-
     // WebSocket message model
     public static class DeviceUpdateMessage {
         private Long id;
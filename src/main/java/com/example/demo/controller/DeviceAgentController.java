@@ -2,8 +2,11 @@ package com.example.demo.controller;
 
 import com.example.demo.model.Device;
 import com.example.demo.model.User;
+import com.example.demo.service.AgentAuthenticationService;
 import com.example.demo.service.DeviceService;
+import com.example.demo.service.PerfectAuthService;
 import com.example.demo.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -24,6 +27,12 @@ public class DeviceAgentController {
     
     @Autowired
     private UserService userService;
+    
+    @Autowired
+    private AgentAuthenticationService agentAuthService;
+    
+    @Autowired
+    private PerfectAuthService authService;
 
     /**
      * 🛡️ Enterprise Security Helper - Get authenticated user context
@@ -107,11 +116,18 @@ public class DeviceAgentController {
                 System.out.println("✨ Registered new SECURE device: " + deviceId + " for user: " + ownerEmail);
             }
             
+            // Secret for the agent's command channel. Only a device created here gets one: the email and
+            // fingerprint are no secret, so an existing device's token is reissued by its logged-in owner
+            String deviceToken = existingDevice == null ? agentAuthService.generateDeviceToken(device) : null;
+            
             // Save device
             deviceService.saveDevice(device);
             
             response.put("success", true);
             response.put("message", "Device registered securely");
+            if (deviceToken != null) {
+                response.put("deviceToken", deviceToken);
+            }
             response.put("deviceId", deviceId);
             response.put("registered", existingDevice == null);
             response.put("securityFingerprint", ownerFingerprint.substring(0, 8) + "...");
@@ -126,6 +142,33 @@ public class DeviceAgentController {
         }
     }
     
+    /**
+     * Issue a new agent secret for a device, replacing the old one - for reinstalled agents and
+     * devices registered before agents had secrets. Only the device's logged-in owner may call it.
+     * POST /api/devices/{deviceId}/agent-token
+     */
+    @PostMapping("/{deviceId}/agent-token")
+    public ResponseEntity<Map<String, Object>> reissueAgentToken(@PathVariable String deviceId, HttpServletRequest request) {
+        String ownerEmail = authService.getLoggedInUser(request.getSession(false));
+        if (ownerEmail == null) {
+            return ResponseEntity.status(401).body(Map.of("success", false, "message", "Authentication required"));
+        }
+        
+        Device device = deviceService.findByDeviceId(deviceId).orElse(null);
+        if (device == null) {
+            return ResponseEntity.status(404).body(Map.of("success", false, "message", "Device not found: " + deviceId));
+        }
+        if (!device.getUser().getEmail().equals(ownerEmail)) {
+            System.err.println("🚨 UNAUTHORIZED TOKEN REISSUE: Device " + deviceId + " by " + ownerEmail);
+            return ResponseEntity.status(403).body(Map.of("success", false, "message", "Unauthorized: Device belongs to different user"));
+        }
+        
+        String deviceToken = agentAuthService.rotateDeviceToken(device);
+        deviceService.updateDevice(device);
+        
+        return ResponseEntity.ok(Map.of("success", true, "deviceId", deviceId, "deviceToken", deviceToken));
+    }
+    
     /**
      * Update device information from client agent
      * 🔐 SECURE: Validates device ownership before allowing updates
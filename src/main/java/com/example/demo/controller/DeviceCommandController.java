@@ -1,14 +1,23 @@
 package com.example.demo.controller;
 
+import com.example.demo.model.RemoteCommand;
+import com.example.demo.service.AgentAuthenticationService;
+import com.example.demo.service.AgentCommandChannel;
+import com.example.demo.service.DeviceCommandQueue;
+import com.example.demo.service.DeviceCommandWaiters;
 import com.example.demo.service.PerfectAuthService;
 import com.example.demo.service.DeviceService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.security.Principal;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 @RequestMapping("/api/device-commands")
@@ -20,8 +29,23 @@ public class DeviceCommandController {
     @Autowired
     private DeviceService deviceService;
     
-    // Store pending commands for devices (in production, use database)
-    private static final Map<String, Queue<DeviceCommand>> pendingCommands = new ConcurrentHashMap<>();
+    @Autowired
+    private DeviceCommandQueue commandQueue;
+    
+    @Autowired
+    private DeviceCommandWaiters commandWaiters;
+    
+    @Autowired
+    private AgentCommandChannel agentCommandChannel;
+    
+    @Autowired
+    private AgentAuthenticationService agentAuthService;
+    
+    @Value("${app.commands.long-poll-max-seconds:55}")
+    private int maxLongPollSeconds;
+    
+    // Commands handed out per poll
+    private static final int MAX_COMMANDS_PER_POLL = 5;
 
     /**
      * Agent polls for pending commands
@@ -29,63 +53,92 @@ public class DeviceCommandController {
     @GetMapping("/poll/{deviceId}")
     public ResponseEntity<Map<String, Object>> pollForCommands(
             @PathVariable String deviceId,
-            @RequestParam String userEmail) {
-        
-        Map<String, Object> response = new HashMap<>();
+            @RequestParam String userEmail,
+            @RequestHeader(value = "X-Device-Token", required = false) String deviceToken) {
         
         try {
-            System.out.println("🔍 POLL REQUEST: Device=" + deviceId + ", User=" + userEmail);
-            System.out.println("🔍 Total devices in queue: " + pendingCommands.size());
-            System.out.println("🔍 Queue keys: " + pendingCommands.keySet());
-            
-            // Verify device exists and user owns it
-            var deviceOpt = deviceService.findByDeviceId(deviceId);
-            if (deviceOpt.isEmpty()) {
-                System.out.println("❌ POLL ERROR: Device not found: " + deviceId);
-                response.put("success", false);
-                response.put("error", "Device not found");
-                return ResponseEntity.status(404).body(response);
+            // Nothing queued and ownership already verified - answer without touching the database
+            if (commandQueue.isIdle(deviceId, userEmail, deviceToken)) {
+                return ResponseEntity.ok(commandsResponse(List.of()));
             }
             
-            var device = deviceOpt.get();
-            if (!device.getUserEmail().equals(userEmail)) {
-                System.out.println("❌ POLL ERROR: Access denied for " + userEmail + " on device " + deviceId);
-                response.put("success", false);
-                response.put("error", "Access denied");
-                return ResponseEntity.status(403).body(response);
+            ResponseEntity<Map<String, Object>> denied = verifyDevice(deviceId, userEmail, deviceToken);
+            if (denied != null) {
+                return denied;
             }
             
-            // Get pending commands
-            Queue<DeviceCommand> commands = pendingCommands.getOrDefault(deviceId, new LinkedList<>());
-            System.out.println("🔍 Commands in queue for " + deviceId + ": " + commands.size());
-            
-            List<DeviceCommand> commandList = new ArrayList<>();
+            return ResponseEntity.ok(commandsResponse(claimCommands(deviceId)));
             
-            // Return up to 5 commands at once
-            for (int i = 0; i < 5 && !commands.isEmpty(); i++) {
-                DeviceCommand cmd = commands.poll();
-                commandList.add(cmd);
-                System.out.println("📤 Dequeued command: " + cmd.getAction() + " (ID: " + cmd.getCommandId() + ")");
+        } catch (Exception e) {
+            return pollError(e);
+        }
+    }
+    
+    /**
+     * Long poll: holds the request until a command is queued for the device or the timeout passes,
+     * then answers like /poll. Agents call it again right away, so commands arrive within moments
+     * instead of on the next poll interval. Waiting requests hold no servlet thread.
+     */
+    @GetMapping("/wait/{deviceId}")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> waitForCommands(
+            @PathVariable String deviceId,
+            @RequestParam String userEmail,
+            @RequestParam(defaultValue = "55") int timeoutSeconds,
+            @RequestHeader(value = "X-Device-Token", required = false) String deviceToken) {
+        
+        long timeoutMs = Math.max(1, Math.min(timeoutSeconds, maxLongPollSeconds)) * 1000L;
+        DeferredResult<ResponseEntity<Map<String, Object>>> result =
+            new DeferredResult<>(timeoutMs, () -> ResponseEntity.ok(commandsResponse(List.of())));
+        
+        try {
+            if (!commandQueue.isIdle(deviceId, userEmail, deviceToken)) {
+                ResponseEntity<Map<String, Object>> denied = verifyDevice(deviceId, userEmail, deviceToken);
+                if (denied != null) {
+                    result.setResult(denied);
+                    return result;
+                }
+                if (commandQueue.mayHavePending(deviceId)) {
+                    List<DeviceCommand> commands = claimCommands(deviceId);
+                    if (!commands.isEmpty()) {
+                        result.setResult(ResponseEntity.ok(commandsResponse(commands)));
+                        return result;
+                    }
+                }
             }
             
-            response.put("success", true);
-            response.put("commands", commandList);
-            response.put("commandCount", commandList.size());
-            response.put("timestamp", LocalDateTime.now());
-            
-            if (!commandList.isEmpty()) {
-                System.out.println("✅ Sent " + commandList.size() + " commands to device: " + deviceId);
-            } else {
-                System.out.println("ℹ️ No pending commands for device: " + deviceId);
+            DeviceCommandWaiters.Waiter waiter = commandWaiters.await(deviceId,
+                () -> {
+                    // Don't claim for a request that already timed out - the commands would be marked SENT and lost
+                    if (result.isSetOrExpired()) {
+                        return;
+                    }
+                    try {
+                        List<DeviceCommand> commands = claimCommands(deviceId);
+                        if (!result.setResult(ResponseEntity.ok(commandsResponse(commands)))) {
+                            // Timed out while claiming - nobody will receive these, so hand them to the next poll
+                            requeue(commands);
+                        }
+                    } catch (Exception e) {
+                        result.setResult(pollError(e));
+                    }
+                },
+                () -> result.setResult(ResponseEntity.ok(commandsResponse(List.of()))));
+            if (waiter == null) {
+                // Node is at its waiter limit; the agent falls back to its normal poll interval
+                result.setResult(ResponseEntity.ok(commandsResponse(List.of())));
+                return result;
             }
+            result.onCompletion(() -> commandWaiters.cancel(waiter));
             
-            return ResponseEntity.ok(response);
+            // A command queued between the check above and registering would have found no waiter
+            if (commandQueue.mayHavePending(deviceId)) {
+                commandWaiters.wake(deviceId);
+            }
             
         } catch (Exception e) {
-            response.put("success", false);
-            response.put("error", "Failed to poll commands: " + e.getMessage());
-            return ResponseEntity.status(500).body(response);
+            result.setResult(pollError(e));
         }
+        return result;
     }
     
     /**
@@ -99,17 +152,19 @@ public class DeviceCommandController {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String commandId = (String) result.get("commandId");
-            String status = (String) result.get("status");
-            String message = (String) result.get("message");
+            String commandId = String.valueOf(result.get("commandId"));
+            String status = String.valueOf(result.get("status"));
+            String message = result.get("message") != null ? String.valueOf(result.get("message")) : null;
             
             System.out.println(String.format("📥 Command result from %s: %s - %s (%s)", 
                 deviceId, commandId, status, message));
             
-            // In production, you'd store this in database for audit trail
+            boolean success = !"FAILED".equalsIgnoreCase(status) && !"ERROR".equalsIgnoreCase(status);
+            Long id = parseCommandId(commandId);
+            boolean recorded = id != null && commandQueue.complete(deviceId, id, success, message);
             
             response.put("success", true);
-            response.put("message", "Command result recorded");
+            response.put("message", recorded ? "Command result recorded" : "Unknown command, result logged only");
             response.put("timestamp", LocalDateTime.now());
             
             return ResponseEntity.ok(response);
@@ -122,24 +177,26 @@ public class DeviceCommandController {
     }
     
     /**
-     * Queue a command for a device (called by QuickActionsService)
+     * Agent acknowledges a command pushed on /user/queue/commands (STOMP /app/agent/ack)
      */
-    public static void queueCommand(String deviceId, String action, Map<String, Object> parameters) {
-        DeviceCommand command = new DeviceCommand(
-            UUID.randomUUID().toString(),
-            action,
-            parameters,
-            LocalDateTime.now()
-        );
-        
-        pendingCommands.computeIfAbsent(deviceId, k -> new LinkedList<>()).offer(command);
-        
-        System.out.println("📋 QUEUED COMMAND:");
-        System.out.println("   Device ID: " + deviceId);
-        System.out.println("   Action: " + action);
-        System.out.println("   Command ID: " + command.getCommandId());
-        System.out.println("   Queue size for device: " + pendingCommands.get(deviceId).size());
-        System.out.println("   Total devices with commands: " + pendingCommands.size());
+    @MessageMapping("/agent/ack")
+    public void acknowledgeCommand(@Payload Map<String, Object> ack, Principal principal) {
+        String deviceId = AgentCommandChannel.deviceIdOf(principal);
+        Long commandId = parseCommandId(ack.get("commandId"));
+        if (deviceId != null && commandId != null) {
+            agentCommandChannel.ack(deviceId, commandId);
+        }
+    }
+    
+    /**
+     * Agent reports a command result over its socket (STOMP /app/agent/result); same body as /result
+     */
+    @MessageMapping("/agent/result")
+    public void agentCommandResult(@Payload Map<String, Object> result, Principal principal) {
+        String deviceId = AgentCommandChannel.deviceIdOf(principal);
+        if (deviceId != null) {
+            reportCommandResult(deviceId, result);
+        }
     }
     
     /**
@@ -152,16 +209,99 @@ public class DeviceCommandController {
             return ResponseEntity.status(401).body(Map.of("error", "Authentication required"));
         }
         
-        Queue<DeviceCommand> commands = pendingCommands.getOrDefault(deviceId, new LinkedList<>());
-        
         Map<String, Object> response = new HashMap<>();
         response.put("deviceId", deviceId);
-        response.put("pendingCommands", commands.size());
+        response.put("pendingCommands", commandQueue.countPending(deviceId));
         response.put("timestamp", LocalDateTime.now());
         
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Error response if the device is unknown or not owned by the user, null if the agent may poll it
+     */
+    private ResponseEntity<Map<String, Object>> verifyDevice(String deviceId, String userEmail, String deviceToken) {
+        Map<String, Object> response = new HashMap<>();
+        var deviceOpt = deviceService.findByDeviceId(deviceId);
+        if (deviceOpt.isEmpty()) {
+            System.out.println("❌ POLL ERROR: Device not found: " + deviceId);
+            response.put("success", false);
+            response.put("error", "Device not found");
+            return ResponseEntity.status(404).body(response);
+        }
+        
+        if (!deviceOpt.get().getUserEmail().equals(userEmail)) {
+            System.out.println("❌ POLL ERROR: Access denied for " + userEmail + " on device " + deviceId);
+            response.put("success", false);
+            response.put("error", "Access denied");
+            return ResponseEntity.status(403).body(response);
+        }
+        
+        // Once a device has been issued a secret, its agent must present it
+        if (deviceOpt.get().getAgentTokenHash() != null && !agentAuthService.validateDeviceToken(deviceOpt.get(), deviceToken)) {
+            System.out.println("❌ POLL ERROR: Missing or invalid device token for " + deviceId);
+            response.put("success", false);
+            response.put("error", "Invalid device token");
+            return ResponseEntity.status(401).body(response);
+        }
+        commandQueue.rememberOwner(deviceId, userEmail, deviceToken);
+        return null;
+    }
+    
+    private List<DeviceCommand> claimCommands(String deviceId) {
+        List<DeviceCommand> commandList = new ArrayList<>();
+        for (RemoteCommand command : commandQueue.claim(deviceId, MAX_COMMANDS_PER_POLL)) {
+            commandList.add(toDeviceCommand(command));
+            System.out.println("📤 Dequeued command: " + command.getCommandType() + " (ID: " + command.getId() + ")");
+        }
+        if (!commandList.isEmpty()) {
+            System.out.println("✅ Sent " + commandList.size() + " commands to device: " + deviceId);
+        }
+        return commandList;
+    }
+    
+    private void requeue(List<DeviceCommand> commands) {
+        for (DeviceCommand command : commands) {
+            Long id = parseCommandId(command.getCommandId());
+            if (id != null) {
+                commandQueue.requeue(id);
+            }
+        }
+    }
+    
+    private static Long parseCommandId(Object commandId) {
+        try {
+            return commandId != null ? Long.parseLong(String.valueOf(commandId)) : null;
+        } catch (NumberFormatException e) {
+            return null; // Not one of our command ids
+        }
+    }
+    
+    private static Map<String, Object> commandsResponse(List<DeviceCommand> commands) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("commands", commands);
+        response.put("commandCount", commands.size());
+        response.put("timestamp", LocalDateTime.now());
+        return response;
+    }
+    
+    private static ResponseEntity<Map<String, Object>> pollError(Exception e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("error", "Failed to poll commands: " + e.getMessage());
+        return ResponseEntity.status(500).body(response);
+    }
+    
+    private DeviceCommand toDeviceCommand(RemoteCommand command) {
+        return new DeviceCommand(
+            String.valueOf(command.getId()),
+            command.getCommandType(),
+            commandQueue.parameters(command),
+            command.getCreatedAt()
+        );
+    }
+    
     /**
      * Device command data class
      */
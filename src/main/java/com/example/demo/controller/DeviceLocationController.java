@@ -2,6 +2,7 @@ package com.example.demo.controller;
 
 import com.example.demo.model.Device;
 import com.example.demo.service.DeviceService;
+import com.example.demo.service.DeviceUpdatePublisher;
 import com.example.demo.service.PerfectAuthService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -17,15 +18,18 @@ public class DeviceLocationController {
 
     private final DeviceService deviceService;
     private final PerfectAuthService authService;
+    private final DeviceUpdatePublisher deviceUpdatePublisher;
     
     // Rate limiting: Track last update time per device (10 updates per hour max)
     private final Map<String, LocalDateTime> lastUpdateMap = new ConcurrentHashMap<>();
     private static final int MAX_UPDATES_PER_HOUR = 10;
     private static final int MINUTES_BETWEEN_UPDATES = 60 / MAX_UPDATES_PER_HOUR;  // 6 minutes
 
-    public DeviceLocationController(DeviceService deviceService, PerfectAuthService authService) {
+    public DeviceLocationController(DeviceService deviceService, PerfectAuthService authService,
+                                    DeviceUpdatePublisher deviceUpdatePublisher) {
         this.deviceService = deviceService;
         this.authService = authService;
+        this.deviceUpdatePublisher = deviceUpdatePublisher;
     }
 
     /**
@@ -94,6 +98,9 @@ public class DeviceLocationController {
             device.setLastSeen(LocalDateTime.now());
             deviceService.saveDevice(device);
             
+            // Open maps move the marker from this instead of reloading
+            deviceUpdatePublisher.publishDelta(device, null);
+            
             // Update rate limit timestamp
             lastUpdateMap.put(deviceId, LocalDateTime.now());
             
@@ -0,0 +1,175 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Device;
+import com.example.demo.model.User;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.security.SecretTokens;
+import com.example.demo.service.DeviceDeltaStream;
+import com.example.demo.service.DeviceEventFeed;
+import com.example.demo.service.DeviceShareService;
+import com.example.demo.service.PerfectAuthService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live device streams for maps and dashboards
+ */
+@Controller
+public class DeviceStreamController {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DeviceShareService deviceShareService;
+
+    @Autowired
+    private DeviceDeltaStream deviceDeltaStream;
+
+    @Autowired
+    private DeviceEventFeed deviceEventFeed;
+
+    @Autowired
+    private PerfectAuthService authService;
+
+    /**
+     * Server-Sent Events feed of the user's own and shared devices
+     * GET /api/stream/devices
+     *
+     * Browsers are served as the user logged in to their session; kiosks, wallboards and scripts send
+     * "Authorization: Bearer {token}" with a token from POST /api/stream/token.
+     *
+     * A new connection starts with a "snapshot" event, then gets "device-update" events. A reconnect
+     * with Last-Event-ID (EventSource does this by itself) replays what was missed; if that is no
+     * longer buffered, or the id is from another feed epoch (another node, a restart), a "resync"
+     * event tells the client to reconnect without the id for a fresh snapshot.
+     */
+    @GetMapping(value = "/api/stream/devices", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Transactional(readOnly = true)
+    public ResponseEntity<SseEmitter> streamDevices(
+            HttpServletRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authorization,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader) {
+        try {
+            User user = streamUser(request, authorization);
+            if (user == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+
+            String lastEventId = lastEventIdHeader != null && !lastEventIdHeader.isBlank() ? lastEventIdHeader.trim() : null;
+            Object snapshot = null;
+            if (lastEventId == null) {
+                List<Map<String, Object>> devices = new ArrayList<>();
+                for (Device device : deviceShareService.getAllAccessibleDevices(user)) {
+                    devices.add(snapshotEntry(device));
+                }
+                snapshot = Map.of("devices", devices);
+            }
+            return ResponseEntity.ok()
+                    .header("Cache-Control", "no-cache")
+                    .header("X-Accel-Buffering", "no") // Keep nginx from buffering the stream
+                    .body(deviceEventFeed.connect(user.getEmail(), lastEventId, snapshot));
+
+        } catch (Exception e) {
+            System.err.println("❌ Error opening device stream: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Issue a feed token for the logged-in user, replacing any earlier one. The token is only shown here.
+     * POST /api/stream/token
+     */
+    @PostMapping("/api/stream/token")
+    @Transactional
+    public ResponseEntity<Map<String, Object>> issueStreamToken(HttpServletRequest request) {
+        User user = sessionUser(request);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        String token = SecretTokens.generate();
+        user.setFeedTokenHash(SecretTokens.hash(token));
+        userRepository.save(user);
+        System.out.println("🔐 Issued device feed token for " + user.getEmail());
+        return ResponseEntity.ok(Map.of("token", token, "header", "Authorization: Bearer " + token));
+    }
+
+    /**
+     * Revoke the logged-in user's feed token
+     * DELETE /api/stream/token
+     */
+    @DeleteMapping("/api/stream/token")
+    @Transactional
+    public ResponseEntity<Map<String, Object>> revokeStreamToken(HttpServletRequest request) {
+        User user = sessionUser(request);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        user.setFeedTokenHash(null);
+        userRepository.save(user);
+        return ResponseEntity.ok(Map.of("revoked", true));
+    }
+
+    /**
+     * Full snapshot for /user/queue/device-deltas, answered directly to the subscribing session.
+     * Clients subscribe to /app/devices/snapshot on connect and again whenever they detect a sequence gap.
+     */
+    @SubscribeMapping("/devices/snapshot")
+    @Transactional(readOnly = true)
+    public Map<String, Object> deviceSnapshot(Principal principal) {
+        if (principal == null) {
+            return Map.of("t", "s", "s", 0, "d", List.of());
+        }
+        User user = userRepository.findByEmail(principal.getName()).orElse(null);
+        if (user == null) {
+            return Map.of("t", "s", "s", 0, "d", List.of());
+        }
+        return deviceDeltaStream.snapshot(user.getEmail(), deviceShareService.getAllAccessibleDevices(user));
+    }
+
+    // A bearer feed token wins over the session, so a wallboard stays on its own account
+    private User streamUser(HttpServletRequest request, String authorization) {
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            String token = authorization.substring(7).trim();
+            return token.isEmpty() ? null : userRepository.findByFeedTokenHash(SecretTokens.hash(token)).orElse(null);
+        }
+        return sessionUser(request);
+    }
+
+    // Plain MVC requests have no current VaadinSession; it is found through the HTTP session
+    private User sessionUser(HttpServletRequest request) {
+        String email = authService.getLoggedInUser(request.getSession(false));
+        return email != null ? userRepository.findByEmail(email).orElse(null) : null;
+    }
+
+    private static Map<String, Object> snapshotEntry(Device device) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("deviceId", device.getDeviceId());
+        entry.put("deviceName", device.getDeviceName());
+        entry.put("isOnline", device.getIsOnline());
+        entry.put("batteryLevel", device.getBatteryLevel());
+        entry.put("cpuUsage", device.getCpuUsage());
+        entry.put("memoryUsage", device.getMemoryUsage());
+        entry.put("latitude", device.getLatitude());
+        entry.put("longitude", device.getLongitude());
+        entry.put("lastSeen", device.getLastSeen());
+        return entry;
+    }
+}
@@ -4,6 +4,8 @@ import com.example.demo.model.Device;
 import com.example.demo.model.Geofence;
 import com.example.demo.repository.GeofenceRepository;
 import com.example.demo.service.DeviceService;
+import com.example.demo.service.GeofenceFleetEvaluator;
+import com.example.demo.service.GeofenceIndexService;
 import com.example.demo.service.NotificationService;
 import com.example.demo.service.PerfectAuthService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,6 +15,7 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +39,12 @@ public class GeofenceController {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private GeofenceIndexService geofenceIndexService;
+
+    @Autowired
+    private GeofenceFleetEvaluator geofenceFleetEvaluator;
+
     /**
      * Create a new geofence
      * POST /api/geofences
@@ -55,11 +64,12 @@ public class GeofenceController {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "Geofence name is required"));
             }
-            if (request.getCenterLatitude() == null || request.getCenterLongitude() == null) {
+            boolean circle = request.getShape() == null || Geofence.Shape.CIRCLE.name().equals(request.getShape());
+            if (circle && (request.getCenterLatitude() == null || request.getCenterLongitude() == null)) {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "Center coordinates are required"));
             }
-            if (request.getRadiusMeters() == null || request.getRadiusMeters() <= 0) {
+            if (circle && (request.getRadiusMeters() == null || request.getRadiusMeters() <= 0)) {
                 return ResponseEntity.badRequest()
                         .body(Map.of("error", "Valid radius is required"));
             }
@@ -76,12 +86,26 @@ public class GeofenceController {
             geofence.setAlertOnEntry(request.getAlertOnEntry() != null ? request.getAlertOnEntry() : false);
             geofence.setAlertOnExit(request.getAlertOnExit() != null ? request.getAlertOnExit() : true);
             geofence.setAutoLockOnExit(request.getAutoLockOnExit() != null ? request.getAutoLockOnExit() : false);
+            geofence.setDwellSeconds(request.getDwellSeconds());
+            geofence.setHysteresisMeters(request.getHysteresisMeters());
             
             if (request.getFenceType() != null) {
                 geofence.setFenceType(Geofence.GeofenceType.valueOf(request.getFenceType()));
             }
 
+            if (hasNegativeThreshold(request)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "Dwell time and hysteresis cannot be negative"));
+            }
+
+            String shapeError = applyShape(geofence, request);
+            if (shapeError != null) {
+                return ResponseEntity.badRequest().body(Map.of("error", shapeError));
+            }
+
             Geofence saved = geofenceRepository.save(geofence);
+            geofenceIndexService.invalidate(username);
+            geofenceFleetEvaluator.reevaluate(username, List.of(saved.getId()));
 
             // Send WebSocket notification
             messagingTemplate.convertAndSendToUser(username, "/queue/geofence-updates",
@@ -188,12 +212,28 @@ public class GeofenceController {
             if (request.getAlertOnEntry() != null) geofence.setAlertOnEntry(request.getAlertOnEntry());
             if (request.getAlertOnExit() != null) geofence.setAlertOnExit(request.getAlertOnExit());
             if (request.getAutoLockOnExit() != null) geofence.setAutoLockOnExit(request.getAutoLockOnExit());
+            if (request.getDwellSeconds() != null) geofence.setDwellSeconds(request.getDwellSeconds());
+            if (request.getHysteresisMeters() != null) geofence.setHysteresisMeters(request.getHysteresisMeters());
             if (request.getFenceType() != null) {
                 geofence.setFenceType(Geofence.GeofenceType.valueOf(request.getFenceType()));
             }
 
+            if (hasNegativeThreshold(request)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "Dwell time and hysteresis cannot be negative"));
+            }
+
+            if (request.getShape() != null || request.getVertices() != null) {
+                String shapeError = applyShape(geofence, request);
+                if (shapeError != null) {
+                    return ResponseEntity.badRequest().body(Map.of("error", shapeError));
+                }
+            }
+
             geofence.setUpdatedAt(LocalDateTime.now());
             Geofence updated = geofenceRepository.save(geofence);
+            geofenceIndexService.invalidate(username);
+            geofenceFleetEvaluator.reevaluate(username, List.of(updated.getId()));
 
             // Send WebSocket notification
             messagingTemplate.convertAndSendToUser(username, "/queue/geofence-updates",
@@ -232,6 +272,7 @@ public class GeofenceController {
             }
 
             geofenceRepository.delete(geofence);
+            geofenceIndexService.invalidate(username);
 
             // Send WebSocket notification
             messagingTemplate.convertAndSendToUser(username, "/queue/geofence-updates",
@@ -277,7 +318,7 @@ public class GeofenceController {
             }
 
             // Find geofences containing device location
-            List<Geofence> containingGeofences = geofenceRepository.findGeofencesContainingPoint(
+            List<Geofence> containingGeofences = geofenceIndexService.findContaining(
                     username, device.getLatitude(), device.getLongitude());
 
             return ResponseEntity.ok(Map.of(
@@ -320,6 +361,8 @@ public class GeofenceController {
             geofence.setIsActive(!geofence.getIsActive());
             geofence.setUpdatedAt(LocalDateTime.now());
             Geofence updated = geofenceRepository.save(geofence);
+            geofenceIndexService.invalidate(username);
+            geofenceFleetEvaluator.reevaluate(username, List.of(updated.getId()));
 
             // Send WebSocket notification
             messagingTemplate.convertAndSendToUser(username, "/queue/geofence-updates",
@@ -333,6 +376,66 @@ public class GeofenceController {
         }
     }
 
+    private boolean hasNegativeThreshold(GeofenceRequest request) {
+        return (request.getDwellSeconds() != null && request.getDwellSeconds() < 0)
+                || (request.getHysteresisMeters() != null && request.getHysteresisMeters() < 0);
+    }
+
+    /**
+     * Apply shape and vertices from a request. Returns an error message, or null when valid.
+     */
+    private String applyShape(Geofence geofence, GeofenceRequest request) {
+        Geofence.Shape shape;
+        try {
+            shape = request.getShape() != null ? Geofence.Shape.valueOf(request.getShape()) : geofence.getShape();
+        } catch (IllegalArgumentException e) {
+            return "Unknown geofence shape: " + request.getShape();
+        }
+        if (shape == null) {
+            shape = Geofence.Shape.CIRCLE;
+        }
+        geofence.setShape(shape);
+        if (shape == Geofence.Shape.CIRCLE) {
+            geofence.setEncodedVertices(null);
+            return null;
+        }
+
+        if (request.getVertices() != null) {
+            List<double[]> points = new ArrayList<>();
+            for (List<Double> vertex : request.getVertices()) {
+                if (vertex == null || vertex.size() < 2 || vertex.get(0) == null || vertex.get(1) == null) {
+                    return "Each vertex must be [latitude, longitude]";
+                }
+                points.add(new double[] { vertex.get(0), vertex.get(1) });
+            }
+            int minimum = shape == Geofence.Shape.POLYGON ? 3 : 2;
+            if (points.size() < minimum) {
+                return shape + " geofence needs at least " + minimum + " vertices";
+            }
+            geofence.updateVertices(points);
+        } else if (geofence.getEncodedVertices() == null) {
+            return "Vertices are required for " + shape + " geofences";
+        }
+
+        if (shape == Geofence.Shape.CORRIDOR
+                && (geofence.getRadiusMeters() == null || geofence.getRadiusMeters() <= 0)) {
+            return "Corridor half-width (radiusMeters) is required";
+        }
+        if (geofence.getRadiusMeters() == null) {
+            geofence.setRadiusMeters(0.0);
+        }
+
+        try {
+            // Center columns are required; use the middle of the bounding box
+            double[] box = geofence.boundingBox();
+            geofence.setCenterLatitude((box[0] + box[2]) / 2);
+            geofence.setCenterLongitude((box[1] + box[3]) / 2);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
     /**
      * DTO for geofence creation/update requests
      */
@@ -346,6 +449,10 @@ public class GeofenceController {
         private Boolean alertOnEntry;
         private Boolean alertOnExit;
         private Boolean autoLockOnExit;
+        private String shape;                // CIRCLE (default), POLYGON or CORRIDOR
+        private List<List<Double>> vertices; // [[lat, lng], ...] for POLYGON and CORRIDOR
+        private Integer dwellSeconds;        // Defaults to app.geofence.default-dwell-seconds
+        private Double hysteresisMeters;     // Defaults to app.geofence.default-hysteresis-meters
 
         // Getters and setters
         public String getName() { return name; }
@@ -374,6 +481,18 @@ public class GeofenceController {
 
         public Boolean getAutoLockOnExit() { return autoLockOnExit; }
         public void setAutoLockOnExit(Boolean autoLockOnExit) { this.autoLockOnExit = autoLockOnExit; }
+
+        public String getShape() { return shape; }
+        public void setShape(String shape) { this.shape = shape; }
+
+        public List<List<Double>> getVertices() { return vertices; }
+        public void setVertices(List<List<Double>> vertices) { this.vertices = vertices; }
+
+        public Integer getDwellSeconds() { return dwellSeconds; }
+        public void setDwellSeconds(Integer dwellSeconds) { this.dwellSeconds = dwellSeconds; }
+
+        public Double getHysteresisMeters() { return hysteresisMeters; }
+        public void setHysteresisMeters(Double hysteresisMeters) { this.hysteresisMeters = hysteresisMeters; }
     }
 }
 
@@ -1,5 +1,6 @@
 package com.example.demo.controller;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationHistory;
 import com.example.demo.repository.LocationHistoryRepository;
@@ -166,7 +167,7 @@ public class LocationHistoryController {
                 LocationHistory current = history.get(i);
                 LocationHistory next = history.get(i + 1);
                 
-                double distance = haversineDistance(
+                double distance = GeoKernel.haversineKm(
                     current.getLatitude(), current.getLongitude(),
                     next.getLatitude(), next.getLongitude()
                 );
@@ -194,14 +195,4 @@ public class LocationHistoryController {
         }
     }
 
-    private double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371; // Earth radius in km
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
-    }
 }
@@ -5,6 +5,7 @@ import com.example.demo.model.RemoteCommand;
 import com.example.demo.model.User;
 import com.example.demo.repository.RemoteCommandRepository;
 import com.example.demo.repository.UserRepository;
+import com.example.demo.service.DeviceCommandQueue;
 import com.example.demo.service.DeviceService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +25,8 @@ import java.util.*;
 @CrossOrigin(origins = "*")
 public class RemoteCommandController {
 
+    private static final int MAX_COMMANDS_PER_POLL = 20;
+
     @Autowired
     private RemoteCommandRepository commandRepository;
 
@@ -36,6 +39,9 @@ public class RemoteCommandController {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private DeviceCommandQueue commandQueue;
+
     // Send a remote command to a device
     @PostMapping("/send")
     @Transactional
@@ -86,6 +92,7 @@ public class RemoteCommandController {
             command.setExpiresAt(LocalDateTime.now().plusHours(expiryHours));
 
             commandRepository.save(command);
+            commandQueue.commandQueued(command);
 
             // Send WebSocket notification
             messagingTemplate.convertAndSend("/topic/commands/" + device.getDeviceId(), Map.of(
@@ -131,21 +138,9 @@ public class RemoteCommandController {
                 ));
             }
 
-            // Get pending commands
-            List<RemoteCommand> pendingCommands = commandRepository
-                .findByDeviceAndStatusOrderByPriorityDescCreatedAtAsc(device, "PENDING");
-
-            // Filter expired commands
-            LocalDateTime now = LocalDateTime.now();
+            // Claim unexpired pending commands (marked SENT); concurrent polls never get the same one
             List<Map<String, Object>> commands = new ArrayList<>();
-            
-            for (RemoteCommand cmd : pendingCommands) {
-                if (cmd.getExpiresAt() != null && cmd.getExpiresAt().isBefore(now)) {
-                    cmd.setStatus("EXPIRED");
-                    commandRepository.save(cmd);
-                    continue;
-                }
-
+            for (RemoteCommand cmd : commandQueue.claim(device, MAX_COMMANDS_PER_POLL)) {
                 commands.add(Map.of(
                     "id", cmd.getId(),
                     "commandType", cmd.getCommandType(),
@@ -153,11 +148,6 @@ public class RemoteCommandController {
                     "priority", cmd.getPriority(),
                     "createdAt", cmd.getCreatedAt().toString()
                 ));
-
-                // Mark as SENT
-                cmd.setStatus("SENT");
-                cmd.setSentAt(LocalDateTime.now());
-                commandRepository.save(cmd);
             }
 
             return ResponseEntity.ok(Map.of(
@@ -1,9 +1,20 @@
 package com.example.demo.controller;
 
+import com.example.demo.service.AgentCommandChannel;
+import com.example.demo.service.AnalyticsService;
+import com.example.demo.service.ClusterEventBus;
+import com.example.demo.service.CommandLifecycleScheduler;
 import com.example.demo.service.ContinuousOperationService;
 import com.example.demo.service.DeviceActionService;
+import com.example.demo.service.DeviceCommandQueue;
+import com.example.demo.service.DeviceCommandWaiters;
+import com.example.demo.service.DeviceUpdatePublisher;
+import com.example.demo.service.GeofenceEvaluationStage;
+import com.example.demo.service.GeofenceFleetEvaluator;
 import com.example.demo.service.WebSocketService;
 import com.example.demo.service.LapsoIntegrationService;
+import com.example.demo.service.MailDispatcher;
+import com.example.demo.service.OutboxDispatcher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -33,6 +44,39 @@ public class SystemStatusController {
     
     @Autowired
     private LapsoIntegrationService integrationService;
+    
+    @Autowired
+    private AnalyticsService analyticsService;
+    
+    @Autowired
+    private OutboxDispatcher outboxDispatcher;
+    
+    @Autowired
+    private MailDispatcher mailDispatcher;
+    
+    @Autowired
+    private GeofenceEvaluationStage geofenceEvaluationStage;
+    
+    @Autowired
+    private GeofenceFleetEvaluator geofenceFleetEvaluator;
+    
+    @Autowired
+    private DeviceUpdatePublisher deviceUpdatePublisher;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private DeviceCommandQueue deviceCommandQueue;
+
+    @Autowired
+    private DeviceCommandWaiters deviceCommandWaiters;
+
+    @Autowired
+    private AgentCommandChannel agentCommandChannel;
+
+    @Autowired
+    private CommandLifecycleScheduler commandLifecycleScheduler;
 
     /**
      * Get comprehensive system status for 24/7 monitoring
@@ -139,11 +183,27 @@ public class SystemStatusController {
             ));
             
             // Device metrics
+            Map<String, Object> fleet = analyticsService.getSystemAnalytics();
             metrics.put("deviceMetrics", Map.of(
-                "totalDevices", deviceActionService.getDeviceCount(),
+                "totalDevices", fleet.getOrDefault("totalDevices", deviceActionService.getDeviceCount()),
+                "onlineDevices", fleet.getOrDefault("onlineDevices", 0),
+                "totalUsers", fleet.getOrDefault("totalUsers", 0L),
                 "activeConnections", webSocketService.getActiveSessionCount()
             ));
             
+            // Post-commit side effects (alerts, live updates, emails)
+            metrics.put("outbox", outboxDispatcher.getStats());
+            metrics.put("mail", mailDispatcher.getStats());
+            metrics.put("geofenceStage", geofenceEvaluationStage.getStats());
+            metrics.put("geofenceFleet", geofenceFleetEvaluator.getStats());
+            metrics.put("websocket", webSocketService.getStats());
+            metrics.put("deviceUpdates", deviceUpdatePublisher.getStats());
+            metrics.put("cluster", clusterEventBus.getStats());
+            metrics.put("commands", deviceCommandQueue.getStats());
+            metrics.put("commandLongPoll", deviceCommandWaiters.getStats());
+            metrics.put("agentChannel", agentCommandChannel.getStats());
+            metrics.put("commandLifecycle", commandLifecycleScheduler.getStats());
+            
             return ResponseEntity.ok(metrics);
             
         } catch (Exception e) {
@@ -154,6 +214,18 @@ public class SystemStatusController {
         }
     }
 
+    /**
+     * Get fleet-wide analytics (aggregated in the database, cached briefly)
+     */
+    @GetMapping("/analytics")
+    public ResponseEntity<Map<String, Object>> getSystemAnalytics() {
+        Map<String, Object> analytics = analyticsService.getSystemAnalytics();
+        if (analytics.containsKey("error")) {
+            return ResponseEntity.status(500).body(analytics);
+        }
+        return ResponseEntity.ok(analytics);
+    }
+
     /**
      * Get comprehensive LAPSO system status
      */
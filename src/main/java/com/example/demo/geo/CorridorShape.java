@@ -0,0 +1,102 @@
+package com.example.demo.geo;
+
+/**
+ * Buffered polyline: every point within halfWidthMeters of the route.
+ * Distances use a local equirectangular projection around the tested point,
+ * which is accurate well beyond any realistic corridor width.
+ */
+public final class CorridorShape implements FenceShape {
+
+    private static final double METERS_PER_DEGREE = GeoKernel.METERS_PER_DEGREE;
+
+    private final double[] lats;
+    private final double[] lngs;
+    private final double halfWidthMeters;
+
+    // Per-segment boxes already grown by the corridor width, so most segments are skipped without math
+    private final double[] segMinLat, segMaxLat, segMinLng, segMaxLng;
+    private final double[] box;
+
+    public CorridorShape(double[] lats, double[] lngs, double halfWidthMeters) {
+        if (lats.length < 2) {
+            throw new IllegalArgumentException("Corridor needs at least 2 vertices");
+        }
+        if (halfWidthMeters <= 0) {
+            throw new IllegalArgumentException("Corridor width must be positive");
+        }
+        this.lats = lats;
+        this.lngs = lngs;
+        this.halfWidthMeters = halfWidthMeters;
+
+        int segments = lats.length - 1;
+        segMinLat = new double[segments];
+        segMaxLat = new double[segments];
+        segMinLng = new double[segments];
+        segMaxLng = new double[segments];
+
+        double latPad = halfWidthMeters / METERS_PER_DEGREE * 1.01;
+        double minLat = Double.POSITIVE_INFINITY, minLng = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < segments; i++) {
+            double lo = Math.min(lats[i], lats[i + 1]) - latPad;
+            double hi = Math.max(lats[i], lats[i + 1]) + latPad;
+            double cos = GeoKernel.cosLat(Math.min(89.0, Math.max(Math.abs(lo), Math.abs(hi))));
+            double lngPad = halfWidthMeters / (METERS_PER_DEGREE * cos) * 1.01;
+            segMinLat[i] = lo;
+            segMaxLat[i] = hi;
+            segMinLng[i] = Math.min(lngs[i], lngs[i + 1]) - lngPad;
+            segMaxLng[i] = Math.max(lngs[i], lngs[i + 1]) + lngPad;
+
+            minLat = Math.min(minLat, lo);
+            maxLat = Math.max(maxLat, hi);
+            minLng = Math.min(minLng, segMinLng[i]);
+            maxLng = Math.max(maxLng, segMaxLng[i]);
+        }
+        this.box = new double[] { minLat, minLng, maxLat, maxLng };
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < box[0] || latitude > box[2] || longitude < box[1] || longitude > box[3]) {
+            return false;
+        }
+
+        double cosLat = GeoKernel.cosLat(latitude);
+        double limitSquared = halfWidthMeters * halfWidthMeters;
+        for (int i = 0; i < segMinLat.length; i++) {
+            if (latitude < segMinLat[i] || latitude > segMaxLat[i] || longitude < segMinLng[i] || longitude > segMaxLng[i]) {
+                continue;
+            }
+            // Segment endpoints in meters relative to the point
+            double ax = (lngs[i] - longitude) * cosLat * METERS_PER_DEGREE;
+            double ay = (lats[i] - latitude) * METERS_PER_DEGREE;
+            double bx = (lngs[i + 1] - longitude) * cosLat * METERS_PER_DEGREE;
+            double by = (lats[i + 1] - latitude) * METERS_PER_DEGREE;
+
+            double dx = bx - ax;
+            double dy = by - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared)) : 0;
+            double cx = ax + t * dx;
+            double cy = ay + t * dy;
+            if (cx * cx + cy * cy <= limitSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public double boundaryDistanceMeters(double latitude, double longitude) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < segMinLat.length; i++) {
+            nearest = Math.min(nearest, GeoKernel.pointToSegmentMeters(latitude, longitude, lats[i], lngs[i], lats[i + 1], lngs[i + 1]));
+        }
+        return nearest - halfWidthMeters;
+    }
+
+    @Override
+    public double[] boundingBox() {
+        return box.clone();
+    }
+}
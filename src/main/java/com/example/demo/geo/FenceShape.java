@@ -0,0 +1,27 @@
+package com.example.demo.geo;
+
+/**
+ * Compiled, immutable geofence geometry used for containment tests
+ */
+public interface FenceShape {
+
+    boolean contains(double latitude, double longitude);
+
+    /**
+     * Meters from the point to the fence boundary: negative inside, positive outside
+     */
+    double boundaryDistanceMeters(double latitude, double longitude);
+
+    /**
+     * Like boundaryDistanceMeters, but only exact within limitMeters of the boundary; farther away any
+     * value past the limit with the right sign may be returned, so large shapes can skip distant edges
+     */
+    default double boundaryDistanceMeters(double latitude, double longitude, double limitMeters) {
+        return boundaryDistanceMeters(latitude, longitude);
+    }
+
+    /**
+     * {minLat, minLng, maxLat, maxLng}
+     */
+    double[] boundingBox();
+}
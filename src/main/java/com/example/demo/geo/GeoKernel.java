@@ -0,0 +1,205 @@
+package com.example.demo.geo;
+
+/**
+ * Shared distance and bounding-box math.
+ * All methods take and return primitives and allocate nothing (except the array-returning
+ * bounding box convenience), so they are safe on hot paths such as per-fix geofence checks.
+ *
+ * - haversine: exact on the sphere, the default for distances that are shown to users
+ * - equirectangular: a few multiplications, accurate to well under 0.1% below ~100 km
+ * - vincenty: WGS84 ellipsoid, for the rare case where sub-0.5% accuracy over long distances matters
+ */
+public final class GeoKernel {
+
+    public static final double EARTH_RADIUS_METERS = 6371000.0;
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180.0;
+
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
+    // Distances below this many degrees in both axes use the equirectangular approximation
+    private static final double SMALL_DELTA_DEGREES = 1.0;
+
+    // cos(latitude) sampled every 0.01 degree from -90 to 90, linearly interpolated
+    private static final int COS_STEPS_PER_DEGREE = 100;
+    private static final double[] COS_TABLE = new double[180 * COS_STEPS_PER_DEGREE + 2];
+
+    static {
+        for (int i = 0; i < COS_TABLE.length; i++) {
+            COS_TABLE[i] = Math.cos((i / (double) COS_STEPS_PER_DEGREE - 90.0) * DEG_TO_RAD);
+        }
+    }
+
+    // WGS84
+    private static final double WGS84_A = 6378137.0;
+    private static final double WGS84_F = 1 / 298.257223563;
+    private static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+
+    private GeoKernel() {}
+
+    /**
+     * cos(latitude in degrees) from a lookup table; absolute error below 1e-8
+     */
+    public static double cosLat(double latitudeDegrees) {
+        double position = (Math.max(-90.0, Math.min(90.0, latitudeDegrees)) + 90.0) * COS_STEPS_PER_DEGREE;
+        int index = (int) position;
+        double fraction = position - index;
+        return COS_TABLE[index] + (COS_TABLE[index + 1] - COS_TABLE[index]) * fraction;
+    }
+
+    /**
+     * Great-circle distance in meters
+     */
+    public static double haversineMeters(double lat1, double lng1, double lat2, double lng2) {
+        double sinDLat = Math.sin((lat2 - lat1) * DEG_TO_RAD / 2);
+        double sinDLng = Math.sin((lng2 - lng1) * DEG_TO_RAD / 2);
+        double a = sinDLat * sinDLat + cosLat(lat1) * cosLat(lat2) * sinDLng * sinDLng;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Great-circle distance in kilometers
+     */
+    public static double haversineKm(double lat1, double lng1, double lat2, double lng2) {
+        return haversineMeters(lat1, lng1, lat2, lng2) / 1000.0;
+    }
+
+    /**
+     * Flat-earth approximation around the mean latitude, in meters. Use for short distances only.
+     */
+    public static double equirectangularMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = (lng2 - lng1) * cosLat((lat1 + lat2) / 2);
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Distance in meters, picking the approximation for short hops and haversine otherwise
+     */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        if (Math.abs(lat2 - lat1) < SMALL_DELTA_DEGREES && Math.abs(lng2 - lng1) < SMALL_DELTA_DEGREES) {
+            return equirectangularMeters(lat1, lng1, lat2, lng2);
+        }
+        return haversineMeters(lat1, lng1, lat2, lng2);
+    }
+
+    /**
+     * True when the points are within radiusMeters. Rejects far-away points with a latitude
+     * check before any trigonometry.
+     */
+    public static boolean withinMeters(double lat1, double lng1, double lat2, double lng2, double radiusMeters) {
+        if (Math.abs(lat2 - lat1) * METERS_PER_DEGREE > radiusMeters) {
+            return false;
+        }
+        return haversineMeters(lat1, lng1, lat2, lng2) <= radiusMeters;
+    }
+
+    /**
+     * Ellipsoidal (WGS84) distance in meters, Vincenty inverse formula.
+     * Falls back to haversine for nearly antipodal points where the iteration does not converge.
+     */
+    public static double vincentyMeters(double lat1, double lng1, double lat2, double lng2) {
+        double l = (lng2 - lng1) * DEG_TO_RAD;
+        double u1 = Math.atan((1 - WGS84_F) * Math.tan(lat1 * DEG_TO_RAD));
+        double u2 = Math.atan((1 - WGS84_F) * Math.tan(lat2 * DEG_TO_RAD));
+        double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        for (int i = 0; i < 100; i++) {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            double sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda)
+                    + (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+            if (sinSigma == 0) {
+                return 0; // Coincident points
+            }
+            double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            double sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            double cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double c = WGS84_F / 16 * cosSqAlpha * (4 + WGS84_F * (4 - 3 * cosSqAlpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * WGS84_F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previous) < 1e-12) {
+                double uSq = cosSqAlpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+                double a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+                double b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+                double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                        - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+                return WGS84_B * a * (sigma - deltaSigma);
+            }
+        }
+        return haversineMeters(lat1, lng1, lat2, lng2);
+    }
+
+    /**
+     * Shortest distance in meters from a point to a segment, in a flat projection around the point.
+     * Accurate for segments up to a few hundred kilometers.
+     */
+    public static double pointToSegmentMeters(double latitude, double longitude,
+                                              double lat1, double lng1, double lat2, double lng2) {
+        double scale = cosLat(latitude);
+        double ax = (lng1 - longitude) * scale;
+        double ay = lat1 - latitude;
+        double dx = (lng2 - lng1) * scale;
+        double dy = lat2 - lat1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared)) : 0;
+        double cx = ax + t * dx;
+        double cy = ay + t * dy;
+        return Math.sqrt(cx * cx + cy * cy) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Half-height in degrees of a box enclosing a circle, padded so it never under-covers
+     */
+    public static double latDeltaDegrees(double radiusMeters) {
+        return radiusMeters / METERS_PER_DEGREE * 1.002;
+    }
+
+    /**
+     * Half-width in degrees of a box enclosing a circle at the given latitude,
+     * or a value of at least 180 when the circle reaches a pole
+     */
+    public static double lngDeltaDegrees(double latitude, double radiusMeters) {
+        double latDelta = latDeltaDegrees(radiusMeters);
+        double widestLat = Math.abs(latitude) + latDelta;
+        if (widestLat >= 90) {
+            return 180;
+        }
+        return Math.min(180, radiusMeters / (METERS_PER_DEGREE * cosLat(widestLat)) * 1.002);
+    }
+
+    /**
+     * Fill {minLat, minLng, maxLat, maxLng} enclosing a circle into out.
+     * Boxes crossing the antimeridian widen to the full longitude range.
+     */
+    public static void circleBoundingBox(double latitude, double longitude, double radiusMeters, double[] out) {
+        double latDelta = latDeltaDegrees(radiusMeters);
+        double lngDelta = lngDeltaDegrees(latitude, radiusMeters);
+        out[0] = Math.max(-90, latitude - latDelta);
+        out[2] = Math.min(90, latitude + latDelta);
+        if (longitude - lngDelta < -180 || longitude + lngDelta > 180) {
+            out[1] = -180;
+            out[3] = 180;
+        } else {
+            out[1] = longitude - lngDelta;
+            out[3] = longitude + lngDelta;
+        }
+    }
+
+    public static double[] circleBoundingBox(double latitude, double longitude, double radiusMeters) {
+        double[] box = new double[4];
+        circleBoundingBox(latitude, longitude, radiusMeters, box);
+        return box;
+    }
+
+    /**
+     * Point-in-box test for {minLat, minLng, maxLat, maxLng}
+     */
+    public static boolean boxContains(double[] box, double latitude, double longitude) {
+        return latitude >= box[0] && latitude <= box[2] && longitude >= box[1] && longitude <= box[3];
+    }
+}
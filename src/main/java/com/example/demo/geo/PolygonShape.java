@@ -0,0 +1,183 @@
+package com.example.demo.geo;
+
+import java.util.Arrays;
+
+/**
+ * Simple polygon with a precomputed edge table for ray casting.
+ * Edges are bucketed into horizontal latitude bands, so a test only looks at the edges
+ * crossing the point's band rather than every edge of a large polygon. Boundary distances
+ * with a limit use the same bands, holding every side including horizontal ones.
+ */
+public final class PolygonShape implements FenceShape {
+
+    private final double minLat, minLng, maxLat, maxLng;
+
+    // Ring without the closing vertex, for boundary distances
+    private final double[] lats;
+    private final double[] lngs;
+
+    // Edge table: lower/upper latitude, longitude at the lower end, d(lng)/d(lat)
+    private final double[] edgeLat0;
+    private final double[] edgeLat1;
+    private final double[] edgeLng0;
+    private final double[] edgeSlope;
+
+    private final int[][] bands;
+    private final double bandHeight;
+
+    // Ring sides by band, side i running from vertex i to vertex i + 1
+    private final int[][] sideBands;
+
+    public PolygonShape(double[] lats, double[] lngs) {
+        int n = lats.length;
+        if (n > 1 && lats[0] == lats[n - 1] && lngs[0] == lngs[n - 1]) {
+            n--; // Closing vertex repeated
+        }
+        if (n < 3) {
+            throw new IllegalArgumentException("Polygon needs at least 3 vertices");
+        }
+        this.lats = Arrays.copyOf(lats, n);
+        this.lngs = Arrays.copyOf(lngs, n);
+
+        double loLat = Double.POSITIVE_INFINITY, loLng = Double.POSITIVE_INFINITY;
+        double hiLat = Double.NEGATIVE_INFINITY, hiLng = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            loLat = Math.min(loLat, lats[i]);
+            hiLat = Math.max(hiLat, lats[i]);
+            loLng = Math.min(loLng, lngs[i]);
+            hiLng = Math.max(hiLng, lngs[i]);
+        }
+        this.minLat = loLat;
+        this.maxLat = hiLat;
+        this.minLng = loLng;
+        this.maxLng = hiLng;
+
+        // Horizontal edges never cross a horizontal ray, so they are left out
+        double[] lat0 = new double[n], lat1 = new double[n], lng0 = new double[n], slope = new double[n];
+        int edges = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            if (lats[i] == lats[j]) {
+                continue;
+            }
+            boolean iLower = lats[i] < lats[j];
+            int lo = iLower ? i : j;
+            int hi = iLower ? j : i;
+            lat0[edges] = lats[lo];
+            lat1[edges] = lats[hi];
+            lng0[edges] = lngs[lo];
+            slope[edges] = (lngs[hi] - lngs[lo]) / (lats[hi] - lats[lo]);
+            edges++;
+        }
+        this.edgeLat0 = Arrays.copyOf(lat0, edges);
+        this.edgeLat1 = Arrays.copyOf(lat1, edges);
+        this.edgeLng0 = Arrays.copyOf(lng0, edges);
+        this.edgeSlope = Arrays.copyOf(slope, edges);
+
+        // About four edges per band on average
+        int bandCount = Math.max(1, Math.min(1024, edges / 4));
+        this.bandHeight = Math.max((maxLat - minLat) / bandCount, 1e-12);
+        int[] counts = new int[bandCount];
+        for (int e = 0; e < edges; e++) {
+            for (int b = band(edgeLat0[e], bandCount); b <= band(edgeLat1[e], bandCount); b++) {
+                counts[b]++;
+            }
+        }
+        this.bands = new int[bandCount][];
+        for (int b = 0; b < bandCount; b++) {
+            bands[b] = new int[counts[b]];
+            counts[b] = 0;
+        }
+        for (int e = 0; e < edges; e++) {
+            for (int b = band(edgeLat0[e], bandCount); b <= band(edgeLat1[e], bandCount); b++) {
+                bands[b][counts[b]++] = e;
+            }
+        }
+
+        int[] sideCounts = new int[bandCount];
+        for (int i = 0; i < n; i++) {
+            int k = (i + 1) % n;
+            for (int b = band(Math.min(lats[i], lats[k]), bandCount); b <= band(Math.max(lats[i], lats[k]), bandCount); b++) {
+                sideCounts[b]++;
+            }
+        }
+        this.sideBands = new int[bandCount][];
+        for (int b = 0; b < bandCount; b++) {
+            sideBands[b] = new int[sideCounts[b]];
+            sideCounts[b] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            int k = (i + 1) % n;
+            for (int b = band(Math.min(lats[i], lats[k]), bandCount); b <= band(Math.max(lats[i], lats[k]), bandCount); b++) {
+                sideBands[b][sideCounts[b]++] = i;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < minLat || latitude > maxLat || longitude < minLng || longitude > maxLng) {
+            return false;
+        }
+
+        // Count crossings of a ray running east from the point; half-open edges avoid double counting vertices
+        boolean inside = false;
+        for (int e : bands[band(latitude, bands.length)]) {
+            if (latitude >= edgeLat0[e] && latitude < edgeLat1[e]) {
+                double crossingLng = edgeLng0[e] + (latitude - edgeLat0[e]) * edgeSlope[e];
+                if (crossingLng > longitude) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public double boundaryDistanceMeters(double latitude, double longitude) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            nearest = Math.min(nearest, GeoKernel.pointToSegmentMeters(latitude, longitude, lats[j], lngs[j], lats[i], lngs[i]));
+        }
+        return contains(latitude, longitude) ? -nearest : nearest;
+    }
+
+    @Override
+    public double boundaryDistanceMeters(double latitude, double longitude, double limitMeters) {
+        if (!(limitMeters >= 0) || Double.isInfinite(limitMeters)) {
+            return boundaryDistanceMeters(latitude, longitude);
+        }
+        double latPad = GeoKernel.latDeltaDegrees(limitMeters);
+        double lngPad = GeoKernel.lngDeltaDegrees(latitude, limitMeters);
+        double beyond = Math.nextUp(limitMeters);
+        // Farther than the limit from the whole box, so from every side as well
+        if (latitude < minLat - latPad || latitude > maxLat + latPad
+                || longitude < minLng - lngPad || longitude > maxLng + lngPad) {
+            return beyond;
+        }
+
+        // Only sides in the bands within the limit, and within it in longitude, can be that close
+        double nearest = Double.POSITIVE_INFINITY;
+        int last = band(latitude + latPad, sideBands.length);
+        for (int b = band(latitude - latPad, sideBands.length); b <= last; b++) {
+            for (int i : sideBands[b]) {
+                int k = i + 1 < lats.length ? i + 1 : 0;
+                if (Math.max(lngs[i], lngs[k]) < longitude - lngPad || Math.min(lngs[i], lngs[k]) > longitude + lngPad) {
+                    continue;
+                }
+                nearest = Math.min(nearest, GeoKernel.pointToSegmentMeters(latitude, longitude, lats[i], lngs[i], lats[k], lngs[k]));
+            }
+        }
+        double distance = nearest <= limitMeters ? nearest : beyond;
+        return contains(latitude, longitude) ? -distance : distance;
+    }
+
+    @Override
+    public double[] boundingBox() {
+        return new double[] { minLat, minLng, maxLat, maxLng };
+    }
+
+    private int band(double latitude, int bandCount) {
+        int b = (int) ((latitude - minLat) / bandHeight);
+        return Math.max(0, Math.min(bandCount - 1, b));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.demo.geo;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoded polyline format (5 decimal places, zig-zag varint deltas as printable ASCII).
+ * Stores a 1k-vertex polygon in a few kilobytes of text instead of a JSON array of doubles.
+ */
+public final class PolylineCodec {
+
+    private static final double SCALE = 1e5;
+
+    private PolylineCodec() {}
+
+    /**
+     * Encode [lat, lng] pairs
+     */
+    public static String encode(List<double[]> points) {
+        StringBuilder out = new StringBuilder(points.size() * 8);
+        long prevLat = 0;
+        long prevLng = 0;
+        for (double[] point : points) {
+            long lat = Math.round(point[0] * SCALE);
+            long lng = Math.round(point[1] * SCALE);
+            encodeValue(lat - prevLat, out);
+            encodeValue(lng - prevLng, out);
+            prevLat = lat;
+            prevLng = lng;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Decode to parallel arrays {lats, lngs}
+     */
+    public static double[][] decode(String encoded) {
+        int length = encoded.length();
+        double[] lats = new double[length / 2 + 1];
+        double[] lngs = new double[length / 2 + 1];
+        int count = 0;
+
+        int[] index = { 0 };
+        long lat = 0;
+        long lng = 0;
+        while (index[0] < length) {
+            lat += decodeValue(encoded, index);
+            lng += decodeValue(encoded, index);
+            lats[count] = lat / SCALE;
+            lngs[count] = lng / SCALE;
+            count++;
+        }
+        return new double[][] { Arrays.copyOf(lats, count), Arrays.copyOf(lngs, count) };
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        long v = value < 0 ? ~(value << 1) : (value << 1);
+        while (v >= 0x20) {
+            out.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        out.append((char) (v + 63));
+    }
+
+    private static long decodeValue(String encoded, int[] index) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (index[0] >= encoded.length()) {
+                throw new IllegalArgumentException("Truncated encoded polyline");
+            }
+            b = encoded.charAt(index[0]++) - 63;
+            result |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        return (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+    }
+}
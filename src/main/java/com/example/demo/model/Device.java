@@ -1,10 +1,13 @@
 package com.example.demo.model;
 
+import com.example.demo.service.DeviceCounterListener;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "laptops")
+@EntityListeners(DeviceCounterListener.class)
 public class Device {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -158,6 +161,11 @@ public class Device {
     @Column(name = "agent_last_heartbeat")
     private LocalDateTime agentLastHeartbeat;
 
+    // SHA-256 of the secret the agent presents on its command channel; the secret itself is never stored
+    @JsonIgnore
+    @Column(name = "agent_token_hash", length = 64)
+    private String agentTokenHash;
+
     // Getters and setters
     public Boolean getIsLocked() { return isLocked; }
     public void setIsLocked(Boolean isLocked) { this.isLocked = isLocked; }
@@ -248,6 +256,13 @@ public class Device {
     @Column(name = "signal_strength")
     private Integer signalStrength;
     
+    // Online/theft flags as last read from or written to the database (keeps per-user counters in step)
+    @Transient
+    private boolean persistedOnline;
+    
+    @Transient
+    private boolean persistedStolen;
+    
     // Constructors
     public Device() {
         this.createdAt = LocalDateTime.now();
@@ -507,4 +522,17 @@ public class Device {
 
     public LocalDateTime getAgentLastHeartbeat() { return agentLastHeartbeat; }
     public void setAgentLastHeartbeat(LocalDateTime agentLastHeartbeat) { this.agentLastHeartbeat = agentLastHeartbeat; }
+
+    @JsonIgnore
+    public String getAgentTokenHash() { return agentTokenHash; }
+    public void setAgentTokenHash(String agentTokenHash) { this.agentTokenHash = agentTokenHash; }
+
+    // Persisted counter state (not bean properties, so they stay out of JSON)
+    public boolean wasPersistedOnline() { return persistedOnline; }
+    public boolean wasPersistedStolen() { return persistedStolen; }
+
+    public void markPersistedState(boolean online, boolean stolen) {
+        this.persistedOnline = online;
+        this.persistedStolen = stolen;
+    }
 }
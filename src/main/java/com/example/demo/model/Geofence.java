@@ -1,8 +1,15 @@
 package com.example.demo.model;
 
 import jakarta.persistence.*;
+import com.example.demo.geo.CorridorShape;
+import com.example.demo.geo.FenceShape;
+import com.example.demo.geo.GeoKernel;
+import com.example.demo.geo.PolygonShape;
+import com.example.demo.geo.PolylineCodec;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Entity
 @Table(name = "geofences")
@@ -31,6 +38,32 @@ public class Geofence {
     @Enumerated(EnumType.STRING)
     private GeofenceType fenceType = GeofenceType.SAFE_ZONE;
     
+    @Column(name = "shape")
+    @Enumerated(EnumType.STRING)
+    private Shape shape = Shape.CIRCLE;
+    
+    // Polygon ring or corridor route in encoded polyline format; radiusMeters is the corridor half-width
+    @Column(name = "encoded_vertices", columnDefinition = "TEXT")
+    private String encodedVertices;
+    
+    // Bounding box, refreshed on every save
+    @Column(name = "min_latitude")
+    private Double minLatitude;
+    
+    @Column(name = "min_longitude")
+    private Double minLongitude;
+    
+    @Column(name = "max_latitude")
+    private Double maxLatitude;
+    
+    @Column(name = "max_longitude")
+    private Double maxLongitude;
+    
+    // Decoded geometry for polygon/corridor fences, built on first containment test
+    @Transient
+    @JsonIgnore
+    private volatile FenceShape compiledShape;
+    
     @Column(name = "alert_on_entry")
     private Boolean alertOnEntry = false;
     
@@ -40,6 +73,14 @@ public class Geofence {
     @Column(name = "auto_lock_on_exit")
     private Boolean autoLockOnExit = false;
     
+    // Seconds a device must stay clearly inside/outside before entry/exit fires (null = application default)
+    @Column(name = "dwell_seconds")
+    private Integer dwellSeconds;
+    
+    // How far past the boundary a device must be before it counts as having left (null = application default)
+    @Column(name = "hysteresis_meters")
+    private Double hysteresisMeters;
+    
     @Column(name = "user_id", nullable = false)
     private String userId;
     
@@ -61,6 +102,12 @@ public class Geofence {
         SCHOOL_ZONE     // Educational institution tracking
     }
     
+    public enum Shape {
+        CIRCLE,   // centerLatitude/centerLongitude + radiusMeters
+        POLYGON,  // encodedVertices ring
+        CORRIDOR  // encodedVertices route buffered by radiusMeters
+    }
+    
     // Constructors
     public Geofence() {
         this.createdAt = LocalDateTime.now();
@@ -94,11 +141,29 @@ public class Geofence {
     public void setCenterLongitude(Double centerLongitude) { this.centerLongitude = centerLongitude; }
     
     public Double getRadiusMeters() { return radiusMeters; }
-    public void setRadiusMeters(Double radiusMeters) { this.radiusMeters = radiusMeters; }
+    public void setRadiusMeters(Double radiusMeters) { this.radiusMeters = radiusMeters; this.compiledShape = null; }
     
     public GeofenceType getFenceType() { return fenceType; }
     public void setFenceType(GeofenceType fenceType) { this.fenceType = fenceType; }
     
+    public Shape getShape() { return shape; }
+    public void setShape(Shape shape) { this.shape = shape; this.compiledShape = null; }
+    
+    public String getEncodedVertices() { return encodedVertices; }
+    public void setEncodedVertices(String encodedVertices) { this.encodedVertices = encodedVertices; this.compiledShape = null; }
+    
+    public Double getMinLatitude() { return minLatitude; }
+    public void setMinLatitude(Double minLatitude) { this.minLatitude = minLatitude; }
+    
+    public Double getMinLongitude() { return minLongitude; }
+    public void setMinLongitude(Double minLongitude) { this.minLongitude = minLongitude; }
+    
+    public Double getMaxLatitude() { return maxLatitude; }
+    public void setMaxLatitude(Double maxLatitude) { this.maxLatitude = maxLatitude; }
+    
+    public Double getMaxLongitude() { return maxLongitude; }
+    public void setMaxLongitude(Double maxLongitude) { this.maxLongitude = maxLongitude; }
+    
     public Boolean getAlertOnEntry() { return alertOnEntry; }
     public void setAlertOnEntry(Boolean alertOnEntry) { this.alertOnEntry = alertOnEntry; }
     
@@ -108,6 +173,12 @@ public class Geofence {
     public Boolean getAutoLockOnExit() { return autoLockOnExit; }
     public void setAutoLockOnExit(Boolean autoLockOnExit) { this.autoLockOnExit = autoLockOnExit; }
     
+    public Integer getDwellSeconds() { return dwellSeconds; }
+    public void setDwellSeconds(Integer dwellSeconds) { this.dwellSeconds = dwellSeconds; }
+    
+    public Double getHysteresisMeters() { return hysteresisMeters; }
+    public void setHysteresisMeters(Double hysteresisMeters) { this.hysteresisMeters = hysteresisMeters; }
+    
     public String getUserId() { return userId; }
     public void setUserId(String userId) { this.userId = userId; }
     
@@ -120,35 +191,81 @@ public class Geofence {
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
     
+    @PrePersist
+    public void prePersist() {
+        refreshBoundingBox();
+    }
+    
     @PreUpdate
     public void preUpdate() {
         this.updatedAt = LocalDateTime.now();
+        refreshBoundingBox();
+    }
+    
+    // Set polygon/corridor vertices as [lat, lng] pairs
+    public void updateVertices(List<double[]> vertices) {
+        setEncodedVertices(PolylineCodec.encode(vertices));
     }
     
     // Utility method to check if a point is within this geofence
     public boolean containsPoint(double latitude, double longitude) {
-        double distance = calculateDistance(this.centerLatitude, this.centerLongitude, 
-                                          latitude, longitude);
-        return distance <= this.radiusMeters;
+        if (shape == null || shape == Shape.CIRCLE) {
+            return GeoKernel.withinMeters(centerLatitude, centerLongitude, latitude, longitude, radiusMeters);
+        }
+        return compiledShape().contains(latitude, longitude);
+    }
+    
+    // Meters from the fence boundary: negative inside, positive outside
+    public double boundaryDistanceMeters(double latitude, double longitude) {
+        if (shape == null || shape == Shape.CIRCLE) {
+            return GeoKernel.distanceMeters(centerLatitude, centerLongitude, latitude, longitude) - radiusMeters;
+        }
+        return compiledShape().boundaryDistanceMeters(latitude, longitude);
+    }
+    
+    // Same, but only exact within limitMeters of the boundary; past that just the side is certain
+    public double boundaryDistanceMeters(double latitude, double longitude, double limitMeters) {
+        if (shape == null || shape == Shape.CIRCLE) {
+            return boundaryDistanceMeters(latitude, longitude);
+        }
+        return compiledShape().boundaryDistanceMeters(latitude, longitude, limitMeters);
+    }
+    
+    // Bounding box {minLat, minLng, maxLat, maxLng} enclosing the fence, for spatial index prefiltering
+    public double[] boundingBox() {
+        if (shape != null && shape != Shape.CIRCLE) {
+            return compiledShape().boundingBox();
+        }
+        return GeoKernel.circleBoundingBox(centerLatitude, centerLongitude, radiusMeters);
+    }
+    
+    // Copy the bounding box into its columns; saves do this by themselves
+    public void refreshBoundingBox() {
+        double[] box = boundingBox();
+        this.minLatitude = box[0];
+        this.minLongitude = box[1];
+        this.maxLatitude = box[2];
+        this.maxLongitude = box[3];
     }
     
-    // Calculate distance between two points using Haversine formula
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371000; // Earth's radius in meters
-        
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return R * c;
+    private FenceShape compiledShape() {
+        FenceShape compiled = compiledShape;
+        if (compiled == null) {
+            if (encodedVertices == null || encodedVertices.isEmpty()) {
+                throw new IllegalStateException("Geofence " + id + " has shape " + shape + " but no vertices");
+            }
+            double[][] vertices = PolylineCodec.decode(encodedVertices);
+            compiled = shape == Shape.POLYGON
+                ? new PolygonShape(vertices[0], vertices[1])
+                : new CorridorShape(vertices[0], vertices[1], radiusMeters);
+            compiledShape = compiled;
+        }
+        return compiled;
     }
     
     @Override
     public String toString() {
-        return String.format("Geofence{id=%d, name='%s', type=%s, center=[%f,%f], radius=%fm}", 
-                           id, name, fenceType, centerLatitude, centerLongitude, radiusMeters);
+        return String.format("Geofence{id=%d, name='%s', type=%s, shape=%s, center=[%f,%f], radius=%fm}", 
+                           id, name, fenceType, shape, centerLatitude, centerLongitude, radiusMeters);
     }
 }
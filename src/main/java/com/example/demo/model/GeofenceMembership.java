@@ -0,0 +1,41 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Snapshot of the geofences a device is currently inside.
+ * Restored at startup so a restart does not re-fire ENTRY alerts for every device.
+ */
+@Entity
+@Table(name = "geofence_membership")
+public class GeofenceMembership {
+
+    @Id
+    @Column(name = "device_id")
+    private String deviceId;
+
+    @Column(name = "fence_ids", columnDefinition = "TEXT")
+    private String fenceIds; // Comma separated, ascending
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public GeofenceMembership() {}
+
+    public GeofenceMembership(String deviceId, String fenceIds, LocalDateTime updatedAt) {
+        this.deviceId = deviceId;
+        this.fenceIds = fenceIds;
+        this.updatedAt = updatedAt;
+    }
+
+    // Getters and setters
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public String getFenceIds() { return fenceIds; }
+    public void setFenceIds(String fenceIds) { this.fenceIds = fenceIds; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,103 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Side effect (WebSocket push or email) recorded in the same transaction as the change that caused it.
+ * Dispatched by OutboxDispatcher after the transaction commits.
+ */
+@Entity
+@Table(name = "outbox_events", indexes = {
+    @Index(name = "idx_outbox_events_status_id", columnList = "status, id"),
+    @Index(name = "idx_outbox_events_key_status", columnList = "aggregate_key, status")
+})
+public class OutboxEvent {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_CLAIMED = "CLAIMED"; // being delivered by one node, until its lease runs out
+    public static final String STATUS_SENDING = "SENDING"; // email handed to the mail dispatcher, kept until it is sent
+    public static final String STATUS_FAILED = "FAILED";
+
+    public static final String TYPE_TOPIC = "TOPIC";           // convertAndSend(destination)
+    public static final String TYPE_USER_QUEUE = "USER_QUEUE"; // convertAndSendToUser(recipient, destination)
+    public static final String TYPE_EMAIL = "EMAIL";           // email to recipient
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "aggregate_key", nullable = false)
+    private String aggregateKey; // Device ID - events with the same key are delivered in order
+
+    @Column(name = "event_type", nullable = false)
+    private String eventType;
+
+    @Column(name = "destination")
+    private String destination;
+
+    @Column(name = "recipient")
+    private String recipient;
+
+    @Column(name = "payload", columnDefinition = "TEXT")
+    private String payload; // JSON
+
+    @Column(name = "status", nullable = false)
+    private String status = STATUS_PENDING;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt = LocalDateTime.now(); // while CLAIMED or SENDING: when the lease runs out
+
+    public OutboxEvent() {}
+
+    public OutboxEvent(String aggregateKey, String eventType, String destination, String recipient, String payload) {
+        this.aggregateKey = aggregateKey;
+        this.eventType = eventType;
+        this.destination = destination;
+        this.recipient = recipient;
+        this.payload = payload;
+    }
+
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getAggregateKey() { return aggregateKey; }
+    public void setAggregateKey(String aggregateKey) { this.aggregateKey = aggregateKey; }
+
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+
+    public String getDestination() { return destination; }
+    public void setDestination(String destination) { this.destination = destination; }
+
+    public String getRecipient() { return recipient; }
+    public void setRecipient(String recipient) { this.recipient = recipient; }
+
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+}
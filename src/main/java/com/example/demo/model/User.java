@@ -55,6 +55,11 @@ public class User {
     @Column(name = "is_email_verified")
     private Boolean isEmailVerified = false;
     
+    // SHA-256 of the token monitors present to /api/stream/devices
+    @JsonIgnore
+    @Column(name = "feed_token_hash", length = 64, unique = true)
+    private String feedTokenHash;
+    
     // Default constructor
     public User() {
         this.createdAt = LocalDateTime.now();
@@ -141,4 +146,8 @@ public class User {
     
     public Boolean getIsEmailVerified() { return isEmailVerified; }
     public void setIsEmailVerified(Boolean isEmailVerified) { this.isEmailVerified = isEmailVerified; }
+    
+    @JsonIgnore
+    public String getFeedTokenHash() { return feedTokenHash; }
+    public void setFeedTokenHash(String feedTokenHash) { this.feedTokenHash = feedTokenHash; }
 }
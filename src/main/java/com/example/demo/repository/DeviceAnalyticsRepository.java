@@ -0,0 +1,74 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.Device;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Aggregate queries for analytics.
+ * Every method returns a handful of projection rows computed by the database,
+ * so memory use does not grow with the number of devices.
+ */
+@Repository
+public interface DeviceAnalyticsRepository extends org.springframework.data.repository.Repository<Device, Long> {
+
+    @Query("SELECT COUNT(d) AS totalDevices, COUNT(DISTINCT d.user.id) AS totalUsers, " +
+           "SUM(CASE WHEN d.isOnline = true THEN 1 ELSE 0 END) AS onlineDevices, " +
+           "SUM(CASE WHEN d.isLocked = true THEN 1 ELSE 0 END) AS lockedDevices, " +
+           "SUM(CASE WHEN d.theftDetected = true THEN 1 ELSE 0 END) AS theftDetectedDevices, " +
+           "AVG(d.batteryLevel) AS averageBatteryLevel, " +
+           "SUM(CASE WHEN d.batteryLevel < 20 THEN 1 ELSE 0 END) AS lowBatteryDevices " +
+           "FROM Device d")
+    FleetSummary summarizeFleet();
+
+    @Query("SELECT COUNT(d) AS totalDevices, COUNT(DISTINCT d.user.id) AS totalUsers, " +
+           "SUM(CASE WHEN d.isOnline = true THEN 1 ELSE 0 END) AS onlineDevices, " +
+           "SUM(CASE WHEN d.isLocked = true THEN 1 ELSE 0 END) AS lockedDevices, " +
+           "SUM(CASE WHEN d.theftDetected = true THEN 1 ELSE 0 END) AS theftDetectedDevices, " +
+           "AVG(d.batteryLevel) AS averageBatteryLevel, " +
+           "SUM(CASE WHEN d.batteryLevel < 20 THEN 1 ELSE 0 END) AS lowBatteryDevices " +
+           "FROM Device d WHERE d.user.email = :email")
+    FleetSummary summarizeByUserEmail(@Param("email") String email);
+
+    @Query("SELECT d.deviceType AS label, COUNT(d) AS total FROM Device d GROUP BY d.deviceType")
+    List<GroupCount> countByDeviceType();
+
+    @Query("SELECT d.osName AS label, COUNT(d) AS total FROM Device d GROUP BY d.osName")
+    List<GroupCount> countByOsName();
+
+    @Query("SELECT d.deviceType AS label, COUNT(d) AS total FROM Device d WHERE d.user.email = :email GROUP BY d.deviceType")
+    List<GroupCount> countByDeviceTypeForUser(@Param("email") String email);
+
+    @Query("SELECT d.osName AS label, COUNT(d) AS total FROM Device d WHERE d.user.email = :email GROUP BY d.osName")
+    List<GroupCount> countByOsNameForUser(@Param("email") String email);
+
+    @Query("SELECT d.manufacturer AS label, COUNT(d) AS total FROM Device d WHERE d.user.email = :email GROUP BY d.manufacturer")
+    List<GroupCount> countByManufacturerForUser(@Param("email") String email);
+
+    // Ten most recently seen devices for the activity feed
+    List<Device> findTop10ByUser_EmailAndLastSeenIsNotNullOrderByLastSeenDesc(String email);
+
+    /**
+     * One-row fleet or per-user summary
+     */
+    interface FleetSummary {
+        Long getTotalDevices();
+        Long getTotalUsers();
+        Long getOnlineDevices();
+        Long getLockedDevices();
+        Long getTheftDetectedDevices();
+        Double getAverageBatteryLevel();
+        Long getLowBatteryDevices();
+    }
+
+    /**
+     * One GROUP BY bucket
+     */
+    interface GroupCount {
+        String getLabel();
+        Long getTotal();
+    }
+}
@@ -39,12 +39,38 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
     @Query("SELECT COUNT(d) FROM Device d WHERE d.user.email = :email AND d.theftDetected = true")
     Long countStolenByUserEmail(@Param("email") String email);
     
+    @Query("SELECT d FROM Device d JOIN FETCH d.user WHERE d.user.email = :email AND (d.isOnline = false OR d.isOnline IS NULL)")
+    List<Device> findOfflineByUserEmail(@Param("email") String email);
+    
+    @Query("SELECT d FROM Device d JOIN FETCH d.user WHERE d.user.email = :email AND d.theftDetected = true")
+    List<Device> findStolenByUserEmail(@Param("email") String email);
+    
+    // Total, online and stolen counts for one user in a single pass
+    @Query("SELECT COUNT(d), SUM(CASE WHEN d.isOnline = true THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN d.theftDetected = true THEN 1 ELSE 0 END) FROM Device d WHERE d.user.email = :email")
+    List<Object[]> countStatsByUserEmail(@Param("email") String email);
+    
+    @Query("SELECT d.user.email, COUNT(d), SUM(CASE WHEN d.isOnline = true THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN d.theftDetected = true THEN 1 ELSE 0 END) FROM Device d GROUP BY d.user.email")
+    List<Object[]> countStatsGroupedByUserEmail();
+    
     @Query("SELECT d FROM Device d WHERE d.latitude IS NOT NULL AND d.longitude IS NOT NULL")
     List<Device> findDevicesWithLocation();
     
     @Query("SELECT d FROM Device d JOIN FETCH d.user WHERE d.user.email = :email AND d.latitude IS NOT NULL AND d.longitude IS NOT NULL")
     List<Device> findByUserEmailWithLocation(@Param("email") String email);
     
+    @Query("SELECT d.deviceId, d.lastSeen FROM Device d WHERE d.isOnline = true")
+    List<Object[]> findOnlineDeviceLastSeen();
+
+    @Query("SELECT d.user.email, d.deviceName FROM Device d WHERE d.deviceId = :deviceId")
+    List<Object[]> findOwnerEmailAndName(@Param("deviceId") String deviceId);
+
+    // deviceId, deviceName, latitude, longitude, accuracy of every located device of a user
+    @Query("SELECT d.deviceId, d.deviceName, d.latitude, d.longitude, d.accuracy FROM Device d " +
+           "WHERE d.user.email = :email AND d.latitude IS NOT NULL AND d.longitude IS NOT NULL")
+    List<Object[]> findPositionsByUserEmail(@Param("email") String email);
+
     @Query("SELECT d FROM Device d WHERE d.lastSeen < :threshold")
     List<Device> findOfflineDevices(@Param("threshold") LocalDateTime threshold);
     
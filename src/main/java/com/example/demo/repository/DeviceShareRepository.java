@@ -38,6 +38,10 @@ public interface DeviceShareRepository extends JpaRepository<DeviceShare, Long>
     @Query("SELECT DISTINCT ds.device FROM DeviceShare ds WHERE ds.sharedWith = :user AND ds.isActive = true AND (ds.expiresAt IS NULL OR ds.expiresAt > CURRENT_TIMESTAMP)")
     List<Device> findAccessibleDevices(@Param("user") User user);
     
+    // Emails of users a device is currently shared with
+    @Query("SELECT ds.sharedWith.email FROM DeviceShare ds WHERE ds.device.deviceId = :deviceId AND ds.isActive = true AND (ds.expiresAt IS NULL OR ds.expiresAt > CURRENT_TIMESTAMP)")
+    List<String> findActiveRecipientEmails(@Param("deviceId") String deviceId);
+    
     // Find expired shares for cleanup
     @Query("SELECT ds FROM DeviceShare ds WHERE ds.expiresAt IS NOT NULL AND ds.expiresAt < CURRENT_TIMESTAMP AND ds.isActive = true")
     List<DeviceShare> findExpiredShares();
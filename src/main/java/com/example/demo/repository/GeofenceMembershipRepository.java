@@ -0,0 +1,20 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.GeofenceMembership;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface GeofenceMembershipRepository extends JpaRepository<GeofenceMembership, String> {
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GeofenceMembership m WHERE m.updatedAt < :cutoff")
+    int deleteByUpdatedAtBefore(@Param("cutoff") LocalDateTime cutoff);
+}
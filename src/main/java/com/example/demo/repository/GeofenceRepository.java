@@ -19,14 +19,28 @@ public interface GeofenceRepository extends JpaRepository<Geofence, Long> {
     List<Geofence> findActiveGeofencesByUserAndType(@Param("userId") String userId, 
                                                     @Param("fenceType") Geofence.GeofenceType fenceType);
     
+    // Candidates whose bounding box holds the point; callers do the exact shape test.
+    // Portable JPQL (H2 and any other database), served by the bounding-box B-tree on PostgreSQL
     @Query("SELECT g FROM Geofence g WHERE g.userId = :userId AND g.isActive = true " +
-           "AND (6371000 * acos(cos(radians(:latitude)) * cos(radians(g.centerLatitude)) * " +
-           "cos(radians(g.centerLongitude) - radians(:longitude)) + " +
-           "sin(radians(:latitude)) * sin(radians(g.centerLatitude)))) <= g.radiusMeters")
+           "AND g.minLatitude <= :latitude AND g.maxLatitude >= :latitude " +
+           "AND g.minLongitude <= :longitude AND g.maxLongitude >= :longitude")
     List<Geofence> findGeofencesContainingPoint(@Param("userId") String userId,
                                                @Param("latitude") Double latitude,
                                                @Param("longitude") Double longitude);
     
+    // PostgreSQL only: same candidates through the GiST index on the bounding box (V7 migration)
+    @Query(value = "SELECT * FROM geofences g WHERE g.is_active = true " +
+           "AND box(point(g.min_longitude, g.min_latitude), point(g.max_longitude, g.max_latitude)) " +
+           "@> point(:longitude, :latitude) AND g.user_id = :userId", nativeQuery = true)
+    List<Geofence> findGeofencesContainingPointIndexed(@Param("userId") String userId,
+                                                       @Param("latitude") Double latitude,
+                                                       @Param("longitude") Double longitude);
+    
+    // Fences saved before the bounding-box columns existed
+    @Query("SELECT g FROM Geofence g WHERE g.minLatitude IS NULL OR g.minLongitude IS NULL " +
+           "OR g.maxLatitude IS NULL OR g.maxLongitude IS NULL")
+    List<Geofence> findWithoutBoundingBox();
+    
     @Query("SELECT COUNT(g) FROM Geofence g WHERE g.userId = :userId AND g.isActive = true")
     Long countActiveGeofencesByUser(@Param("userId") String userId);
     
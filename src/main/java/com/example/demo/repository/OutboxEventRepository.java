@@ -0,0 +1,50 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Oldest due events first, skipping devices that have an event claimed by a node or an earlier event
+    // still backing off, so per-device order is the insertion order across nodes and retries
+    @Query(value = "SELECT * FROM outbox_events o WHERE o.status = 'PENDING' AND o.next_attempt_at <= :now " +
+           "AND NOT EXISTS (SELECT 1 FROM outbox_events b WHERE b.aggregate_key = o.aggregate_key " +
+           "AND (b.status = 'CLAIMED' OR (b.status = 'PENDING' AND b.id < o.id AND b.next_attempt_at > :now))) " +
+           "ORDER BY o.id LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<OutboxEvent> findClaimable(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    // Serializes claims across nodes for the rest of the transaction (PostgreSQL only)
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:key)) claim_lock", nativeQuery = true)
+    Integer lockClaims(@Param("key") long key);
+
+    long countByStatus(String status);
+
+    // Email handed to the mail dispatcher; the row stays until the dispatcher confirms the send
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = 'SENDING', e.nextAttemptAt = :leaseUntil WHERE e.id = :id")
+    int markSending(@Param("id") Long id, @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    // Claimed events left for later in a batch, because an earlier event for the same device failed
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = 'PENDING', e.nextAttemptAt = :now WHERE e.id IN :ids AND e.status = 'CLAIMED'")
+    int releaseClaimed(@Param("ids") List<Long> ids, @Param("now") LocalDateTime now);
+
+    // Claims and mail hand-offs never settled (crash, restart, lost retry) go back to PENDING
+    @Modifying
+    @Transactional
+    @Query("UPDATE OutboxEvent e SET e.status = 'PENDING', e.attempts = e.attempts + 1, e.lastError = 'Lease expired' " +
+           "WHERE e.status IN ('CLAIMED', 'SENDING') AND e.nextAttemptAt < :now")
+    int releaseExpiredLeases(@Param("now") LocalDateTime now);
+}
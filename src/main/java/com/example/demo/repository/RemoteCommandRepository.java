@@ -3,10 +3,16 @@ package com.example.demo.repository;
 import com.example.demo.model.RemoteCommand;
 import com.example.demo.model.Device;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface RemoteCommandRepository extends JpaRepository<RemoteCommand, Long> {
@@ -25,4 +31,53 @@ public interface RemoteCommandRepository extends JpaRepository<RemoteCommand, Lo
     
     // Count pending commands for device
     Long countByDeviceAndStatus(Device device, String status);
+
+    // Claim the most urgent unexpired pending commands of a device; rows locked by another poll are skipped
+    @Query(value = "SELECT * FROM remote_commands WHERE device_id = :devicePk AND status = 'PENDING' " +
+           "AND (expires_at IS NULL OR expires_at > :now) " +
+           "ORDER BY priority DESC, created_at ASC, id ASC LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<RemoteCommand> claimPending(@Param("devicePk") Long devicePk, @Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    // Devices with something to deliver, for rebuilding the pending bitmap
+    @Query("SELECT DISTINCT c.device.deviceId FROM RemoteCommand c WHERE c.status = 'PENDING'")
+    List<String> findDeviceIdsWithPendingCommands();
+
+    @Query("SELECT c.device.deviceId FROM RemoteCommand c WHERE c.id = :id")
+    Optional<String> findDeviceIdByCommandId(@Param("id") Long id);
+
+    // Live commands, for rebuilding lifecycle deadlines
+    List<RemoteCommand> findByStatusIn(Collection<String> statuses);
+
+    List<RemoteCommand> findByStatusAndSentAtBefore(String status, LocalDateTime cutoff);
+
+    List<RemoteCommand> findByStatusAndExecutedAtBefore(String status, LocalDateTime cutoff);
+
+    // Lifecycle transitions - each only applies if the row is still in the expected state, so one node wins
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE RemoteCommand c SET c.status = 'EXPIRED', c.completedAt = :now, c.result = 'Expired before delivery' " +
+           "WHERE c.id = :id AND c.status = 'PENDING' AND c.expiresAt <= :now")
+    int expirePending(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE RemoteCommand c SET c.status = 'PENDING', c.sentAt = NULL, c.retryCount = COALESCE(c.retryCount, 0) + 1 " +
+           "WHERE c.id = :id AND c.status = 'SENT' AND c.sentAt <= :cutoff AND COALESCE(c.retryCount, 0) < COALESCE(c.maxRetries, 3)")
+    int requeueUnanswered(@Param("id") Long id, @Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE RemoteCommand c SET c.status = 'FAILED', c.completedAt = :now, c.result = :reason " +
+           "WHERE c.id = :id AND c.status = 'SENT' AND c.sentAt <= :cutoff")
+    int failUnanswered(@Param("id") Long id, @Param("cutoff") LocalDateTime cutoff,
+                       @Param("now") LocalDateTime now, @Param("reason") String reason);
+
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE RemoteCommand c SET c.status = 'FAILED', c.completedAt = :now, c.result = :reason " +
+           "WHERE c.id = :id AND c.status = 'EXECUTING' AND c.executedAt <= :cutoff")
+    int failUnfinished(@Param("id") Long id, @Param("cutoff") LocalDateTime cutoff,
+                       @Param("now") LocalDateTime now, @Param("reason") String reason);
 }
@@ -16,6 +16,7 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     Optional<User> findByGoogleId(String googleId);
     boolean existsByEmail(String email);
+    Optional<User> findByFeedTokenHash(String feedTokenHash);
     
     // Admin cleanup methods
     @Modifying
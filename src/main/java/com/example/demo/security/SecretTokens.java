@@ -0,0 +1,55 @@
+package com.example.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Random bearer secrets that are stored only as their SHA-256, so a database read does not reveal
+ * a usable credential
+ */
+public final class SecretTokens {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SecretTokens() {
+    }
+
+    /**
+     * New 256-bit secret, URL-safe so it fits headers and query strings as is
+     */
+    public static String generate() {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Hex SHA-256 of a secret, the form it is stored and looked up in
+     */
+    public static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Constant-time check of a presented secret against a stored hash
+     */
+    public static boolean matches(String storedHash, String token) {
+        if (storedHash == null || token == null || token.isEmpty()) {
+            return false;
+        }
+        return MessageDigest.isEqual(storedHash.getBytes(StandardCharsets.US_ASCII),
+                hash(token).getBytes(StandardCharsets.US_ASCII));
+    }
+}
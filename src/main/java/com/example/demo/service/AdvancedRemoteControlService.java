@@ -8,7 +8,6 @@ import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * 🎮 ADVANCED REMOTE CONTROL SERVICE
@@ -35,11 +34,10 @@ public class AdvancedRemoteControlService {
     private NotificationService notificationService;
     
     @Autowired
-    private WebSocketService webSocketService;
+    private DeviceCommandQueue deviceCommandQueue;
     
     // Command execution tracking
     private final Map<String, List<RemoteCommand>> commandHistory = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<CommandResult>> pendingCommands = new ConcurrentHashMap<>();
     
     /**
      * 🔒 ADVANCED DEVICE LOCK
@@ -341,41 +339,17 @@ public class AdvancedRemoteControlService {
             device.setLastActionTime(LocalDateTime.now());
             deviceRepository.save(device);
             
-            // Create command payload for agent
-            Map<String, Object> commandPayload = new HashMap<>();
-            commandPayload.put("command", command.getType());
-            commandPayload.put("deviceId", command.getDeviceId());
-            commandPayload.put("timestamp", command.getTimestamp());
-            commandPayload.put("parameters", command.getParameters());
-            commandPayload.put("commandId", java.util.UUID.randomUUID().toString());
-            
-            // Send command via WebSocket to device agent
-            boolean commandSent = webSocketService.sendCommandToDevice(
-                device.getDeviceId(),
-                commandPayload
-            );
+            // Queue for the device agent; expiry, retries and timeouts are handled by the command lifecycle
+            Map<String, Object> parameters = command.getParameters() != null ? command.getParameters() : Map.of();
+            Optional<com.example.demo.model.RemoteCommand> queued =
+                deviceCommandQueue.enqueue(device.getDeviceId(), command.getType(), parameters);
             
-            if (commandSent) {
-                // Store pending command for tracking
-                String commandId = (String) commandPayload.get("commandId");
-                CompletableFuture<CommandResult> future = new CompletableFuture<>();
-                pendingCommands.put(commandId, future);
-                
-                // Set timeout for command execution (30 seconds)
-                CompletableFuture.delayedExecutor(30, java.util.concurrent.TimeUnit.SECONDS)
-                    .execute(() -> {
-                        if (!future.isDone()) {
-                            future.complete(CommandResult.error("Command timeout"));
-                            pendingCommands.remove(commandId);
-                        }
-                    });
-                
-                // For immediate response, return success with command details
+            if (queued.isPresent()) {
                 Map<String, Object> result = new HashMap<>();
-                result.put("commandId", commandId);
-                result.put("status", "SENT");
-                result.put("sentAt", LocalDateTime.now());
-                result.put("expectedCompletion", LocalDateTime.now().plusSeconds(30));
+                result.put("commandId", String.valueOf(queued.get().getId()));
+                result.put("status", queued.get().getStatus());
+                result.put("queuedAt", queued.get().getCreatedAt());
+                result.put("expiresAt", queued.get().getExpiresAt());
                 
                 return CommandResult.success("Command sent to device", result);
                 
@@ -425,16 +399,12 @@ public class AdvancedRemoteControlService {
      * Process command result from device agent
      */
     public void processCommandResult(String commandId, Map<String, Object> result) {
-        CompletableFuture<CommandResult> future = pendingCommands.remove(commandId);
-        if (future != null) {
+        try {
             boolean success = Boolean.TRUE.equals(result.get("success"));
-            String message = (String) result.getOrDefault("message", "Command completed");
-            
-            if (success) {
-                future.complete(CommandResult.success(message, result));
-            } else {
-                future.complete(CommandResult.error(message));
-            }
+            String message = String.valueOf(result.getOrDefault("message", "Command completed"));
+            deviceCommandQueue.complete(Long.parseLong(commandId), success, message);
+        } catch (NumberFormatException e) {
+            System.err.println("Unknown command id in result: " + commandId);
         }
     }
     
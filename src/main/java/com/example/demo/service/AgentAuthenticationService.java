@@ -4,13 +4,11 @@ import com.example.demo.model.Device;
 import com.example.demo.model.User;
 import com.example.demo.repository.DeviceRepository;
 import com.example.demo.repository.UserRepository;
+import com.example.demo.security.SecretTokens;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.security.MessageDigest;
-import java.security.SecureRandom;
 import java.time.LocalDateTime;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -25,9 +23,6 @@ public class AgentAuthenticationService {
     @Autowired
     private UserRepository userRepository;
     
-    // Store device authentication tokens (in production, use Redis or database)
-    private final Map<String, DeviceAuthToken> deviceTokens = new ConcurrentHashMap<>();
-    
     // Rate limiting for authentication attempts
     private final Map<String, AuthAttempt> authAttempts = new ConcurrentHashMap<>();
     
@@ -99,60 +94,46 @@ public class AgentAuthenticationService {
     }
     
     /**
-     * Generate secure authentication token for device
+     * Issue the device's first agent secret and store its hash on the device; the caller saves the device.
+     * A device that already has a secret gets null - replacing one goes through {@link #rotateDeviceToken}.
      */
-    public String generateDeviceToken(String deviceId, String userEmail) {
-        try {
-            SecureRandom random = new SecureRandom();
-            byte[] tokenBytes = new byte[32];
-            random.nextBytes(tokenBytes);
-            
-            String token = Base64.getEncoder().encodeToString(tokenBytes);
-            
-            // Store token with expiration
-            DeviceAuthToken authToken = new DeviceAuthToken(
-                token, deviceId, userEmail, LocalDateTime.now().plusHours(24)
-            );
-            
-            deviceTokens.put(deviceId, authToken);
-            
-            System.out.println("🔐 SECURITY: Generated auth token for device: " + deviceId);
-            return token;
-            
-        } catch (Exception e) {
-            System.err.println("🚨 SECURITY: Token generation failed: " + e.getMessage());
+    public String generateDeviceToken(Device device) {
+        if (device == null || device.getAgentTokenHash() != null) {
             return null;
         }
+        return rotateDeviceToken(device);
     }
     
     /**
-     * Validate device authentication token
+     * Issue a new agent secret for the device, invalidating any earlier one; the caller saves the device.
+     * Only for callers that have already authenticated the device's owner.
      */
-    public boolean validateDeviceToken(String deviceId, String token) {
-        try {
-            DeviceAuthToken authToken = deviceTokens.get(deviceId);
-            if (authToken == null) {
-                System.err.println("🚨 SECURITY: No auth token found for device: " + deviceId);
-                return false;
-            }
-            
-            if (authToken.isExpired()) {
-                deviceTokens.remove(deviceId);
-                System.err.println("🚨 SECURITY: Expired auth token for device: " + deviceId);
-                return false;
-            }
-            
-            if (!authToken.getToken().equals(token)) {
-                System.err.println("🚨 SECURITY: Invalid auth token for device: " + deviceId);
-                return false;
-            }
-            
-            return true;
-            
-        } catch (Exception e) {
-            System.err.println("🚨 SECURITY: Token validation error: " + e.getMessage());
+    public String rotateDeviceToken(Device device) {
+        if (device == null) {
+            return null;
+        }
+        String token = SecretTokens.generate();
+        device.setAgentTokenHash(SecretTokens.hash(token));
+        System.out.println("🔐 SECURITY: Issued auth token for device: " + device.getDeviceId());
+        return token;
+    }
+    
+    /**
+     * Validate the secret an agent presents for its device
+     */
+    public boolean validateDeviceToken(Device device, String token) {
+        if (device == null || token == null || token.isEmpty()) {
+            return false;
+        }
+        if (device.getAgentTokenHash() == null) {
+            System.err.println("🚨 SECURITY: No auth token issued for device: " + device.getDeviceId());
             return false;
         }
+        if (!SecretTokens.matches(device.getAgentTokenHash(), token)) {
+            System.err.println("🚨 SECURITY: Invalid auth token for device: " + device.getDeviceId());
+            return false;
+        }
+        return true;
     }
     
     private boolean isRateLimited(String clientIp) {
@@ -227,28 +208,6 @@ public class AgentAuthenticationService {
         public Device getDevice() { return device; }
     }
     
-    private static class DeviceAuthToken {
-        private final String token;
-        private final String deviceId;
-        private final String userEmail;
-        private final LocalDateTime expiresAt;
-        
-        public DeviceAuthToken(String token, String deviceId, String userEmail, LocalDateTime expiresAt) {
-            this.token = token;
-            this.deviceId = deviceId;
-            this.userEmail = userEmail;
-            this.expiresAt = expiresAt;
-        }
-        
-        public boolean isExpired() {
-            return LocalDateTime.now().isAfter(expiresAt);
-        }
-        
-        public String getToken() { return token; }
-        public String getDeviceId() { return deviceId; }
-        public String getUserEmail() { return userEmail; }
-    }
-    
     private static class AuthAttempt {
         private int failedAttempts = 0;
         private LocalDateTime lockoutUntil;
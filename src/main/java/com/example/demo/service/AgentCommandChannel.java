@@ -0,0 +1,273 @@
+package com.example.demo.service;
+
+import com.example.demo.model.RemoteCommand;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push channel for device agents over STOMP on /mobile-ws.
+ * An agent connects with device-id, user-email and device-token headers (see AgentStompInterceptor) and subscribes
+ * to /user/queue/commands. Commands queued for a connected agent are claimed and pushed right away.
+ * The agent acks each one on /app/agent/ack. Unacked commands are resent with exponential backoff,
+ * timed on the command lifecycle wheel, and marked FAILED once RemoteCommand.maxRetries is used up.
+ * When the agent disconnects, its unacked commands go back to PENDING for the HTTP poll.
+ *
+ * Idle agent connections only cost their WebSocket session; nothing here holds a thread or a timer per agent.
+ */
+@Service
+public class AgentCommandChannel {
+
+    public static final String COMMAND_QUEUE = "/queue/commands";
+    public static final String SUBSCRIBED_DESTINATION = "/user" + COMMAND_QUEUE;
+    private static final String AGENT_PREFIX = "agent:";
+
+    // Commands pushed per claim; more are claimed once these are acked
+    private static final int MAX_COMMANDS_PER_PUSH = 20;
+
+    @Autowired
+    private DeviceCommandQueue commandQueue;
+
+    @Autowired
+    private StompFrameSender frameSender;
+
+    @Autowired
+    private StompSubscriptionRegistry subscriptionRegistry;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private CommandLifecycleScheduler lifecycleScheduler;
+
+    @Value("${app.agent-channel.ack-timeout-ms:5000}")
+    private long ackTimeoutMs;
+
+    @Value("${app.agent-channel.push-threads:2}")
+    private int pushThreads;
+
+    // command id -> pushed but not yet acked
+    private final Map<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private ExecutorService pushers;
+
+    private final AtomicLong pushed = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong requeued = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        pushers = Executors.newFixedThreadPool(Math.max(1, pushThreads), runnable -> {
+            Thread thread = new Thread(runnable, "agent-push-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Ack deadlines sit next to the status deadlines, which stay armed as the backstop
+        lifecycleScheduler.addAckHandler(this::ackOverdue);
+        // Only the node holding the agent's session pushes; the others see no subscriber
+        clusterEventBus.subscribe(DeviceCommandQueue.PENDING_EVENT, event -> {
+            String deviceId = event.path("deviceId").asText();
+            if (isConnected(deviceId)) {
+                schedulePush(deviceId);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        pushers.shutdownNow();
+    }
+
+    /**
+     * STOMP user name of a device agent's session
+     */
+    public static String agentUser(String deviceId) {
+        return AGENT_PREFIX + deviceId;
+    }
+
+    /**
+     * Device id of an agent session's principal, or null for a browser or app session
+     */
+    public static String deviceIdOf(Principal principal) {
+        if (principal == null || !principal.getName().startsWith(AGENT_PREFIX)) {
+            return null;
+        }
+        return principal.getName().substring(AGENT_PREFIX.length());
+    }
+
+    public boolean isConnected(String deviceId) {
+        return subscriptionRegistry.hasSubscriber(agentUser(deviceId), SUBSCRIBED_DESTINATION);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        String deviceId = deviceIdOf(userOf(event.getUser(), event.getMessage()));
+        if (deviceId != null && SUBSCRIBED_DESTINATION.equals(StompHeaderAccessor.wrap(event.getMessage()).getDestination())) {
+            // Deliver whatever was queued while the agent was offline
+            if (commandQueue.mayHavePending(deviceId)) {
+                schedulePush(deviceId);
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String deviceId = deviceIdOf(userOf(event.getUser(), event.getMessage()));
+        if (deviceId != null) {
+            requeueInFlight(deviceId);
+        }
+    }
+
+    /**
+     * The agent received a command; it now waits for the result instead of being resent
+     */
+    public void ack(String deviceId, Long commandId) {
+        InFlight command = inFlight.get(commandId);
+        if (command == null || !command.deviceId.equals(deviceId) || !inFlight.remove(commandId, command)) {
+            return;
+        }
+        acked.incrementAndGet();
+        lifecycleScheduler.cancelAck(commandId);
+        commandQueue.markExecuting(deviceId, commandId);
+        if (commandQueue.mayHavePending(deviceId)) {
+            schedulePush(deviceId);
+        }
+    }
+
+    private void schedulePush(String deviceId) {
+        try {
+            pushers.execute(() -> push(deviceId));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the commands stay PENDING for the next poll
+        }
+    }
+
+    private void push(String deviceId) {
+        try {
+            for (RemoteCommand command : commandQueue.claim(deviceId, MAX_COMMANDS_PER_PUSH)) {
+                Map<String, Object> payload = new HashMap<>();
+                payload.put("commandId", String.valueOf(command.getId()));
+                payload.put("action", command.getCommandType());
+                payload.put("parameters", commandQueue.parameters(command));
+                payload.put("timestamp", command.getCreatedAt());
+                int maxRetries = command.getMaxRetries() != null ? command.getMaxRetries() : 3;
+                int retries = command.getRetryCount() != null ? command.getRetryCount() : 0;
+
+                InFlight entry = new InFlight(command.getId(), deviceId, frameSender.encode(payload), retries, maxRetries);
+                inFlight.put(command.getId(), entry);
+                lifecycleScheduler.scheduleAck(command.getId(), System.currentTimeMillis() + backoff(entry.retries));
+                frameSender.sendToUser(agentUser(deviceId), COMMAND_QUEUE, entry.frame);
+                pushed.incrementAndGet();
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Failed to push commands to agent " + deviceId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The ack deadline of a pushed command passed: resend it, or give up on it
+     */
+    private void ackOverdue(Long commandId) {
+        InFlight command = inFlight.get(commandId);
+        if (command == null) {
+            return;
+        }
+        if (!isConnected(command.deviceId)) {
+            if (inFlight.remove(commandId, command)) {
+                requeue(command);
+            }
+        } else if (command.retries >= command.maxRetries) {
+            if (inFlight.remove(commandId, command)) {
+                failed.incrementAndGet();
+                commandQueue.complete(command.deviceId, commandId, false,
+                        "No acknowledgement from agent after " + (command.retries + 1) + " attempts");
+                System.err.println("⚠️ Command " + commandId + " to " + command.deviceId + " was never acknowledged");
+            }
+        } else {
+            command.retries++;
+            lifecycleScheduler.scheduleAck(commandId, System.currentTimeMillis() + backoff(command.retries));
+            commandQueue.recordRetry(commandId);
+            frameSender.sendToUser(agentUser(command.deviceId), COMMAND_QUEUE, command.frame);
+            retried.incrementAndGet();
+        }
+    }
+
+    private void requeueInFlight(String deviceId) {
+        List<InFlight> unacked = new ArrayList<>();
+        for (InFlight command : inFlight.values()) {
+            if (command.deviceId.equals(deviceId) && inFlight.remove(command.commandId, command)) {
+                unacked.add(command);
+            }
+        }
+        unacked.forEach(command -> {
+            lifecycleScheduler.cancelAck(command.commandId);
+            requeue(command);
+        });
+    }
+
+    private void requeue(InFlight command) {
+        try {
+            commandQueue.requeue(command.commandId);
+            requeued.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("❌ Failed to requeue command " + command.commandId + ": " + e.getMessage());
+        }
+    }
+
+    private long backoff(int retries) {
+        return ackTimeoutMs << Math.min(retries, 6);
+    }
+
+    private static Principal userOf(Principal user, Message<?> message) {
+        return user != null ? user : StompHeaderAccessor.wrap(message).getUser();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("pushed", pushed.get());
+        stats.put("acked", acked.get());
+        stats.put("retried", retried.get());
+        stats.put("requeued", requeued.get());
+        stats.put("failedNoAck", failed.get());
+        return stats;
+    }
+
+    private static class InFlight {
+        final Long commandId;
+        final String deviceId;
+        final Message<byte[]> frame;
+        final int maxRetries;
+        volatile int retries;
+
+        InFlight(Long commandId, String deviceId, Message<byte[]> frame, int retries, int maxRetries) {
+            this.commandId = commandId;
+            this.deviceId = deviceId;
+            this.frame = frame;
+            this.retries = retries;
+            this.maxRetries = maxRetries;
+        }
+    }
+}
@@ -1,73 +1,83 @@
 package com.example.demo.service;
 
 import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceAnalyticsRepository;
+import com.example.demo.repository.DeviceAnalyticsRepository.FleetSummary;
+import com.example.demo.repository.DeviceAnalyticsRepository.GroupCount;
 import com.example.demo.repository.DeviceRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class AnalyticsService {
 
+    // Analytics are aggregate views, a few seconds of staleness is fine
+    private static final Duration CACHE_TTL = Duration.ofSeconds(30);
+    private static final String SYSTEM_KEY = "__system__";
+
     @Autowired
     private DeviceRepository deviceRepository;
 
+    @Autowired
+    private DeviceAnalyticsRepository analyticsRepository;
+
+    private final Cache<String, Map<String, Object>> analyticsCache = Caffeine.newBuilder()
+        .expireAfterWrite(CACHE_TTL)
+        .maximumSize(10_000)
+        .build();
+
     /**
      * Get comprehensive analytics for user's devices
+     * Computed with GROUP BY aggregates and cached for a short TTL; the result is shared and read-only
      */
     public Map<String, Object> getDeviceAnalytics(String userEmail) {
+        if (userEmail == null) {
+            userEmail = "";
+        }
+        Map<String, Object> cached = analyticsCache.getIfPresent(userEmail);
+        if (cached != null) {
+            return cached;
+        }
+
         Map<String, Object> analytics = new HashMap<>();
         
         try {
-            // Get all devices for the user
-            List<Device> devices = deviceRepository.findByUserEmail(userEmail);
+            FleetSummary summary = analyticsRepository.summarizeByUserEmail(userEmail);
+            long total = toLong(summary.getTotalDevices());
+            long online = toLong(summary.getOnlineDevices());
             
             // Basic statistics
-            analytics.put("totalDevices", devices.size());
-            analytics.put("onlineDevices", devices.stream().mapToInt(d -> d.getIsOnline() ? 1 : 0).sum());
-            analytics.put("offlineDevices", devices.stream().mapToInt(d -> !d.getIsOnline() ? 1 : 0).sum());
-            
-            // Device types
-            Map<String, Long> deviceTypes = devices.stream()
-                .collect(Collectors.groupingBy(
-                    d -> d.getDeviceType() != null ? d.getDeviceType() : "Unknown",
-                    Collectors.counting()
-                ));
-            analytics.put("deviceTypes", deviceTypes);
-            
-            // Operating systems
-            Map<String, Long> operatingSystems = devices.stream()
-                .collect(Collectors.groupingBy(
-                    d -> d.getOsName() != null ? d.getOsName() : "Unknown",
-                    Collectors.counting()
-                ));
-            analytics.put("operatingSystems", operatingSystems);
+            analytics.put("totalDevices", (int) total);
+            analytics.put("onlineDevices", (int) online);
+            analytics.put("offlineDevices", (int) (total - online));
             
-            // Manufacturer distribution
-            Map<String, Long> manufacturers = devices.stream()
-                .collect(Collectors.groupingBy(
-                    d -> d.getManufacturer() != null ? d.getManufacturer() : "Unknown",
-                    Collectors.counting()
-                ));
-            analytics.put("manufacturers", manufacturers);
+            // Device types, operating systems and manufacturer distribution
+            analytics.put("deviceTypes", toLabelCounts(analyticsRepository.countByDeviceTypeForUser(userEmail)));
+            analytics.put("operatingSystems", toLabelCounts(analyticsRepository.countByOsNameForUser(userEmail)));
+            analytics.put("manufacturers", toLabelCounts(analyticsRepository.countByManufacturerForUser(userEmail)));
             
             // Recent activity
-            List<Map<String, Object>> recentActivity = devices.stream()
-                .filter(d -> d.getLastSeen() != null)
-                .sorted((a, b) -> b.getLastSeen().compareTo(a.getLastSeen()))
-                .limit(10)
+            List<Map<String, Object>> recentActivity = analyticsRepository
+                .findTop10ByUser_EmailAndLastSeenIsNotNullOrderByLastSeenDesc(userEmail).stream()
                 .map(this::deviceToActivityMap)
-                .collect(Collectors.toList());
+                .toList();
             analytics.put("recentActivity", recentActivity);
             
             // Performance metrics
-            analytics.put("performanceMetrics", getPerformanceMetrics(devices));
+            analytics.put("performanceMetrics", getPerformanceMetrics(summary));
             
             // Security insights
-            analytics.put("securityInsights", getSecurityInsights(devices));
+            analytics.put("securityInsights", getSecurityInsights(summary));
+
+            // Every nested value is immutable too, so callers can share the cached map
+            Map<String, Object> result = Map.copyOf(analytics);
+            analyticsCache.put(userEmail, result);
+            return result;
             
         } catch (Exception e) {
             analytics.put("error", "Failed to get device analytics: " + e.getMessage());
@@ -111,33 +121,28 @@ public class AnalyticsService {
 
     /**
      * Get system-wide analytics (admin only)
+     * Computed with GROUP BY aggregates and cached for a short TTL; the result is shared and read-only
      */
     public Map<String, Object> getSystemAnalytics() {
+        Map<String, Object> cached = analyticsCache.getIfPresent(SYSTEM_KEY);
+        if (cached != null) {
+            return cached;
+        }
+
         Map<String, Object> analytics = new HashMap<>();
         
         try {
-            List<Device> allDevices = deviceRepository.findAll();
-            
-            analytics.put("totalDevices", allDevices.size());
-            analytics.put("totalUsers", allDevices.stream()
-                .map(Device::getUserEmail)
-                .distinct()
-                .count());
-            
-            analytics.put("onlineDevices", allDevices.stream()
-                .mapToInt(d -> d.getIsOnline() ? 1 : 0).sum());
+            FleetSummary summary = analyticsRepository.summarizeFleet();
             
-            analytics.put("devicesByType", allDevices.stream()
-                .collect(Collectors.groupingBy(
-                    d -> d.getDeviceType() != null ? d.getDeviceType() : "Unknown",
-                    Collectors.counting()
-                )));
-            
-            analytics.put("devicesByOS", allDevices.stream()
-                .collect(Collectors.groupingBy(
-                    d -> d.getOsName() != null ? d.getOsName() : "Unknown",
-                    Collectors.counting()
-                )));
+            analytics.put("totalDevices", (int) toLong(summary.getTotalDevices()));
+            analytics.put("totalUsers", toLong(summary.getTotalUsers()));
+            analytics.put("onlineDevices", (int) toLong(summary.getOnlineDevices()));
+            analytics.put("devicesByType", toLabelCounts(analyticsRepository.countByDeviceType()));
+            analytics.put("devicesByOS", toLabelCounts(analyticsRepository.countByOsName()));
+
+            Map<String, Object> result = Map.copyOf(analytics);
+            analyticsCache.put(SYSTEM_KEY, result);
+            return result;
             
         } catch (Exception e) {
             analytics.put("error", "Failed to get system analytics: " + e.getMessage());
@@ -146,6 +151,19 @@ public class AnalyticsService {
         return analytics;
     }
 
+    private Map<String, Long> toLabelCounts(List<GroupCount> rows) {
+        Map<String, Long> counts = new HashMap<>();
+        for (GroupCount row : rows) {
+            String label = row.getLabel() != null ? row.getLabel() : "Unknown";
+            counts.merge(label, toLong(row.getTotal()), Long::sum);
+        }
+        return Map.copyOf(counts);
+    }
+
+    private long toLong(Long value) {
+        return value != null ? value : 0L;
+    }
+
     private Map<String, Object> deviceToActivityMap(Device device) {
         Map<String, Object> activity = new HashMap<>();
         activity.put("deviceId", device.getId());
@@ -153,7 +171,8 @@ public class AnalyticsService {
         activity.put("lastSeen", device.getLastSeen());
         activity.put("isOnline", device.getIsOnline());
         activity.put("location", device.getAddress());
-        return activity;
+        // Unmodifiable view rather than Map.copyOf, which rejects null isOnline/location values
+        return Collections.unmodifiableMap(activity);
     }
 
     private Map<String, Object> deviceToMap(Device device) {
@@ -170,42 +189,29 @@ public class AnalyticsService {
         return deviceMap;
     }
 
-    private Map<String, Object> getPerformanceMetrics(List<Device> devices) {
+    private Map<String, Object> getPerformanceMetrics(FleetSummary summary) {
         Map<String, Object> metrics = new HashMap<>();
         
         // Average battery level
-        double avgBattery = devices.stream()
-            .filter(d -> d.getBatteryLevel() != null)
-            .mapToInt(Device::getBatteryLevel)
-            .average()
-            .orElse(0.0);
+        double avgBattery = summary.getAverageBatteryLevel() != null ? summary.getAverageBatteryLevel() : 0.0;
         metrics.put("averageBatteryLevel", Math.round(avgBattery));
         
         // Low battery devices
-        long lowBatteryCount = devices.stream()
-            .filter(d -> d.getBatteryLevel() != null && d.getBatteryLevel() < 20)
-            .count();
-        metrics.put("lowBatteryDevices", lowBatteryCount);
+        metrics.put("lowBatteryDevices", toLong(summary.getLowBatteryDevices()));
         
-        return metrics;
+        return Map.copyOf(metrics);
     }
 
-    private Map<String, Object> getSecurityInsights(List<Device> devices) {
+    private Map<String, Object> getSecurityInsights(FleetSummary summary) {
         Map<String, Object> insights = new HashMap<>();
         
         // Locked devices
-        long lockedDevices = devices.stream()
-            .filter(d -> d.getIsLocked() != null && d.getIsLocked())
-            .count();
-        insights.put("lockedDevices", lockedDevices);
+        insights.put("lockedDevices", toLong(summary.getLockedDevices()));
         
         // Theft detected
-        long theftDetected = devices.stream()
-            .filter(d -> d.getTheftDetected() != null && d.getTheftDetected())
-            .count();
-        insights.put("theftDetectedDevices", theftDetected);
+        insights.put("theftDetectedDevices", toLong(summary.getTheftDetectedDevices()));
         
-        return insights;
+        return Map.copyOf(insights);
     }
 
     private List<Map<String, Object>> getLocationHistory(Device device) {
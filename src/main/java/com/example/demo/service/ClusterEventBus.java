@@ -0,0 +1,394 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cluster-wide event fan-out over PostgreSQL LISTEN/NOTIFY, so several nodes can run behind a
+ * load balancer without an external broker. Each node keeps its own STOMP broker, sessions and
+ * subscriptions; an event published on one node runs its handlers locally right away and is
+ * NOTIFY'd to the other nodes, which run the same handlers against their local state.
+ *
+ * Outgoing events are batched into as few NOTIFYs as fit the 8000 byte payload limit. An event too
+ * large for one NOTIFY is stored in cluster_event_payloads and only its row id is sent. Every event
+ * carries an id and each node drops ids it has already handled, so an event published twice
+ * (e.g. the same outbox row dispatched by two nodes) is delivered once per node.
+ *
+ * Without PostgreSQL, or with app.cluster.bus-enabled=false, events only run locally.
+ */
+@Service
+public class ClusterEventBus {
+
+    // NOTIFY payloads are limited to 8000 bytes; leave room for the batch envelope
+    private static final int MAX_NOTIFY_BYTES = 7800;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.cluster.bus-enabled:false}")
+    private boolean busEnabled;
+
+    @Value("${app.database.type:h2}")
+    private String databaseType;
+
+    @Value("${app.cluster.channel:lapso_events}")
+    private String channel;
+
+    @Value("${app.cluster.batch-linger-ms:20}")
+    private long batchLingerMs;
+
+    // Large event payloads only need to outlive their delivery to the other nodes
+    @Value("${app.cluster.payload-retention-minutes:10}")
+    private int payloadRetentionMinutes;
+
+    // The LISTEN connection is opened outside the pool, straight from the datasource settings
+    @Value("${spring.datasource.url:}")
+    private String datasourceUrl;
+
+    @Value("${spring.datasource.username:}")
+    private String datasourceUsername;
+
+    @Value("${spring.datasource.password:}")
+    private String datasourcePassword;
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, List<Consumer<JsonNode>>> handlers = new ConcurrentHashMap<>();
+    private final BlockingQueue<ObjectNode> outgoing = new LinkedBlockingQueue<>(10_000);
+    private final Cache<String, Boolean> seenIds = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private volatile boolean running;
+    private Thread sender;
+    private Thread listener;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong notifies = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!busEnabled || !"postgresql".equalsIgnoreCase(databaseType)) {
+            System.out.println("ℹ️ Cluster event bus disabled - events are delivered on this node only");
+            return;
+        }
+        running = true;
+        sender = new Thread(this::sendLoop, "cluster-bus-sender");
+        sender.setDaemon(true);
+        sender.start();
+        listener = new Thread(this::listenLoop, "cluster-bus-listener");
+        listener.setDaemon(true);
+        listener.start();
+        System.out.println("✅ Cluster event bus started on channel " + channel + " (node " + nodeId + ")");
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+        }
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Handle events of a type, both local and from other nodes
+     */
+    public void subscribe(String type, Consumer<JsonNode> handler) {
+        handlers.computeIfAbsent(type, t -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * Publish an event with a generated id
+     */
+    public void publish(String type, Object payload) {
+        publish(type, nodeId + ":" + sequence.incrementAndGet(), payload);
+    }
+
+    /**
+     * Publish an event on every node. Handlers on this node run before the call returns.
+     * Events with an id this node has already seen are ignored.
+     */
+    public void publish(String type, String eventId, Object payload) {
+        JsonNode body = objectMapper.valueToTree(payload);
+        if (!firstSeen(eventId)) {
+            return;
+        }
+        published.incrementAndGet();
+        dispatch(type, body);
+
+        if (running) {
+            ObjectNode event = objectMapper.createObjectNode();
+            event.put("i", eventId);
+            event.put("t", type);
+            event.set("p", body);
+            if (!outgoing.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public boolean isClustered() {
+        return running;
+    }
+
+    private boolean firstSeen(String eventId) {
+        if (seenIds.asMap().putIfAbsent(eventId, Boolean.TRUE) != null) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void dispatch(String type, JsonNode body) {
+        List<Consumer<JsonNode>> typeHandlers = handlers.get(type);
+        if (typeHandlers == null) {
+            return;
+        }
+        for (Consumer<JsonNode> handler : typeHandlers) {
+            try {
+                handler.accept(body);
+            } catch (Exception e) {
+                System.err.println("Cluster event handler failed for " + type + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drain outgoing events into batched NOTIFYs
+     */
+    private void sendLoop() {
+        List<ObjectNode> batch = new ArrayList<>();
+        while (running) {
+            try {
+                ObjectNode first = outgoing.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Give events published right after the first one a moment to join its batch
+                if (batchLingerMs > 0) {
+                    Thread.sleep(batchLingerMs);
+                }
+                outgoing.drainTo(batch, 500);
+                sendBatches(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Cluster bus send failed: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatches(List<ObjectNode> events) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement notify = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            // NOTIFY is only sent on commit; the pool hands connections back with autocommit restored
+            connection.setAutoCommit(true);
+            ArrayNode current = objectMapper.createArrayNode();
+            int currentBytes = 0;
+            for (ObjectNode event : events) {
+                byte[] bytes = objectMapper.writeValueAsBytes(event);
+                int size = bytes.length;
+                if (size > MAX_NOTIFY_BYTES) {
+                    event = storePayload(connection, event, bytes);
+                    size = objectMapper.writeValueAsBytes(event).length;
+                }
+                if (currentBytes + size > MAX_NOTIFY_BYTES && current.size() > 0) {
+                    sendNotify(notify, current);
+                    current = objectMapper.createArrayNode();
+                    currentBytes = 0;
+                }
+                current.add(event);
+                currentBytes += size + 1;
+            }
+            if (current.size() > 0) {
+                sendNotify(notify, current);
+            }
+        }
+    }
+
+    /**
+     * Store an event too large for NOTIFY and return the reference sent in its place. With autocommit on
+     * the row is visible before the NOTIFY goes out.
+     */
+    private ObjectNode storePayload(Connection connection, ObjectNode event, byte[] bytes) throws Exception {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO cluster_event_payloads (payload) VALUES (?) RETURNING id")) {
+            insert.setString(1, new String(bytes, StandardCharsets.UTF_8));
+            try (ResultSet rs = insert.executeQuery()) {
+                rs.next();
+                ObjectNode reference = objectMapper.createObjectNode();
+                reference.put("i", event.path("i").asText());
+                reference.put("r", rs.getLong(1));
+                stored.incrementAndGet();
+                return reference;
+            }
+        }
+    }
+
+    private JsonNode loadPayload(long id) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement("SELECT payload FROM cluster_event_payloads WHERE id = ?")) {
+            select.setLong(1, id);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    return objectMapper.readTree(rs.getString(1));
+                }
+            }
+            System.err.println("⚠️ Stored cluster event " + id + " already purged, not delivered on this node");
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not load stored cluster event " + id + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void purgeStoredPayloads() {
+        if (!running) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM cluster_event_payloads WHERE created_at < CURRENT_TIMESTAMP - make_interval(mins => ?)")) {
+            delete.setInt(1, payloadRetentionMinutes);
+            delete.executeUpdate();
+        } catch (Exception e) {
+            System.err.println("Cluster bus payload purge failed: " + e.getMessage());
+        }
+    }
+
+    private void sendNotify(PreparedStatement notify, ArrayNode events) throws Exception {
+        ObjectNode envelope = objectMapper.createObjectNode();
+        envelope.put("n", nodeId);
+        envelope.set("e", events);
+        notify.setString(1, channel);
+        notify.setString(2, new String(objectMapper.writeValueAsBytes(envelope), StandardCharsets.UTF_8));
+        notify.execute();
+        notifies.incrementAndGet();
+    }
+
+    /**
+     * Hold one connection in LISTEN and hand received events to the local handlers; reconnects on failure.
+     * The connection is held for the node's lifetime, so it is not borrowed from the pool.
+     */
+    private void listenLoop() {
+        long backoffMs = 1000;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(datasourceUrl, datasourceUsername, datasourcePassword)) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                backoffMs = 1000;
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(5000);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        handleNotification(notification.getParameter());
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Cluster bus listener disconnected, retrying in " + backoffMs + "ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, 30000);
+            }
+        }
+    }
+
+    private void handleNotification(String payload) {
+        try {
+            JsonNode envelope = objectMapper.readTree(payload);
+            if (nodeId.equals(envelope.path("n").asText())) {
+                return; // Already handled locally when published
+            }
+            for (JsonNode event : envelope.path("e")) {
+                received.incrementAndGet();
+                if (!firstSeen(event.path("i").asText())) {
+                    continue;
+                }
+                if (event.has("r")) {
+                    event = loadPayload(event.path("r").asLong());
+                    if (event == null) {
+                        dropped.incrementAndGet();
+                        continue;
+                    }
+                }
+                dispatch(event.path("t").asText(), event.path("p"));
+            }
+        } catch (Exception e) {
+            System.err.println("Invalid cluster bus notification: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("clustered", running);
+        stats.put("nodeId", nodeId);
+        stats.put("published", published.get());
+        stats.put("notifies", notifies.get());
+        stats.put("received", received.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("dropped", dropped.get());
+        stats.put("stored", stored.get());
+        stats.put("queued", outgoing.size());
+        return stats;
+    }
+}
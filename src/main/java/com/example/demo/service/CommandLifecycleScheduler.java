@@ -0,0 +1,255 @@
+package com.example.demo.service;
+
+import com.example.demo.model.RemoteCommand;
+import com.example.demo.repository.RemoteCommandRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Deadline-driven command lifecycle.
+ * Every live command holds one deadline on a timing wheel, chosen by its status: PENDING commands
+ * expire at expiresAt, SENT commands that were never answered go back to PENDING (until maxRetries
+ * is used up, then FAILED), and EXECUTING commands without a result fail. Arming and re-arming is
+ * O(1) per status change instead of a timer task per command.
+ *
+ * Transitions are conditional updates on the row's current status, so several nodes may hold the same
+ * deadline and only one of them acts. The wheel is rebuilt from the database on startup, and a slow
+ * sweep catches deadlines armed on a node that has since gone away; each command it finds is counted
+ * as a wheel miss.
+ *
+ * Ack deadlines of pushed commands live on a second wheel and go to the ack handlers, so they never
+ * displace the command's status deadline.
+ */
+@Service
+public class CommandLifecycleScheduler {
+
+    @Autowired
+    private RemoteCommandRepository remoteCommandRepository;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Value("${app.commands.sent-timeout-seconds:300}")
+    private long sentTimeoutSeconds;
+
+    @Value("${app.commands.execution-timeout-seconds:900}")
+    private long executionTimeoutSeconds;
+
+    // Deadlines the wheel fires at most a tick late; the sweep only picks up commands later than this
+    private static final long SWEEP_GRACE_SECONDS = 5;
+
+    // 1 second ticks, 4096 slots - one rotation covers the default command TTL
+    private final HashedTimingWheel<Long> wheel = new HashedTimingWheel<>(1000, 4096);
+
+    // Ack deadlines are seconds to a few minutes away, so a smaller wheel covers them
+    private final HashedTimingWheel<Long> ackWheel = new HashedTimingWheel<>(1000, 512);
+
+    // Called with each fired ack deadline, e.g. by the agent channel to resend an unacked push
+    private final List<Consumer<Long>> ackHandlers = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong ackFired = new AtomicLong();
+    private final AtomicLong wheelMisses = new AtomicLong();
+    private volatile int lastSweepOverdue;
+
+    /**
+     * Arm every live command so expiry and timeouts survive a restart
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildFromDatabase() {
+        try {
+            List<RemoteCommand> live = remoteCommandRepository.findByStatusIn(
+                    List.of(DeviceCommandQueue.PENDING, DeviceCommandQueue.SENT, DeviceCommandQueue.EXECUTING));
+            live.forEach(this::track);
+            System.out.println("⏱️ Command lifecycle armed for " + live.size() + " commands");
+        } catch (Exception e) {
+            System.err.println("Failed to rebuild command lifecycle state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Arm the deadline that matches the command's current status, or disarm it once finished
+     */
+    public void track(RemoteCommand command) {
+        if (command == null || command.getId() == null) {
+            return;
+        }
+        LocalDateTime deadline = null;
+        switch (String.valueOf(command.getStatus())) {
+            case DeviceCommandQueue.PENDING:
+                deadline = command.getExpiresAt();
+                break;
+            case DeviceCommandQueue.SENT:
+                deadline = command.getSentAt() != null ? command.getSentAt().plusSeconds(sentTimeoutSeconds) : null;
+                break;
+            case DeviceCommandQueue.EXECUTING:
+                deadline = command.getExecutedAt() != null ? command.getExecutedAt().plusSeconds(executionTimeoutSeconds) : null;
+                break;
+            default:
+                break;
+        }
+        if (deadline != null) {
+            schedule(command.getId(), deadline.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        } else {
+            forget(command.getId());
+        }
+    }
+
+    private void schedule(Long commandId, long deadlineMillis) {
+        wheel.schedule(commandId, deadlineMillis);
+    }
+
+    /**
+     * Arm or re-arm the ack deadline of a pushed command; the status deadline stays armed alongside it
+     */
+    public void scheduleAck(Long commandId, long deadlineMillis) {
+        ackWheel.schedule(commandId, deadlineMillis);
+    }
+
+    public void cancelAck(Long commandId) {
+        if (commandId != null) {
+            ackWheel.cancel(commandId);
+        }
+    }
+
+    public void forget(Long commandId) {
+        if (commandId != null) {
+            wheel.cancel(commandId);
+            ackWheel.cancel(commandId);
+        }
+    }
+
+    public void addAckHandler(Consumer<Long> handler) {
+        ackHandlers.add(handler);
+    }
+
+    /**
+     * Fire expired deadlines. Only the wheel buckets for elapsed ticks are visited.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void expireDeadlines() {
+        expireDeadlines(System.currentTimeMillis());
+    }
+
+    void expireDeadlines(long nowMillis) {
+        for (Long commandId : ackWheel.advance(nowMillis)) {
+            ackFired.incrementAndGet();
+            for (Consumer<Long> handler : ackHandlers) {
+                try {
+                    handler.accept(commandId);
+                } catch (Exception e) {
+                    System.err.println("Command ack deadline failed for " + commandId + ": " + e.getMessage());
+                }
+            }
+        }
+        for (Long commandId : wheel.advance(nowMillis)) {
+            fired.incrementAndGet();
+            try {
+                transition(commandId);
+            } catch (Exception e) {
+                System.err.println("Command lifecycle transition failed for " + commandId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Backstop for deadlines nobody holds any more, e.g. armed on a node that went down
+     */
+    @Scheduled(fixedDelayString = "${app.commands.sweep-interval-ms:300000}", initialDelayString = "${app.commands.sweep-interval-ms:300000}")
+    public void sweepOverdue() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusSeconds(SWEEP_GRACE_SECONDS);
+            List<RemoteCommand> overdue = new ArrayList<>(
+                    remoteCommandRepository.findByStatusAndExpiresAtBefore(DeviceCommandQueue.PENDING, cutoff));
+            overdue.addAll(remoteCommandRepository.findByStatusAndSentAtBefore(
+                    DeviceCommandQueue.SENT, cutoff.minusSeconds(sentTimeoutSeconds)));
+            overdue.addAll(remoteCommandRepository.findByStatusAndExecutedAtBefore(
+                    DeviceCommandQueue.EXECUTING, cutoff.minusSeconds(executionTimeoutSeconds)));
+            lastSweepOverdue = overdue.size();
+            if (overdue.isEmpty()) {
+                return;
+            }
+            // Past their deadline by more than the wheel's slack, so no wheel here fired them
+            wheelMisses.addAndGet(overdue.size());
+            System.err.println("⚠️ Command sweep found " + overdue.size() + " overdue commands the wheel missed");
+            for (RemoteCommand command : overdue) {
+                forget(command.getId());
+                transition(command.getId());
+            }
+        } catch (Exception e) {
+            System.err.println("Command sweep failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply the transition for the command's status if its deadline really passed, then re-arm
+     */
+    private void transition(Long commandId) {
+        RemoteCommand command = remoteCommandRepository.findById(commandId).orElse(null);
+        if (command == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        switch (String.valueOf(command.getStatus())) {
+            case DeviceCommandQueue.PENDING:
+                if (remoteCommandRepository.expirePending(commandId, now) == 1) {
+                    expired.incrementAndGet();
+                    System.out.println("⌛ Command " + commandId + " expired before delivery");
+                }
+                break;
+            case DeviceCommandQueue.SENT: {
+                LocalDateTime cutoff = now.minusSeconds(sentTimeoutSeconds);
+                if (remoteCommandRepository.requeueUnanswered(commandId, cutoff) == 1) {
+                    retried.incrementAndGet();
+                    remoteCommandRepository.findDeviceIdByCommandId(commandId).ifPresent(deviceId ->
+                            clusterEventBus.publish(DeviceCommandQueue.PENDING_EVENT, Map.of("deviceId", deviceId)));
+                } else if (remoteCommandRepository.failUnanswered(commandId, cutoff, now,
+                        "No response from agent after " + sentTimeoutSeconds + "s") == 1) {
+                    timedOut.incrementAndGet();
+                }
+                break;
+            }
+            case DeviceCommandQueue.EXECUTING:
+                if (remoteCommandRepository.failUnfinished(commandId, now.minusSeconds(executionTimeoutSeconds), now,
+                        "No result from agent after " + executionTimeoutSeconds + "s") == 1) {
+                    timedOut.incrementAndGet();
+                }
+                break;
+            default:
+                return;
+        }
+        // Not due yet (re-armed elsewhere), or moved to a state with its own deadline
+        remoteCommandRepository.findById(commandId).ifPresent(this::track);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("armed", wheel.size());
+        stats.put("ackArmed", ackWheel.size());
+        stats.put("fired", fired.get());
+        stats.put("ackFired", ackFired.get());
+        stats.put("expired", expired.get());
+        stats.put("retried", retried.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("wheelMisses", wheelMisses.get());
+        stats.put("lastSweepOverdue", lastSweepOverdue);
+        return stats;
+    }
+}
@@ -91,10 +91,7 @@ public class ContinuousOperationService {
     public void performDeviceMonitoring() {
         try {
             if (deviceActionService != null) {
-                // Monitor all registered devices
-                deviceActionService.performAutomaticDeviceCheck();
-                
-                // Update device statuses
+                // Offline transitions are deadline-driven by DeviceOfflineDetector; only record the sweep here
                 systemMetrics.put("lastDeviceCheck", LocalDateTime.now());
                 systemMetrics.put("deviceCount", deviceActionService.getDeviceCount());
             } else {
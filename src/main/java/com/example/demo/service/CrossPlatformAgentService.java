@@ -34,6 +34,9 @@ public class CrossPlatformAgentService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private DeviceOfflineDetector offlineDetector;
+    
     /**
      * 🚀 GENERATE ENHANCED WINDOWS AGENT
      * Advanced PowerShell agent with system integration
@@ -250,6 +253,7 @@ public class CrossPlatformAgentService {
             // Update device with comprehensive agent data
             updateDeviceFromAgentData(device, agentData);
             deviceRepository.save(device);
+            offlineDetector.recordHeartbeat(deviceId);
             
             System.out.println("📱 Enhanced agent update processed: " + deviceId);
             
@@ -20,6 +20,9 @@ public class DeviceActionService {
     @Autowired(required = false)
     private NotificationService notificationService;
 
+    @Autowired
+    private DeviceOfflineDetector offlineDetector;
+
     public boolean lockDevice(Long deviceId, String userEmail) {
         Optional<Device> deviceOpt = deviceRepository.findById(deviceId)
             .filter(device -> device.getUserEmail().equals(userEmail));
@@ -137,6 +140,7 @@ public class DeviceActionService {
             device.setIsOnline(isOnline);
             device.setLastSeen(LocalDateTime.now());
             deviceRepository.save(device);
+            offlineDetector.track(device);
         }
     }
 
@@ -144,28 +148,6 @@ public class DeviceActionService {
     // 24/7 CONTINUOUS OPERATION METHODS
     // ========================================
     
-    /**
-     * Perform automatic device check for 24/7 monitoring
-     */
-    public void performAutomaticDeviceCheck() {
-        try {
-            List<Device> allDevices = deviceRepository.findAll();
-            
-            for (Device device : allDevices) {
-                // Check device status and update if needed
-                checkDeviceHealth(device);
-                
-                // Update last check time (using existing field)
-                device.setLastSeen(LocalDateTime.now());
-                deviceRepository.save(device);
-            }
-            
-        } catch (Exception e) {
-            // Log error but don't throw to maintain continuous operation
-            System.err.println("Error in automatic device check: " + e.getMessage());
-        }
-    }
-    
     /**
      * Get total device count for monitoring
      */
@@ -225,32 +207,6 @@ public class DeviceActionService {
         }
     }
     
-    /**
-     * Check individual device health
-     */
-    private void checkDeviceHealth(Device device) {
-        try {
-            // Update device status based on last seen time
-            LocalDateTime lastSeen = device.getLastSeen();
-            if (lastSeen != null) {
-                LocalDateTime now = LocalDateTime.now();
-                long minutesSinceLastSeen = java.time.Duration.between(lastSeen, now).toMinutes();
-                
-                if (minutesSinceLastSeen > 60) {
-                    device.setIsOnline(false);
-                } else if (minutesSinceLastSeen > 30) {
-                    // Warning state - still online but concerning
-                    device.setIsOnline(true);
-                } else {
-                    device.setIsOnline(true);
-                }
-            }
-            
-        } catch (Exception e) {
-            System.err.println("Error checking device health: " + e.getMessage());
-        }
-    }
-    
     /**
      * Sync individual device data
      */
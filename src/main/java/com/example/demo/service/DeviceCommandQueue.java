@@ -0,0 +1,372 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.model.RemoteCommand;
+import com.example.demo.repository.DeviceRepository;
+import com.example.demo.repository.RemoteCommandRepository;
+import com.example.demo.security.SecretTokens;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable command queue for device agents, stored in remote_commands.
+ * Commands go PENDING -> SENT when an agent claims them and SENT -> COMPLETED/FAILED when it reports
+ * the result. Claiming uses FOR UPDATE SKIP LOCKED, so concurrent polls on any node never get the same
+ * command and never wait on each other.
+ *
+ * Most polls find nothing, so a "has pending" bit per device is kept in memory: it is set after an
+ * enqueue commits (on every node, through the cluster event bus) and cleared when a claim drains the
+ * device. A poll for a device whose bit is clear and whose owner was recently verified skips the
+ * database entirely.
+ */
+@Service
+public class DeviceCommandQueue {
+
+    public static final String PENDING = "PENDING";
+    public static final String SENT = "SENT";
+    public static final String EXECUTING = "EXECUTING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    public static final String PENDING_EVENT = "command-pending";
+
+    @Autowired
+    private RemoteCommandRepository remoteCommandRepository;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private CommandLifecycleScheduler lifecycleScheduler;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.commands.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    // deviceId -> bit index; bits are only read and written while holding the BitSets' monitor
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final BitSet pending = new BitSet();
+    // Set on every enqueue, so a claim that started before it does not clear the new command's bit
+    private final BitSet touched = new BitSet();
+
+    // Owner and device token verified by an earlier poll, so idle polls need no device lookup either
+    private final Cache<String, String> verifiedOwners = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong skippedPolls = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        clusterEventBus.subscribe(PENDING_EVENT, event -> markPending(event.path("deviceId").asText()));
+        try {
+            List<String> deviceIds = remoteCommandRepository.findDeviceIdsWithPendingCommands();
+            deviceIds.forEach(this::markPending);
+            System.out.println("✅ Device command queue ready (" + deviceIds.size() + " devices with pending commands)");
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not load pending commands: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue a command for a device. The agent gets it on its next poll once the transaction commits.
+     */
+    @Transactional
+    public Optional<RemoteCommand> enqueue(String deviceId, String commandType, Map<String, Object> parameters) {
+        Optional<Device> device = deviceRepository.findByDeviceId(deviceId);
+        if (device.isEmpty()) {
+            System.err.println("❌ Cannot queue " + commandType + " - device not found: " + deviceId);
+            return Optional.empty();
+        }
+        RemoteCommand command = new RemoteCommand();
+        command.setDevice(device.get());
+        command.setUser(device.get().getUser());
+        command.setCommandType(commandType);
+        command.setCommandParams(encodeParams(parameters));
+        command.setPriority(priorityFor(commandType));
+        command.setExpiresAt(LocalDateTime.now().plusMinutes(ttlMinutes));
+        remoteCommandRepository.save(command);
+        commandQueued(command);
+        return Optional.of(command);
+    }
+
+    /**
+     * Arm the command's expiry and flag its device as having pending commands on every node once the
+     * caller's transaction commits. Call this after saving a PENDING command without going through enqueue.
+     */
+    public void commandQueued(RemoteCommand command) {
+        String deviceId = command.getDevice().getDeviceId();
+        enqueued.incrementAndGet();
+        lifecycleScheduler.track(command);
+        afterCommit(() -> clusterEventBus.publish(PENDING_EVENT, Map.of("deviceId", deviceId)));
+    }
+
+    /**
+     * True if a poll can be answered with "no commands" without touching the database
+     */
+    public boolean isIdle(String deviceId, String userEmail, String deviceToken) {
+        polls.incrementAndGet();
+        if (mayHavePending(deviceId) || userEmail == null
+                || !pollCredential(userEmail, deviceToken).equals(verifiedOwners.getIfPresent(deviceId))) {
+            return false;
+        }
+        skippedPolls.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remember that the user owns the device and the token is valid for it, after the caller checked both
+     * against the database
+     */
+    public void rememberOwner(String deviceId, String userEmail, String deviceToken) {
+        verifiedOwners.put(deviceId, pollCredential(userEmail, deviceToken));
+    }
+
+    private static String pollCredential(String userEmail, String deviceToken) {
+        return deviceToken == null || deviceToken.isEmpty() ? userEmail : userEmail + " " + SecretTokens.hash(deviceToken);
+    }
+
+    public boolean mayHavePending(String deviceId) {
+        Integer slot = slots.get(deviceId);
+        if (slot == null) {
+            return false;
+        }
+        synchronized (pending) {
+            return pending.get(slot);
+        }
+    }
+
+    /**
+     * Claim up to limit commands for the device by its device id
+     */
+    @Transactional
+    public List<RemoteCommand> claim(String deviceId, int limit) {
+        return deviceRepository.findByDeviceId(deviceId)
+                .map(device -> claim(device, limit))
+                .orElse(List.of());
+    }
+
+    /**
+     * Claim up to limit commands for the device, most urgent first, and mark them SENT
+     */
+    @Transactional
+    public List<RemoteCommand> claim(Device device, int limit) {
+        int slot = slot(device.getDeviceId());
+        synchronized (pending) {
+            touched.clear(slot);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<RemoteCommand> commands = remoteCommandRepository.claimPending(device.getId(), now, limit);
+        for (RemoteCommand command : commands) {
+            command.setStatus(SENT);
+            command.setSentAt(now);
+            lifecycleScheduler.track(command);
+        }
+        claimed.addAndGet(commands.size());
+
+        if (commands.size() < limit) {
+            // Drained; clear the bit once that is durable, unless a command was queued meanwhile
+            afterCommit(() -> {
+                synchronized (pending) {
+                    if (!touched.get(slot)) {
+                        pending.clear(slot);
+                    }
+                }
+            });
+        }
+        return commands;
+    }
+
+    /**
+     * Record a result for a command without knowing its device
+     */
+    @Transactional
+    public boolean complete(Long commandId, boolean success, String message) {
+        return remoteCommandRepository.findDeviceIdByCommandId(commandId)
+                .map(deviceId -> complete(deviceId, commandId, success, message))
+                .orElse(false);
+    }
+
+    /**
+     * Record an agent's result for a command it was sent
+     */
+    @Transactional
+    public boolean complete(String deviceId, Long commandId, boolean success, String message) {
+        Optional<RemoteCommand> found = remoteCommandRepository.findById(commandId);
+        if (found.isEmpty() || !deviceId.equals(found.get().getDevice().getDeviceId())) {
+            return false;
+        }
+        RemoteCommand command = found.get();
+        LocalDateTime now = LocalDateTime.now();
+        command.setStatus(success ? COMPLETED : FAILED);
+        command.setResult(message);
+        if (command.getExecutedAt() == null) {
+            command.setExecutedAt(now);
+        }
+        command.setCompletedAt(now);
+        lifecycleScheduler.forget(commandId);
+        completed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The agent acknowledged a pushed command and is running it
+     */
+    @Transactional
+    public void markExecuting(String deviceId, Long commandId) {
+        remoteCommandRepository.findById(commandId)
+                .filter(command -> SENT.equals(command.getStatus()) && deviceId.equals(command.getDevice().getDeviceId()))
+                .ifPresent(command -> {
+                    command.setStatus(EXECUTING);
+                    command.setExecutedAt(LocalDateTime.now());
+                    lifecycleScheduler.track(command);
+                });
+    }
+
+    /**
+     * Count another delivery attempt of a sent command
+     */
+    @Transactional
+    public void recordRetry(Long commandId) {
+        remoteCommandRepository.findById(commandId).ifPresent(command ->
+                command.setRetryCount((command.getRetryCount() != null ? command.getRetryCount() : 0) + 1));
+    }
+
+    /**
+     * Put a sent but unacknowledged command back to PENDING so the next poll or push delivers it again
+     */
+    @Transactional
+    public void requeue(Long commandId) {
+        remoteCommandRepository.findById(commandId)
+                .filter(command -> SENT.equals(command.getStatus()))
+                .ifPresent(command -> {
+                    command.setStatus(PENDING);
+                    command.setSentAt(null);
+                    commandQueued(command);
+                });
+    }
+
+    @Transactional(readOnly = true)
+    public long countPending(String deviceId) {
+        return deviceRepository.findByDeviceId(deviceId)
+                .map(device -> remoteCommandRepository.countByDeviceAndStatus(device, PENDING))
+                .orElse(0L);
+    }
+
+    /**
+     * Parameters of a stored command
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> parameters(RemoteCommand command) {
+        if (command.getCommandParams() == null || command.getCommandParams().isBlank()) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(command.getCommandParams(), Map.class);
+        } catch (Exception e) {
+            System.err.println("Invalid parameters on command " + command.getId() + ": " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    private String encodeParams(Map<String, Object> parameters) {
+        try {
+            return objectMapper.writeValueAsString(parameters != null ? parameters : Map.of());
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Command parameters are not serializable: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Security actions jump ahead of routine requests queued for the same device
+     */
+    private static int priorityFor(String commandType) {
+        switch (commandType) {
+            case "WIPE":
+                return 10;
+            case "LOCK":
+                return 9;
+            case "PLAY_SOUND":
+            case "ALARM":
+                return 8;
+            case "UNLOCK":
+                return 7;
+            default:
+                return 5;
+        }
+    }
+
+    private void markPending(String deviceId) {
+        if (deviceId == null || deviceId.isEmpty()) {
+            return;
+        }
+        int slot = slot(deviceId);
+        synchronized (pending) {
+            pending.set(slot);
+            touched.set(slot);
+        }
+    }
+
+    private int slot(String deviceId) {
+        return slots.computeIfAbsent(deviceId, id -> nextSlot.getAndIncrement());
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int devicesPending;
+        synchronized (pending) {
+            devicesPending = pending.cardinality();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enqueued", enqueued.get());
+        stats.put("claimed", claimed.get());
+        stats.put("completed", completed.get());
+        stats.put("polls", polls.get());
+        stats.put("pollsSkippedDb", skippedPolls.get());
+        stats.put("devicesPending", devicesPending);
+        stats.put("devicesTracked", slots.size());
+        return stats;
+    }
+}
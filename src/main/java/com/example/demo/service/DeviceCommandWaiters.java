@@ -0,0 +1,139 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agents waiting in a long poll for their next command.
+ * A waiter is just a callback per device - the request itself is a DeferredResult and holds no
+ * servlet thread while it waits. When a command is queued for the device (on any node, through the
+ * cluster event bus) its waiter is removed and run on a small shared pool, which claims the
+ * commands and completes the request.
+ */
+@Service
+public class DeviceCommandWaiters {
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Value("${app.commands.max-waiters:20000}")
+    private int maxWaiters;
+
+    @Value("${app.commands.waker-threads:2}")
+    private int wakerThreads;
+
+    // One waiter per device; a newer poll from the same agent replaces the older one
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+
+    private ExecutorService wakers;
+
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong woken = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        wakers = Executors.newFixedThreadPool(Math.max(1, wakerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "command-waker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        clusterEventBus.subscribe(DeviceCommandQueue.PENDING_EVENT, event -> wake(event.path("deviceId").asText()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        wakers.shutdownNow();
+    }
+
+    /**
+     * Wait for the device's next command. onWake runs on a waker thread once a command is queued;
+     * onReplaced runs if the same device starts another wait first. Returns null when this node
+     * already holds the maximum number of waiters, in which case the caller should answer right away.
+     */
+    public Waiter await(String deviceId, Runnable onWake, Runnable onReplaced) {
+        if (waiters.size() >= maxWaiters) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        Waiter waiter = new Waiter(deviceId, onWake, onReplaced);
+        Waiter previous = waiters.put(deviceId, waiter);
+        registered.incrementAndGet();
+        if (previous != null) {
+            replaced.incrementAndGet();
+            run(previous.onReplaced);
+        }
+        return waiter;
+    }
+
+    /**
+     * Stop waiting, e.g. after the request timed out or completed
+     */
+    public void cancel(Waiter waiter) {
+        waiters.remove(waiter.deviceId, waiter);
+    }
+
+    /**
+     * Hand the device's waiter, if any, to a waker thread
+     */
+    public void wake(String deviceId) {
+        if (deviceId == null) {
+            return;
+        }
+        Waiter waiter = waiters.remove(deviceId);
+        if (waiter != null) {
+            woken.incrementAndGet();
+            run(waiter.onWake);
+        }
+    }
+
+    private void run(Runnable callback) {
+        try {
+            wakers.execute(() -> {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    System.err.println("Command waiter failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the request ends with the container
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("waiting", waiters.size());
+        stats.put("registered", registered.get());
+        stats.put("woken", woken.get());
+        stats.put("replaced", replaced.get());
+        stats.put("rejectedFull", rejected.get());
+        return stats;
+    }
+
+    public static class Waiter {
+        private final String deviceId;
+        private final Runnable onWake;
+        private final Runnable onReplaced;
+
+        Waiter(String deviceId, Runnable onWake, Runnable onReplaced) {
+            this.deviceId = deviceId;
+            this.onWake = onWake;
+            this.onReplaced = onReplaced;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * JPA listener that feeds every device insert, update and delete into the per-user counters,
+ * whichever service or controller performed the write. The callbacks run at flush time, so deltas
+ * are applied once the transaction commits and a rollback leaves the counters alone.
+ * Bulk JPQL deletes bypass it; the periodic reconciliation in DeviceCounterService covers those.
+ */
+@Component
+public class DeviceCounterListener {
+
+    // Lazy: listeners are created while the EntityManagerFactory is still being built
+    @Autowired
+    @Lazy
+    private DeviceCounterService counterService;
+
+    @PostLoad
+    public void onLoad(Device device) {
+        device.markPersistedState(isOnline(device), isStolen(device));
+    }
+
+    @PostPersist
+    public void onPersist(Device device) {
+        boolean online = isOnline(device);
+        boolean stolen = isStolen(device);
+        applyAfterCommit(ownerEmail(device), 1, online ? 1 : 0, stolen ? 1 : 0);
+        device.markPersistedState(online, stolen);
+    }
+
+    @PostUpdate
+    public void onUpdate(Device device) {
+        boolean online = isOnline(device);
+        boolean stolen = isStolen(device);
+        int onlineDelta = (online ? 1 : 0) - (device.wasPersistedOnline() ? 1 : 0);
+        int stolenDelta = (stolen ? 1 : 0) - (device.wasPersistedStolen() ? 1 : 0);
+        if (onlineDelta != 0 || stolenDelta != 0) {
+            applyAfterCommit(ownerEmail(device), 0, onlineDelta, stolenDelta);
+        }
+        device.markPersistedState(online, stolen);
+    }
+
+    @PostRemove
+    public void onRemove(Device device) {
+        applyAfterCommit(ownerEmail(device), -1,
+            device.wasPersistedOnline() ? -1 : 0,
+            device.wasPersistedStolen() ? -1 : 0);
+    }
+
+    private void applyAfterCommit(String userEmail, int totalDelta, int onlineDelta, int stolenDelta) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    counterService.applyDelta(userEmail, totalDelta, onlineDelta, stolenDelta);
+                }
+            });
+        } else {
+            counterService.applyDelta(userEmail, totalDelta, onlineDelta, stolenDelta);
+        }
+    }
+
+    private boolean isOnline(Device device) {
+        return Boolean.TRUE.equals(device.getIsOnline());
+    }
+
+    private boolean isStolen(Device device) {
+        return Boolean.TRUE.equals(device.getTheftDetected());
+    }
+
+    private String ownerEmail(Device device) {
+        return device.getUser() != null ? device.getUser().getEmail() : null;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.demo.service;
+
+import com.example.demo.model.DeviceStats;
+import com.example.demo.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Materialized per-user device counters (total, online, stolen).
+ * Loaded with one aggregate query the first time a user is asked for, then kept current by
+ * DeviceCounterListener on every device write, so dashboard stats are a single map lookup.
+ * Deltas go out on the cluster event bus, so users loaded on other nodes stay current too.
+ */
+@Service
+public class DeviceCounterService {
+
+    public static final String COUNTERS_EVENT = "device-counters";
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    private final Map<String, UserDeviceCounters> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        clusterEventBus.subscribe(COUNTERS_EVENT, event -> addToLoaded(event.path("userEmail").asText(),
+                event.path("total").asInt(), event.path("online").asInt(), event.path("stolen").asInt()));
+    }
+
+    /**
+     * Get device statistics for a user
+     */
+    public DeviceStats getStats(String userEmail) {
+        if (userEmail == null) {
+            return new DeviceStats(0, 0, 0, 0);
+        }
+        UserDeviceCounters userCounters = counters.get(userEmail);
+        if (userCounters == null) {
+            UserDeviceCounters loaded = loadCounters(userEmail);
+            userCounters = counters.putIfAbsent(userEmail, loaded);
+            if (userCounters == null) {
+                userCounters = loaded;
+            }
+        }
+        return userCounters.toStats();
+    }
+
+    /**
+     * Apply a change coming from a device write on every node. Users not loaded yet are skipped,
+     * they are read fresh from the database on first access.
+     */
+    public void applyDelta(String userEmail, int totalDelta, int onlineDelta, int stolenDelta) {
+        if (userEmail == null) {
+            return;
+        }
+        clusterEventBus.publish(COUNTERS_EVENT, Map.of("userEmail", userEmail,
+                "total", totalDelta, "online", onlineDelta, "stolen", stolenDelta));
+    }
+
+    private void addToLoaded(String userEmail, int totalDelta, int onlineDelta, int stolenDelta) {
+        UserDeviceCounters userCounters = counters.get(userEmail);
+        if (userCounters != null) {
+            userCounters.add(totalDelta, onlineDelta, stolenDelta);
+        }
+    }
+
+    /**
+     * Drop a user's counters so the next read reloads them
+     */
+    public void invalidate(String userEmail) {
+        if (userEmail != null) {
+            counters.remove(userEmail);
+        }
+    }
+
+    /**
+     * Periodic reconciliation against the database.
+     * Corrects drift from bulk deletes, rolled back transactions and races with the initial load.
+     */
+    @Scheduled(fixedRate = 300000) // Every 5 minutes
+    public void reconcile() {
+        if (counters.isEmpty()) {
+            return;
+        }
+        try {
+            Map<String, long[]> actual = new HashMap<>();
+            for (Object[] row : deviceRepository.countStatsGroupedByUserEmail()) {
+                actual.put((String) row[0], new long[] { toLong(row[1]), toLong(row[2]), toLong(row[3]) });
+            }
+
+            int corrected = 0;
+            for (Map.Entry<String, UserDeviceCounters> entry : counters.entrySet()) {
+                long[] values = actual.getOrDefault(entry.getKey(), new long[3]);
+                if (entry.getValue().reset(values[0], values[1], values[2])) {
+                    corrected++;
+                }
+            }
+
+            if (corrected > 0) {
+                System.out.println("📊 Device counters reconciled: " + corrected + " users corrected");
+            }
+        } catch (Exception e) {
+            System.err.println("Error reconciling device counters: " + e.getMessage());
+        }
+    }
+
+    private UserDeviceCounters loadCounters(String userEmail) {
+        List<Object[]> rows = deviceRepository.countStatsByUserEmail(userEmail);
+        UserDeviceCounters loaded = new UserDeviceCounters();
+        if (!rows.isEmpty()) {
+            Object[] row = rows.get(0);
+            loaded.reset(toLong(row[0]), toLong(row[1]), toLong(row[2]));
+        }
+        return loaded;
+    }
+
+    private long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : 0L;
+    }
+
+    /**
+     * Counters for one user
+     */
+    private static class UserDeviceCounters {
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong online = new AtomicLong();
+        private final AtomicLong stolen = new AtomicLong();
+
+        void add(int totalDelta, int onlineDelta, int stolenDelta) {
+            total.addAndGet(totalDelta);
+            online.addAndGet(onlineDelta);
+            stolen.addAndGet(stolenDelta);
+        }
+
+        boolean reset(long newTotal, long newOnline, long newStolen) {
+            boolean changed = total.getAndSet(newTotal) != newTotal;
+            changed |= online.getAndSet(newOnline) != newOnline;
+            changed |= stolen.getAndSet(newStolen) != newStolen;
+            return changed;
+        }
+
+        DeviceStats toStats() {
+            long t = Math.max(0, total.get());
+            long o = Math.min(t, Math.max(0, online.get()));
+            long s = Math.max(0, stolen.get());
+            return new DeviceStats(t, o, t - o, s);
+        }
+    }
+}
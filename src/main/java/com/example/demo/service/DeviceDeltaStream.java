@@ -0,0 +1,226 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Field-level delta frames for live maps and dashboards on /user/queue/device-deltas.
+ *
+ * Each subscriber gets a small integer handle per device. A snapshot frame carries every field
+ * with the device id; after that a tick only carries the fields that changed, keyed by handle:
+ *
+ *   {"t":"s","s":41,"d":[{"h":1,"id":"LAPTOP-1","n":"Work laptop","o":true,"b":80,...}]}
+ *   {"t":"d","s":42,"u":[{"h":1,"b":79},{"h":3,"la":12.971601,"lo":77.594566}]}
+ *
+ * Every delta frame increments the subscriber's sequence number; a client that sees a gap
+ * requests a new snapshot. Snapshots report the current sequence number without advancing it,
+ * so a resync of one session does not disturb the user's other sessions.
+ */
+@Service
+public class DeviceDeltaStream {
+
+    public static final String DELTA_QUEUE = "/queue/device-deltas";
+    private static final String SUBSCRIBED_DESTINATION = "/user" + DELTA_QUEUE;
+
+    // Handle tables of users without a live subscription are kept this long, so a reconnect keeps its handles
+    private static final long IDLE_RETENTION_MS = 5 * 60 * 1000;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    @Autowired
+    private StompFrameSender frameSender;
+
+    @Autowired
+    private StompSubscriptionRegistry subscriptionRegistry;
+
+    // subscriber -> handle table, last sent fields and pending fields
+    private final Map<String, SubscriberState> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong deltaFrames = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong fieldsSent = new AtomicLong();
+    private final AtomicLong fieldsSuppressed = new AtomicLong();
+
+    /**
+     * Compact field map of a device. Values are rounded so sensor noise does not show up as changes.
+     */
+    public static Map<String, Object> fields(Device device, Double healthScore) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("n", device.getDeviceName());
+        fields.put("o", Boolean.TRUE.equals(device.getIsOnline()));
+        fields.put("b", device.getBatteryLevel());
+        fields.put("c", device.getIsCharging());
+        fields.put("la", round(device.getLatitude(), 1e6));
+        fields.put("lo", round(device.getLongitude(), 1e6));
+        fields.put("a", device.getAccuracy() != null ? (int) Math.round(device.getAccuracy()) : null);
+        fields.put("ad", device.getAddress());
+        fields.put("cpu", device.getCpuUsage() != null ? (int) Math.round(device.getCpuUsage()) : null);
+        fields.put("mem", device.getMemoryUsagePercent());
+        fields.put("dsk", device.getDiskUsagePercent());
+        fields.put("th", Boolean.TRUE.equals(device.getTheftDetected()));
+        fields.put("ls", device.getLastSeen() != null ? device.getLastSeen().atZone(ZONE).toEpochSecond() : null);
+        if (healthScore != null) {
+            fields.put("hs", (int) Math.round(healthScore));
+        }
+        return fields;
+    }
+
+    /**
+     * Queue a device's current fields for the subscriber's next delta frame
+     */
+    public void offer(String subscriber, String deviceId, Map<String, Object> fields) {
+        SubscriberState state = subscribers.computeIfAbsent(subscriber, s -> new SubscriberState());
+        synchronized (state) {
+            state.touched = System.currentTimeMillis();
+            int handle = state.handle(deviceId);
+            Map<String, Object> pending = state.pending.get(handle);
+            if (pending == null) {
+                state.pending.put(handle, new LinkedHashMap<>(fields));
+            } else {
+                pending.putAll(fields);
+            }
+        }
+    }
+
+    /**
+     * Full snapshot of the given devices for one of the subscriber's sessions
+     */
+    public Map<String, Object> snapshot(String subscriber, List<Device> devices) {
+        SubscriberState state = subscribers.computeIfAbsent(subscriber, s -> new SubscriberState());
+        List<Map<String, Object>> entries = new ArrayList<>(devices.size());
+        long seq;
+        synchronized (state) {
+            state.touched = System.currentTimeMillis();
+            for (Device device : devices) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("h", state.handle(device.getDeviceId()));
+                entry.put("id", device.getDeviceId());
+                entry.putAll(fields(device, null));
+                entries.add(entry);
+            }
+            seq = state.seq;
+        }
+        snapshots.incrementAndGet();
+
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("t", "s");
+        frame.put("s", seq);
+        frame.put("d", entries);
+        return frame;
+    }
+
+    /**
+     * Send one delta frame per subscriber with the fields that changed since the last frame
+     */
+    @Scheduled(fixedDelayString = "${app.realtime.flush-interval-ms:500}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SubscriberState> entry : subscribers.entrySet()) {
+            SubscriberState state = entry.getValue();
+            Map<String, Object> frame;
+            synchronized (state) {
+                if (!subscriptionRegistry.hasSubscriber(entry.getKey(), SUBSCRIBED_DESTINATION)) {
+                    state.pending.clear();
+                    if (now - state.touched > IDLE_RETENTION_MS) {
+                        subscribers.remove(entry.getKey(), state);
+                    }
+                    continue;
+                }
+                if (state.pending.isEmpty()) {
+                    continue;
+                }
+                List<Map<String, Object>> updates = new ArrayList<>();
+                for (Map.Entry<Integer, Map<String, Object>> pending : state.pending.entrySet()) {
+                    Map<String, Object> update = state.diff(pending.getKey(), pending.getValue());
+                    if (update != null) {
+                        updates.add(update);
+                    }
+                }
+                state.pending.clear();
+                if (updates.isEmpty()) {
+                    continue;
+                }
+                frame = new LinkedHashMap<>();
+                frame.put("t", "d");
+                frame.put("s", ++state.seq);
+                frame.put("u", updates);
+            }
+            try {
+                frameSender.sendToUser(entry.getKey(), DELTA_QUEUE, frameSender.encode(frame));
+                deltaFrames.incrementAndGet();
+            } catch (Exception e) {
+                System.err.println("Failed to send device deltas to " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("subscribers", subscribers.size());
+        stats.put("deltaFrames", deltaFrames.get());
+        stats.put("snapshots", snapshots.get());
+        stats.put("fieldsSent", fieldsSent.get());
+        stats.put("fieldsSuppressed", fieldsSuppressed.get());
+        return stats;
+    }
+
+    private static Double round(Double value, double scale) {
+        return value != null ? Math.round(value * scale) / scale : null;
+    }
+
+    private class SubscriberState {
+        final Map<String, Integer> handles = new HashMap<>();
+        final Map<Integer, Map<String, Object>> sent = new HashMap<>();
+        final Map<Integer, Map<String, Object>> pending = new LinkedHashMap<>();
+        final Map<Integer, String> deviceIds = new HashMap<>();
+        long seq;
+        long touched = System.currentTimeMillis();
+
+        int handle(String deviceId) {
+            return handles.computeIfAbsent(deviceId, id -> {
+                int handle = handles.size() + 1;
+                deviceIds.put(handle, id);
+                return handle;
+            });
+        }
+
+        /**
+         * Changed fields for one device, or null if nothing changed. The first delta for a handle
+         * carries every field and the device id, so sessions that missed the snapshot learn it.
+         */
+        Map<String, Object> diff(int handle, Map<String, Object> current) {
+            Map<String, Object> last = sent.get(handle);
+            Map<String, Object> update = new LinkedHashMap<>();
+            update.put("h", handle);
+            if (last == null) {
+                update.put("id", deviceIds.get(handle));
+                update.putAll(current);
+                sent.put(handle, new HashMap<>(current));
+                fieldsSent.addAndGet(current.size());
+                return update;
+            }
+            for (Map.Entry<String, Object> field : current.entrySet()) {
+                if (Objects.equals(last.get(field.getKey()), field.getValue()) && last.containsKey(field.getKey())) {
+                    fieldsSuppressed.incrementAndGet();
+                } else {
+                    update.put(field.getKey(), field.getValue());
+                    last.put(field.getKey(), field.getValue());
+                    fieldsSent.incrementAndGet();
+                }
+            }
+            return update.size() > 1 ? update : null;
+        }
+    }
+}
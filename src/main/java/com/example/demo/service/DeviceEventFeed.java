@@ -0,0 +1,331 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events feed of device updates for clients without STOMP (kiosks, wallboards, curl).
+ * Every user with a feed has a ring buffer of recent events with increasing ids. Each connection
+ * is only a cursor into that buffer: publishing appends and schedules a drain on a small shared
+ * sender pool, and a reconnect with Last-Event-ID just starts its cursor at that id, so missed
+ * events are replayed by the same code that sends live ones. Connections are async requests and
+ * hold no thread between sends.
+ *
+ * Event ids are "{epoch}-{sequence}". The epoch is new for every feed this node creates, so an id
+ * from another node, from before a restart or from an expired feed never matches and gets a resync
+ * instead of a replay of unrelated events.
+ */
+@Service
+public class DeviceEventFeed {
+
+    // Events written per turn before the connection yields its sender thread to others
+    private static final int MAX_EVENTS_PER_DRAIN = 64;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.sse.replay-buffer-size:256}")
+    private int replayBufferSize;
+
+    @Value("${app.sse.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${app.sse.heartbeat-seconds:20}")
+    private int heartbeatSeconds;
+
+    @Value("${app.sse.sender-threads:2}")
+    private int senderThreads;
+
+    @Value("${app.sse.feed-retention-minutes:10}")
+    private int feedRetentionMinutes;
+
+    // user -> ring buffer and live connections
+    private final Map<String, UserFeed> feeds = new ConcurrentHashMap<>();
+
+    // Feed epochs: unique to this node's run, then numbered per feed
+    private final String nodeEpoch = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong feedNumber = new AtomicLong();
+
+    private ScheduledExecutorService senders;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        senders = Executors.newScheduledThreadPool(Math.max(1, senderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "sse-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        senders.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        System.out.println("✅ SSE device feed started (replay buffer " + replayBufferSize + " events per user)");
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdownNow();
+        for (UserFeed feed : feeds.values()) {
+            for (Connection connection : feed.connections) {
+                connection.emitter.complete();
+            }
+        }
+    }
+
+    /**
+     * Open a feed connection. With a Last-Event-ID the events after it are replayed from the buffer;
+     * without one the client gets the snapshot (if given) and then live events.
+     */
+    public SseEmitter connect(String userEmail, String lastEventId, Object snapshot) throws Exception {
+        UserFeed feed = feeds.computeIfAbsent(userEmail,
+                u -> new UserFeed(nodeEpoch + "." + Long.toString(feedNumber.incrementAndGet(), 36), replayBufferSize));
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Connection connection;
+        synchronized (feed) {
+            long cursor = lastEventId != null ? feed.sequenceOf(lastEventId) : feed.lastId;
+            if (cursor > feed.lastId) {
+                cursor = -1; // Id from another feed epoch, or unreadable - forces a resync
+            }
+            connection = new Connection(emitter, cursor, feed.lastId);
+            if (lastEventId == null && snapshot != null) {
+                // Sent before the handler returns; Spring buffers it until the response is ready
+                emitter.send(SseEmitter.event().id(feed.eventId(cursor)).name("snapshot")
+                        .data(objectMapper.writeValueAsString(snapshot)));
+            }
+            feed.connections.add(connection);
+            feed.touched = System.currentTimeMillis();
+        }
+        emitter.onCompletion(() -> feed.connections.remove(connection));
+        emitter.onTimeout(() -> feed.connections.remove(connection));
+        emitter.onError(e -> feed.connections.remove(connection));
+
+        if (lastEventId != null) {
+            scheduleDrain(feed, connection);
+        }
+        return emitter;
+    }
+
+    /**
+     * True if the user has a feed, i.e. is connected or was recently; only those users get events buffered
+     */
+    public boolean hasFeed(String userEmail) {
+        return userEmail != null && feeds.containsKey(userEmail);
+    }
+
+    /**
+     * Append an event to each user's buffer and push it to their connections. The payload is encoded once.
+     */
+    public void publish(Collection<String> userEmails, String eventName, Object payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            System.err.println("Failed to encode SSE event " + eventName + ": " + e.getMessage());
+            return;
+        }
+        for (String userEmail : userEmails) {
+            UserFeed feed = feeds.get(userEmail);
+            if (feed == null) {
+                continue;
+            }
+            synchronized (feed) {
+                feed.append(eventName, json);
+            }
+            published.incrementAndGet();
+            for (Connection connection : feed.connections) {
+                scheduleDrain(feed, connection);
+            }
+        }
+    }
+
+    private void scheduleDrain(UserFeed feed, Connection connection) {
+        if (connection.draining.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> drain(feed, connection));
+            } catch (RejectedExecutionException e) {
+                connection.draining.set(false); // Shutting down
+            }
+        }
+    }
+
+    private void drain(UserFeed feed, Connection connection) {
+        try {
+            List<Event> events;
+            boolean overrun;
+            synchronized (feed) {
+                overrun = connection.cursor < feed.oldestId() - 1;
+                if (overrun) {
+                    // Older than the buffer - the client has to reload instead of replaying
+                    events = List.of();
+                    connection.cursor = feed.lastId;
+                } else {
+                    events = feed.after(connection.cursor, MAX_EVENTS_PER_DRAIN);
+                }
+            }
+            if (overrun) {
+                resyncs.incrementAndGet();
+                connection.emitter.send(SseEmitter.event().id(feed.eventId(connection.cursor)).name("resync")
+                        .data("{\"reason\":\"replay buffer overrun\"}"));
+            }
+            for (Event event : events) {
+                connection.emitter.send(SseEmitter.event().id(feed.eventId(event.id)).name(event.name).data(event.json));
+                if (event.id <= connection.replayUntil) {
+                    replayed.incrementAndGet();
+                }
+                connection.cursor = event.id;
+                sent.incrementAndGet();
+            }
+        } catch (Exception e) {
+            // Client went away; the emitter callbacks drop the connection
+            feed.connections.remove(connection);
+            connection.emitter.completeWithError(e);
+        } finally {
+            connection.draining.set(false);
+            boolean behind;
+            synchronized (feed) {
+                behind = connection.cursor < feed.lastId;
+            }
+            if (behind && feed.connections.contains(connection)) {
+                scheduleDrain(feed, connection);
+            }
+        }
+    }
+
+    /**
+     * Keep idle connections open through proxies and drop feeds nobody has used for a while
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, UserFeed> entry : feeds.entrySet()) {
+            UserFeed feed = entry.getValue();
+            for (Connection connection : feed.connections) {
+                try {
+                    connection.emitter.send(SseEmitter.event().comment("keepalive"));
+                } catch (Exception e) {
+                    feed.connections.remove(connection);
+                    connection.emitter.completeWithError(e);
+                }
+            }
+            synchronized (feed) {
+                if (!feed.connections.isEmpty()) {
+                    feed.touched = now;
+                } else if (now - feed.touched > feedRetentionMinutes * 60_000L) {
+                    feeds.remove(entry.getKey(), feed);
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int connections = 0;
+        for (UserFeed feed : feeds.values()) {
+            connections += feed.connections.size();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("feeds", feeds.size());
+        stats.put("connections", connections);
+        stats.put("published", published.get());
+        stats.put("sent", sent.get());
+        stats.put("replayed", replayed.get());
+        stats.put("resyncs", resyncs.get());
+        return stats;
+    }
+
+    private static class UserFeed {
+        final String epoch;
+        final Event[] ring;
+        final List<Connection> connections = new CopyOnWriteArrayList<>();
+        long lastId;
+        long touched = System.currentTimeMillis();
+
+        UserFeed(String epoch, int capacity) {
+            this.epoch = epoch;
+            this.ring = new Event[Math.max(1, capacity)];
+        }
+
+        String eventId(long sequence) {
+            return epoch + "-" + sequence;
+        }
+
+        /**
+         * Sequence number of an event id from this feed, or Long.MAX_VALUE for any other id
+         */
+        long sequenceOf(String eventId) {
+            int dash = eventId.lastIndexOf('-');
+            if (dash <= 0 || !epoch.equals(eventId.substring(0, dash))) {
+                return Long.MAX_VALUE;
+            }
+            try {
+                return Long.parseLong(eventId.substring(dash + 1));
+            } catch (NumberFormatException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        void append(String name, String json) {
+            lastId++;
+            ring[(int) (lastId % ring.length)] = new Event(lastId, name, json);
+        }
+
+        long oldestId() {
+            return Math.max(1, lastId - ring.length + 1);
+        }
+
+        List<Event> after(long cursor, int limit) {
+            List<Event> events = new ArrayList<>();
+            for (long id = Math.max(cursor + 1, oldestId()); id <= lastId && events.size() < limit; id++) {
+                events.add(ring[(int) (id % ring.length)]);
+            }
+            return events;
+        }
+    }
+
+    private static class Connection {
+        final SseEmitter emitter;
+        final AtomicBoolean draining = new AtomicBoolean();
+        final long replayUntil;
+        volatile long cursor;
+
+        Connection(SseEmitter emitter, long cursor, long replayUntil) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+            this.replayUntil = replayUntil;
+        }
+    }
+
+    private static class Event {
+        final long id;
+        final String name;
+        final String json;
+
+        Event(long id, String name, String json) {
+            this.id = id;
+            this.name = name;
+            this.json = json;
+        }
+    }
+}
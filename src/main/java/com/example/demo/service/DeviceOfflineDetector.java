@@ -0,0 +1,138 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Deadline-driven offline detection.
+ * Every online device holds one deadline on a timing wheel that is re-armed on each heartbeat,
+ * so finding silent devices costs O(1) per heartbeat instead of a scan over the whole fleet.
+ */
+@Service
+public class DeviceOfflineDetector {
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Value("${app.monitoring.offline-timeout-seconds:120}")
+    private long offlineTimeoutSeconds;
+
+    // 1 second ticks, 512 slots - one rotation covers more than the offline timeout
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(1000, 512);
+
+    /**
+     * Rebuild deadlines from last_seen so devices that went silent while we were down still go offline
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildFromLastSeen() {
+        try {
+            List<Object[]> rows = deviceRepository.findOnlineDeviceLastSeen();
+            for (Object[] row : rows) {
+                String deviceId = (String) row[0];
+                LocalDateTime lastSeen = (LocalDateTime) row[1];
+                recordHeartbeat(deviceId, lastSeen != null ? lastSeen : LocalDateTime.now());
+            }
+            System.out.println("⏱️ Offline detector armed for " + rows.size() + " online devices");
+        } catch (Exception e) {
+            System.err.println("Failed to rebuild offline detector state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-arm the offline deadline for a device that was just heard from
+     */
+    public void recordHeartbeat(String deviceId) {
+        recordHeartbeat(deviceId, LocalDateTime.now());
+    }
+
+    public void recordHeartbeat(String deviceId, LocalDateTime lastSeen) {
+        if (deviceId == null) {
+            return;
+        }
+        long lastSeenMillis = lastSeen.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        wheel.schedule(deviceId, lastSeenMillis + offlineTimeoutSeconds * 1000);
+    }
+
+    /**
+     * Keep the deadline in step with the device's persisted online flag
+     */
+    public void track(Device device) {
+        if (device == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(device.getIsOnline())) {
+            recordHeartbeat(device.getDeviceId(), device.getLastSeen() != null ? device.getLastSeen() : LocalDateTime.now());
+        } else {
+            forget(device.getDeviceId());
+        }
+    }
+
+    /**
+     * Stop watching a device (went offline explicitly or was deleted)
+     */
+    public void forget(String deviceId) {
+        if (deviceId != null) {
+            wheel.cancel(deviceId);
+        }
+    }
+
+    /**
+     * Fire expired deadlines. Only the wheel buckets for elapsed ticks are visited.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void expireDeadlines() {
+        List<String> expired = wheel.advance(System.currentTimeMillis());
+        for (String deviceId : expired) {
+            markOffline(deviceId);
+        }
+    }
+
+    private void markOffline(String deviceId) {
+        try {
+            Device device = deviceRepository.findByDeviceId(deviceId).orElse(null);
+            if (device == null || !Boolean.TRUE.equals(device.getIsOnline())) {
+                return;
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime lastSeen = device.getLastSeen();
+            if (lastSeen != null && lastSeen.isAfter(now.minusSeconds(offlineTimeoutSeconds))) {
+                // Heard from through a path that did not re-arm the deadline
+                recordHeartbeat(deviceId, lastSeen);
+                return;
+            }
+
+            long minutesOffline = lastSeen != null ? Duration.between(lastSeen, now).toMinutes() : 0;
+            device.setIsOnline(false);
+            device.setOfflineReason("No communication for " + minutesOffline + " minutes");
+            deviceRepository.save(device);
+
+            notificationService.sendDeviceOfflineNotification(device);
+            System.out.println("🔴 Device went offline: " + deviceId);
+
+        } catch (Exception e) {
+            System.err.println("Error marking device offline: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Number of devices currently holding an offline deadline
+     */
+    public int getArmedDeviceCount() {
+        return wheel.size();
+    }
+}
@@ -20,7 +20,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 @Service
 @Transactional
@@ -43,6 +42,12 @@ public class DeviceService {
     @Autowired
     private PerfectAuthService authService;
     
+    @Autowired
+    private DeviceOfflineDetector offlineDetector;
+    
+    @Autowired
+    private DeviceCounterService deviceCounterService;
+    
 
     
     public DeviceService(DeviceRepository deviceRepository, UserRepository userRepository, LocationHistoryRepository locationHistoryRepository, DeviceEventRepository deviceEventRepository) {
@@ -63,6 +68,7 @@ public class DeviceService {
         device.setLastSeen(LocalDateTime.now());
         
         Device saved = deviceRepository.save(device);
+        offlineDetector.track(saved);
         deviceEventRepository.save(new DeviceEvent(saved, "DEVICE_REGISTERED", "Device registered to " + user.getEmail()));
         System.out.println("✅ Device registered: " + deviceId + " for " + user.getEmail());
         return saved;
@@ -96,6 +102,7 @@ public class DeviceService {
             device.setLastSeen(LocalDateTime.now());
             device.setIsOnline(true);
             deviceRepository.save(device);
+            offlineDetector.recordHeartbeat(deviceId);
             locationHistoryRepository.save(new LocationHistory(device, latitude, longitude, address));
             System.out.println("📍 Location updated for " + deviceId);
         }
@@ -117,6 +124,7 @@ public class DeviceService {
             device.setIsOnline(true);
             device.setLastSeen(LocalDateTime.now());
             deviceRepository.save(device);
+            offlineDetector.recordHeartbeat(deviceId);
             System.out.println("📊 Status updated for " + deviceId);
         }
     }
@@ -243,7 +251,7 @@ public class DeviceService {
         System.out.println("💣 Device wiped: " + deviceId + " by user: " + userEmail);
     }
 
-    public List<Device> getCurrentUserDevices() {
+    private String getCurrentUserEmail() {
         // Try to get user from Vaadin session first (works with @AnonymousAllowed)
         String userEmail = null;
         if (authService != null) {
@@ -258,7 +266,11 @@ public class DeviceService {
                 userEmail = authentication.getName();
             }
         }
-        
+        return userEmail;
+    }
+    
+    public List<Device> getCurrentUserDevices() {
+        String userEmail = getCurrentUserEmail();
         if (userEmail == null) {
             System.out.println("DEBUG: No authenticated user found, returning empty list");
             return Collections.emptyList();
@@ -272,21 +284,18 @@ public class DeviceService {
     
     // SECURITY FIXED: User-specific device filtering methods
     public List<Device> getCurrentUserOnlineDevices() {
-        return getCurrentUserDevices().stream()
-            .filter(device -> device.getIsOnline() != null && device.getIsOnline())
-            .collect(Collectors.toList());
+        String userEmail = getCurrentUserEmail();
+        return userEmail != null ? deviceRepository.findByUserEmailAndOnlineStatus(userEmail, true) : Collections.emptyList();
     }
     
     public List<Device> getCurrentUserOfflineDevices() {
-        return getCurrentUserDevices().stream()
-            .filter(device -> device.getIsOnline() == null || !device.getIsOnline())
-            .collect(Collectors.toList());
+        String userEmail = getCurrentUserEmail();
+        return userEmail != null ? deviceRepository.findOfflineByUserEmail(userEmail) : Collections.emptyList();
     }
     
     public List<Device> getCurrentUserStolenDevices() {
-        return getCurrentUserDevices().stream()
-            .filter(device -> device.getTheftDetected() != null && device.getTheftDetected())
-            .collect(Collectors.toList());
+        String userEmail = getCurrentUserEmail();
+        return userEmail != null ? deviceRepository.findStolenByUserEmail(userEmail) : Collections.emptyList();
     }
     
     public void updateSystemInfo(String deviceId, String osName, String osVersion, 
@@ -306,39 +315,34 @@ public class DeviceService {
         }
     }
     
-    // SECURITY FIXED: User-specific statistics methods
+    // SECURITY FIXED: User-specific statistics methods (served from the materialized counters)
     public long getCurrentUserDevicesCount() {
-        return getCurrentUserDevices().size();
+        return getCurrentUserDeviceStats().getTotal();
     }
     
     public long getCurrentUserOnlineDevicesCount() {
-        return getCurrentUserOnlineDevices().size();
+        return getCurrentUserDeviceStats().getOnline();
     }
     
     public long getCurrentUserStolenDevicesCount() {
-        return getCurrentUserStolenDevices().size();
+        return getCurrentUserDeviceStats().getStolen();
     }
     
     public long getUserDevicesCount(String ownerEmail) {
-        return deviceRepository.countByUserEmail(ownerEmail);
+        return deviceCounterService.getStats(ownerEmail).getTotal();
     }
     
     public long getUserOnlineDevicesCount(String ownerEmail) {
-        return deviceRepository.countOnlineByUserEmail(ownerEmail);
+        return deviceCounterService.getStats(ownerEmail).getOnline();
     }
     
     public long getUserStolenDevicesCount(String ownerEmail) {
-        return deviceRepository.countStolenByUserEmail(ownerEmail);
+        return deviceCounterService.getStats(ownerEmail).getStolen();
     }
     
     // SECURITY FIXED: Return current user's device statistics only
     public DeviceStats getCurrentUserDeviceStats() {
-        long total = getCurrentUserDevicesCount();
-        long online = getCurrentUserOnlineDevicesCount();
-        long stolen = getCurrentUserStolenDevicesCount();
-        long offline = total - online;
-        
-        return new DeviceStats(total, online, offline, stolen);
+        return deviceCounterService.getStats(getCurrentUserEmail());
     }
 
     // Additional methods needed by controllers
@@ -352,7 +356,9 @@ public class DeviceService {
     
     public Device saveDevice(Device device) {
         device.setLastSeen(LocalDateTime.now());
-        return deviceRepository.save(device);
+        Device saved = deviceRepository.save(device);
+        offlineDetector.track(saved);
+        return saved;
     }
     
     public Device registerOrUpdateDevice(String deviceId, java.util.Map<String, Object> deviceData) {
@@ -362,7 +368,9 @@ public class DeviceService {
         if (existingDevice.isPresent()) {
             Device device = existingDevice.get();
             updateDeviceFromMap(device, deviceData);
-            return deviceRepository.save(device);
+            Device saved = deviceRepository.save(device);
+            offlineDetector.recordHeartbeat(deviceId);
+            return saved;
         } else {
             throw new RuntimeException("Device not found. Registration should be done through the /register endpoint.");
         }
@@ -374,14 +382,18 @@ public class DeviceService {
         if (deviceOpt.isPresent()) {
             Device device = deviceOpt.get();
             updateDeviceFromMap(device, deviceData);
-            return deviceRepository.save(device);
+            Device saved = deviceRepository.save(device);
+            offlineDetector.recordHeartbeat(deviceId);
+            return saved;
         }
         return null;
     }
     
     // Overloaded method for direct device update
     public Device updateDevice(Device device) {
-        return deviceRepository.save(device);
+        Device saved = deviceRepository.save(device);
+        offlineDetector.track(saved);
+        return saved;
     }
     
     private void updateDeviceFromMap(Device device, java.util.Map<String, Object> data) {
@@ -549,12 +561,7 @@ public class DeviceService {
     }
     
     public DeviceStats getStats(String ownerEmail) {
-        long total = getUserDevicesCount(ownerEmail);
-        long online = getUserOnlineDevicesCount(ownerEmail);
-        long stolen = getUserStolenDevicesCount(ownerEmail);
-        long offline = total - online;
-        
-        return new DeviceStats(total, online, offline, stolen);
+        return deviceCounterService.getStats(ownerEmail);
     }
     
     /**
@@ -648,6 +655,8 @@ public class DeviceService {
      * Delete device by ID
      */
     public void deleteDevice(Long id) {
+        // Drop its offline deadline so the detector does not fire for a device that is gone
+        deviceRepository.findById(id).ifPresent(device -> offlineDetector.forget(device.getDeviceId()));
         deviceRepository.deleteById(id);
         System.out.println("🗑️ Device deleted: " + id);
     }
@@ -5,24 +5,54 @@ import com.example.demo.model.DeviceShare;
 import com.example.demo.model.User;
 import com.example.demo.repository.DeviceShareRepository;
 import com.example.demo.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 @Transactional
 public class DeviceShareService {
     
+    public static final String SHARES_CHANGED_EVENT = "device-shares-changed";
+    
     @Autowired
     private DeviceShareRepository deviceShareRepository;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+    
+    // Share recipients per device for live update fan-out; dropped on every node whenever shares change
+    private final Cache<String, List<String>> recipientsByDevice = Caffeine.newBuilder()
+            .maximumSize(50_000)
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+    
+    @PostConstruct
+    public void start() {
+        clusterEventBus.subscribe(SHARES_CHANGED_EVENT, event -> {
+            String deviceId = event.path("deviceId").asText(null);
+            if (deviceId != null) {
+                recipientsByDevice.invalidate(deviceId);
+            } else {
+                recipientsByDevice.invalidateAll();
+            }
+        });
+    }
+    
     /**
      * Share a device with another user by email
      */
@@ -47,12 +77,14 @@ public class DeviceShareService {
             share.setSharedMessage(message);
             share.setExpiresAt(expiresAt);
             share.setIsActive(true);
+            recipientsChanged(device.getDeviceId());
             return deviceShareRepository.save(share);
         } else {
             // Create new share
             DeviceShare newShare = new DeviceShare(device, owner, shareWithUser.get(), permissionLevel);
             newShare.setSharedMessage(message);
             newShare.setExpiresAt(expiresAt);
+            recipientsChanged(device.getDeviceId());
             return deviceShareRepository.save(newShare);
         }
     }
@@ -142,6 +174,7 @@ public class DeviceShareService {
         
         share.setIsActive(false);
         deviceShareRepository.save(share);
+        recipientsChanged(share.getDevice().getDeviceId());
     }
     
     /**
@@ -154,6 +187,16 @@ public class DeviceShareService {
             share.setIsActive(false);
         }
         deviceShareRepository.saveAll(expiredShares);
+        if (!expiredShares.isEmpty()) {
+            recipientsChanged(null);
+        }
+    }
+    
+    /**
+     * Emails of the users a device is currently shared with (cached briefly)
+     */
+    public List<String> getShareRecipientEmails(String deviceId) {
+        return recipientsByDevice.get(deviceId, deviceShareRepository::findActiveRecipientEmails);
     }
     
     /**
@@ -169,4 +212,22 @@ public class DeviceShareService {
     public List<DeviceShare> getSharesForDevice(Device device) {
         return deviceShareRepository.findSharesByDevice(device);
     }
+    
+    /**
+     * Drop cached recipients on every node once the share change commits (null drops all devices)
+     */
+    private void recipientsChanged(String deviceId) {
+        Runnable publish = () -> clusterEventBus.publish(SHARES_CHANGED_EVENT,
+                deviceId != null ? Map.of("deviceId", deviceId) : Map.of());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish.run();
+                }
+            });
+        } else {
+            publish.run();
+        }
+    }
 }
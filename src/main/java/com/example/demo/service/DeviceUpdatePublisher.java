@@ -0,0 +1,194 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Live device updates for dashboards.
+ * Each update goes to /user/queue/devices of the device owner and of the users it is shared with,
+ * and only to those who currently have that queue subscribed - nobody else receives or pays
+ * for updates about devices they cannot see. Updates are coalesced per subscriber and sent
+ * as batched frames on a fixed tick. Subscribers of /user/queue/device-deltas get the same
+ * changes as field-level deltas instead, users with an SSE feed get them as events, and open
+ * map views get them through Vaadin push.
+ *
+ * Updates travel over the cluster event bus, so every node fans them out to its own subscribers
+ * no matter which node the agent reported to.
+ */
+@Service
+public class DeviceUpdatePublisher {
+
+    public static final String DEVICE_QUEUE = "/queue/devices";
+    private static final String SUBSCRIBED_DESTINATION = "/user" + DEVICE_QUEUE;
+    private static final String SUBSCRIBED_DELTA_DESTINATION = "/user" + DeviceDeltaStream.DELTA_QUEUE;
+
+    private static final String UPDATE_EVENT = "device-update";
+    private static final String DELTA_EVENT = "device-delta";
+
+    @Autowired
+    private StompSubscriptionRegistry subscriptionRegistry;
+
+    @Autowired
+    private DeviceShareService deviceShareService;
+
+    @Autowired
+    private LiveUpdateCoalescer liveUpdateCoalescer;
+
+    @Autowired
+    private DeviceDeltaStream deviceDeltaStream;
+
+    @Autowired
+    private DeviceEventFeed deviceEventFeed;
+
+    @Autowired
+    private LiveMapBroadcaster liveMapBroadcaster;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void subscribeToCluster() {
+        clusterEventBus.subscribe(UPDATE_EVENT, event -> deliverUpdate(
+                event.path("deviceId").asText(), event.path("ownerEmail").asText(), event.path("update")));
+        clusterEventBus.subscribe(DELTA_EVENT, event -> deliverDelta(
+                event.path("deviceId").asText(), event.path("ownerEmail").asText(),
+                objectMapper.convertValue(event.path("fields"), Map.class)));
+    }
+
+    /**
+     * Send a device update to its owner and share recipients, both as the full update and as
+     * field deltas. Queued after the caller's transaction commits.
+     */
+    public void publish(Device device, Object update) {
+        publish(device.getDeviceId(), device.getUserEmail(), update);
+        publishDelta(device, null);
+    }
+
+    /**
+     * Send a device update to its owner and share recipients. Queued after the caller's transaction commits.
+     */
+    public void publish(String deviceId, String ownerEmail, Object update) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("deviceId", deviceId);
+        event.put("ownerEmail", ownerEmail);
+        event.put("update", update);
+        afterCommit(() -> clusterEventBus.publish(UPDATE_EVENT, event));
+    }
+
+    /**
+     * Send only the changed fields of a device to delta subscribers and open map views.
+     * Queued after the caller's transaction commits.
+     */
+    public void publishDelta(Device device, Double healthScore) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("deviceId", device.getDeviceId());
+        event.put("ownerEmail", device.getUserEmail());
+        // Read the entity now; it may be detached or changed again once the transaction is over
+        event.put("fields", DeviceDeltaStream.fields(device, healthScore));
+        afterCommit(() -> clusterEventBus.publish(DELTA_EVENT, event));
+    }
+
+    /**
+     * Fan an update out to this node's subscribers and SSE feeds
+     */
+    private void deliverUpdate(String deviceId, String ownerEmail, JsonNode update) {
+        List<String> feedRecipients = recipients(deviceId, ownerEmail, deviceEventFeed::hasFeed);
+        if (!feedRecipients.isEmpty()) {
+            deviceEventFeed.publish(feedRecipients, "device-update", update);
+        }
+
+        List<String> recipients = subscribers(deviceId, ownerEmail, SUBSCRIBED_DESTINATION);
+        if (recipients.isEmpty()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        // Only the latest value matters, so these skip the outbox
+        for (String email : recipients) {
+            liveUpdateCoalescer.offer(email, DEVICE_QUEUE, deviceId, update);
+        }
+        published.addAndGet(recipients.size());
+    }
+
+    /**
+     * Fan changed fields out to this node's delta subscribers and open maps
+     */
+    private void deliverDelta(String deviceId, String ownerEmail, Map<String, Object> fields) {
+        for (String email : subscribers(deviceId, ownerEmail, SUBSCRIBED_DELTA_DESTINATION)) {
+            deviceDeltaStream.offer(email, deviceId, fields);
+        }
+        for (String email : recipients(deviceId, ownerEmail, liveMapBroadcaster::hasListener)) {
+            liveMapBroadcaster.offer(email, deviceId, fields);
+        }
+    }
+
+    /**
+     * Owner and share recipients with a live subscription to the destination
+     */
+    private List<String> subscribers(String deviceId, String ownerEmail, String subscribedDestination) {
+        if (!subscriptionRegistry.hasAnySubscriber(subscribedDestination)) {
+            return new ArrayList<>();
+        }
+        return recipients(deviceId, ownerEmail, email -> subscriptionRegistry.hasSubscriber(email, subscribedDestination));
+    }
+
+    /**
+     * Owner and share recipients that are listening
+     */
+    private List<String> recipients(String deviceId, String ownerEmail, Predicate<String> listening) {
+        List<String> recipients = new ArrayList<>();
+        if (listening.test(ownerEmail)) {
+            recipients.add(ownerEmail);
+        }
+        for (String email : deviceShareService.getShareRecipientEmails(deviceId)) {
+            if (!email.equals(ownerEmail) && listening.test(email)) {
+                recipients.add(email);
+            }
+        }
+        return recipients;
+    }
+
+    private void afterCommit(Runnable enqueue) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue.run();
+                }
+            });
+        } else {
+            enqueue.run();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("published", published.get());
+        stats.put("skippedNoSubscriber", skipped.get());
+        stats.put("subscriptions", subscriptionRegistry.getStats());
+        stats.put("coalescer", liveUpdateCoalescer.getStats());
+        stats.put("deltas", deviceDeltaStream.getStats());
+        stats.put("sse", deviceEventFeed.getStats());
+        stats.put("mapPush", liveMapBroadcaster.getStats());
+        return stats;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.demo.service;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationData;
 import com.example.demo.repository.DeviceRepository;
@@ -397,7 +398,7 @@ public class EnhancedLocationService {
         LocationData latest = locations.get(locations.size() - 1);
         LocationData previous = locations.get(locations.size() - 2);
         
-        double distance = calculateDistance(
+        double distance = GeoKernel.haversineMeters(
             previous.getLatitude(), previous.getLongitude(),
             latest.getLatitude(), latest.getLongitude()
         );
@@ -465,7 +466,7 @@ public class EnhancedLocationService {
             .orElse(null);
         
         if (tenMinutesAgo != null) {
-            double distance = calculateDistance(
+            double distance = GeoKernel.haversineMeters(
                 tenMinutesAgo.getLatitude(), tenMinutesAgo.getLongitude(),
                 latest.getLatitude(), latest.getLongitude()
             );
@@ -565,22 +566,6 @@ public class EnhancedLocationService {
         }
     }
     
-    /**
-     * 📏 HAVERSINE DISTANCE CALCULATION
-     */
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371000; // Earth's radius in meters
-        
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return R * c;
-    }
-    
     /**
      * 📊 GET RECENT LOCATION HISTORY
      */
@@ -2,30 +2,48 @@ package com.example.demo.service;
 
 import com.example.demo.model.Device;
 import com.example.demo.model.Geofence;
-import com.example.demo.repository.GeofenceRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class GeofenceCheckingService {
 
     @Autowired
-    private GeofenceRepository geofenceRepository;
+    private GeofenceIndexService geofenceIndexService;
 
     @Autowired
-    private NotificationService notificationService;
+    private OutboxService outboxService;
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private DeviceShareService deviceShareService;
 
-    // Track which geofences each device was inside (for detecting entry/exit)
-    private final Map<String, Map<Long, Boolean>> deviceGeofenceStatus = new ConcurrentHashMap<>();
+    // Which geofences each device was inside (for detecting entry/exit), persisted across restarts
+    @Autowired
+    private GeofenceMembershipStore membershipStore;
+
+    @Value("${app.geofence.default-dwell-seconds:30}")
+    private int defaultDwellSeconds;
+
+    @Value("${app.geofence.default-hysteresis-meters:25}")
+    private double defaultHysteresisMeters;
+
+    // Share of the reported accuracy radius a fix must clear the boundary by
+    @Value("${app.geofence.accuracy-weight:0.5}")
+    private double accuracyWeight;
+
+    // Transitions waiting out their dwell time: device -> fence -> first seen (ms); lost on restart
+    private final Map<String, Map<Long, Long>> pendingTransitions = new ConcurrentHashMap<>();
 
     /**
      * Check device location against all user's active geofences
@@ -35,40 +53,145 @@ public class GeofenceCheckingService {
         if (device.getLatitude() == null || device.getLongitude() == null) {
             return;
         }
+        checkLocation(new DeviceLocation(device.getDeviceId(), device.getDeviceName(), device.getUser().getEmail(),
+                device.getLatitude(), device.getLongitude(), device.getAccuracy()));
+    }
 
+    /**
+     * Check a reported location. Works on plain values so it can run off the request thread.
+     * A transition needs the fix to be clearly on the other side of the boundary - by its accuracy
+     * and, for exits, the fence's hysteresis band - on consecutive fixes spanning the dwell time,
+     * so GPS jitter at an edge does not produce a stream of alerts.
+     */
+    public void checkLocation(DeviceLocation device) {
         String deviceId = device.getDeviceId();
-        String username = device.getUser().getEmail();
+        String username = device.getUserEmail();
+        double latitude = device.getLatitude();
+        double longitude = device.getLongitude();
+        long now = System.currentTimeMillis();
+
+        // Only fences whose bounding box holds the point get an exact test
+        List<Geofence> insideNow = geofenceIndexService.findContaining(username, latitude, longitude);
+
+        // Resolve the fences the device is in before taking the store's per-device lock
+        Map<Long, Geofence> fences = new HashMap<>();
+        for (long fenceId : membershipStore.get(deviceId)) {
+            fences.put(fenceId, geofenceIndexService.getActiveFence(username, fenceId));
+        }
 
-        // Get all active geofences for user
-        List<Geofence> activeGeofences = geofenceRepository.findByUserIdAndIsActiveTrue(username);
+        Map<Long, Long> pendingBefore = pendingTransitions.getOrDefault(deviceId, Map.of());
+        Map<Long, Long> pendingAfter = new HashMap<>();
+        List<FenceTransition> transitions = new ArrayList<>();
+
+        // Read-modify-write under the store's per-device lock, so a concurrent fleet re-evaluation
+        // (setInside) is neither overwritten nor reported a second time
+        membershipStore.compute(deviceId, previous -> {
+            pendingAfter.clear();
+            transitions.clear();
+            long[] current = new long[previous.length + insideNow.size()];
+            int count = 0;
+
+            // Fences the device is in: it stays until clearly past the exit band for the dwell time
+            for (long fenceId : previous) {
+                Geofence geofence = fences.containsKey(fenceId)
+                        ? fences.get(fenceId)
+                        : geofenceIndexService.getActiveFence(username, fenceId); // Added meanwhile
+                if (geofence == null) {
+                    continue; // Deleted or deactivated fences just drop out
+                }
+                if (classify(geofence, latitude, longitude, device.getAccuracy()) == FenceSide.OUTSIDE
+                        && dwelled(geofence, pendingBefore, pendingAfter, now)) {
+                    transitions.add(new FenceTransition(device, geofence, false));
+                } else {
+                    current[count++] = fenceId;
+                }
+            }
 
-        // Initialize device status map if not exists
-        deviceGeofenceStatus.putIfAbsent(deviceId, new ConcurrentHashMap<>());
-        Map<Long, Boolean> previousStatus = deviceGeofenceStatus.get(deviceId);
+            // Fences the device is not in: it enters once clearly inside for the dwell time
+            for (Geofence geofence : insideNow) {
+                if (Arrays.binarySearch(previous, geofence.getId()) >= 0) {
+                    continue;
+                }
+                if (classify(geofence, latitude, longitude, device.getAccuracy()) == FenceSide.INSIDE
+                        && dwelled(geofence, pendingBefore, pendingAfter, now)) {
+                    transitions.add(new FenceTransition(device, geofence, true));
+                    current[count++] = geofence.getId();
+                }
+            }
 
-        for (Geofence geofence : activeGeofences) {
-            boolean isInsideNow = geofence.containsPoint(device.getLatitude(), device.getLongitude());
-            boolean wasInsideBefore = previousStatus.getOrDefault(geofence.getId(), false);
+            // Devices outside every fence are not kept at all
+            current = Arrays.copyOf(current, count);
+            Arrays.sort(current);
+            return current;
+        });
 
-            // Detect entry event
-            if (isInsideNow && !wasInsideBefore) {
-                handleGeofenceEntry(device, geofence);
-            }
+        if (pendingAfter.isEmpty()) {
+            pendingTransitions.remove(deviceId);
+        } else {
+            pendingTransitions.put(deviceId, pendingAfter);
+        }
 
-            // Detect exit event
-            if (!isInsideNow && wasInsideBefore) {
-                handleGeofenceExit(device, geofence);
+        // Alerts go out after the lock is released
+        for (FenceTransition transition : transitions) {
+            if (transition.isEntered()) {
+                handleGeofenceEntry(device, transition.getGeofence());
+            } else {
+                handleGeofenceExit(device, transition.getGeofence());
             }
+        }
+    }
+
+    /**
+     * Which side of a fence a fix is on once its accuracy and the fence's exit band are allowed for
+     */
+    public FenceSide classify(Geofence geofence, double latitude, double longitude, double accuracyMeters) {
+        double margin = accuracyMeters * accuracyWeight;
+        double band = geofence.getHysteresisMeters() != null ? geofence.getHysteresisMeters() : defaultHysteresisMeters;
+        // Only the distance inside the margin or the exit band matters; beyond that the side decides
+        double distance = geofence.boundaryDistanceMeters(latitude, longitude, Math.max(margin, band + margin));
+        if (distance + margin <= 0) {
+            return FenceSide.INSIDE;
+        }
+        if (distance - margin > band) {
+            return FenceSide.OUTSIDE;
+        }
+        return FenceSide.UNCERTAIN;
+    }
 
-            // Update status
-            previousStatus.put(geofence.getId(), isInsideNow);
+    // True once a transition has held on consecutive fixes for the fence's dwell time;
+    // until then the time it was first seen is carried to the next fix
+    private boolean dwelled(Geofence geofence, Map<Long, Long> pendingBefore, Map<Long, Long> pendingAfter, long now) {
+        int dwellSeconds = geofence.getDwellSeconds() != null ? geofence.getDwellSeconds() : defaultDwellSeconds;
+        if (dwellSeconds <= 0) {
+            return true;
+        }
+        long since = pendingBefore.getOrDefault(geofence.getId(), now);
+        if (now - since >= dwellSeconds * 1000L) {
+            return true;
+        }
+        pendingAfter.put(geofence.getId(), since);
+        return false;
+    }
+
+    /**
+     * Send alerts for transitions found by a bulk re-evaluation. Runs in one transaction
+     * so all outbox rows commit together and the dispatcher wakes once.
+     */
+    @Transactional
+    public void emitTransitions(List<FenceTransition> transitions) {
+        for (FenceTransition transition : transitions) {
+            if (transition.isEntered()) {
+                handleGeofenceEntry(transition.getDevice(), transition.getGeofence());
+            } else {
+                handleGeofenceExit(transition.getDevice(), transition.getGeofence());
+            }
         }
     }
 
     /**
      * Handle device entering a geofence
      */
-    private void handleGeofenceEntry(Device device, Geofence geofence) {
+    private void handleGeofenceEntry(DeviceLocation device, Geofence geofence) {
         if (geofence.getAlertOnEntry() == null || !geofence.getAlertOnEntry()) {
             return; // No alert configured
         }
@@ -86,7 +209,7 @@ public class GeofenceCheckingService {
     /**
      * Handle device exiting a geofence
      */
-    private void handleGeofenceExit(Device device, Geofence geofence) {
+    private void handleGeofenceExit(DeviceLocation device, Geofence geofence) {
         if (geofence.getAlertOnExit() == null || !geofence.getAlertOnExit()) {
             return; // No alert configured
         }
@@ -110,8 +233,8 @@ public class GeofenceCheckingService {
     /**
      * Send geofence alert notifications
      */
-    private void sendGeofenceAlert(Device device, Geofence geofence, String eventType, String message) {
-        String username = device.getUser().getEmail();
+    private void sendGeofenceAlert(DeviceLocation device, Geofence geofence, String eventType, String message) {
+        String username = device.getUserEmail();
 
         // Send WebSocket notification
         Map<String, Object> alertData = new HashMap<>();
@@ -128,9 +251,13 @@ public class GeofenceCheckingService {
                 "longitude", device.getLongitude()
         ));
 
-        messagingTemplate.convertAndSendToUser(username, "/queue/geofence-alerts", alertData);
+        // Both go through the outbox - delivered after the caller's transaction commits.
+        // The live alert also reaches users the device is shared with; the email only the owner.
+        Set<String> recipients = new LinkedHashSet<>();
+        recipients.add(username);
+        recipients.addAll(deviceShareService.getShareRecipientEmails(device.getDeviceId()));
+        outboxService.publishToUsers(device.getDeviceId(), recipients, "/queue/geofence-alerts", alertData);
 
-        // Send email notification if configured
         try {
             String emailSubject = String.format("Geofence Alert: %s - %s", geofence.getName(), eventType);
             String emailBody = String.format(
@@ -150,13 +277,9 @@ public class GeofenceCheckingService {
                     device.getLatitude(), device.getLongitude(), device.getDeviceId()
             );
 
-            notificationService.sendEmailNotification(
-                    device.getUser().getEmail(),
-                    emailSubject,
-                    emailBody
-            );
+            outboxService.email(device.getDeviceId(), username, emailSubject, emailBody);
         } catch (Exception e) {
-            System.err.println("Failed to send geofence email: " + e.getMessage());
+            System.err.println("Failed to queue geofence email: " + e.getMessage());
         }
     }
 
@@ -169,12 +292,11 @@ public class GeofenceCheckingService {
         }
 
         String username = device.getUser().getEmail();
-        List<Geofence> activeGeofences = geofenceRepository.findByUserIdAndIsActiveTrue(username);
-        List<Geofence> insideGeofences = geofenceRepository.findGeofencesContainingPoint(
+        List<Geofence> insideGeofences = geofenceIndexService.findContaining(
                 username, device.getLatitude(), device.getLongitude());
 
         return Map.of(
-                "totalActiveGeofences", activeGeofences.size(),
+                "totalActiveGeofences", geofenceIndexService.getActiveFences(username).size(),
                 "insideGeofences", insideGeofences.size(),
                 "geofences", insideGeofences,
                 "isInsideAny", !insideGeofences.isEmpty()
@@ -185,14 +307,73 @@ public class GeofenceCheckingService {
      * Clear status for a device (useful when device is removed)
      */
     public void clearDeviceStatus(String deviceId) {
-        deviceGeofenceStatus.remove(deviceId);
+        membershipStore.clear(deviceId);
+        pendingTransitions.remove(deviceId);
     }
 
     /**
      * Clear status for a geofence (useful when geofence is deleted)
      */
     public void clearGeofenceStatus(Long geofenceId) {
-        deviceGeofenceStatus.values().forEach(map -> map.remove(geofenceId));
+        if (geofenceId != null) {
+            membershipStore.clearFence(geofenceId);
+        }
     }
-}
 
+    /**
+     * Snapshot of a device position, detached from any persistence context
+     */
+    public static class DeviceLocation {
+        private final String deviceId;
+        private final String deviceName;
+        private final String userEmail;
+        private final double latitude;
+        private final double longitude;
+        private final double accuracy; // meters, 0 when unknown
+
+        public DeviceLocation(String deviceId, String deviceName, String userEmail, double latitude, double longitude,
+                              Double accuracy) {
+            this.deviceId = deviceId;
+            this.deviceName = deviceName;
+            this.userEmail = userEmail;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy != null && accuracy > 0 ? accuracy : 0;
+        }
+
+        public String getDeviceId() { return deviceId; }
+        public String getDeviceName() { return deviceName; }
+        public String getUserEmail() { return userEmail; }
+        public double getLatitude() { return latitude; }
+        public double getLongitude() { return longitude; }
+        public double getAccuracy() { return accuracy; }
+    }
+
+    /**
+     * Position of a fix relative to a fence boundary
+     */
+    public enum FenceSide {
+        INSIDE,
+        OUTSIDE,
+        UNCERTAIN // Within the accuracy margin or exit band - keep the current state
+    }
+
+    /**
+     * Entry into or exit from one geofence
+     */
+    public static class FenceTransition {
+        private final DeviceLocation device;
+        private final Geofence geofence;
+        private final boolean entered;
+
+        public FenceTransition(DeviceLocation device, Geofence geofence, boolean entered) {
+            this.device = device;
+            this.geofence = geofence;
+            this.entered = entered;
+        }
+
+        public DeviceLocation getDevice() { return device; }
+        public Geofence getGeofence() { return geofence; }
+        public boolean isEntered() { return entered; }
+    }
+}
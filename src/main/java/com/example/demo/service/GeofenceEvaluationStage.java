@@ -0,0 +1,159 @@
+package com.example.demo.service;
+
+import com.example.demo.repository.DeviceRepository;
+import com.example.demo.service.GeofenceCheckingService.DeviceLocation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous geofence stage fed by location ingestion.
+ * Locations are partitioned by device ID onto bounded queues, each drained by its own worker,
+ * so one device's updates are evaluated in order and the heartbeat never waits for geofencing.
+ */
+@Service
+public class GeofenceEvaluationStage {
+
+    @Autowired
+    private GeofenceCheckingService geofenceCheckingService;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Value("${app.geofence.partitions:4}")
+    private int partitionCount;
+
+    @Value("${app.geofence.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private List<BlockingQueue<DeviceLocation>> partitions;
+    private Thread[] workers;
+    private volatile boolean running;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        List<BlockingQueue<DeviceLocation>> queues = new ArrayList<>();
+        workers = new Thread[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            BlockingQueue<DeviceLocation> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            workers[i] = new Thread(() -> workerLoop(queue), "geofence-stage-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        partitions = queues;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Queue an accepted location with its owner already known
+     */
+    public void submit(String deviceId, String deviceName, String userEmail, Double latitude, Double longitude,
+                       Double accuracy) {
+        if (deviceId == null || latitude == null || longitude == null) {
+            return;
+        }
+        DeviceLocation location = new DeviceLocation(deviceId, deviceName, userEmail, latitude, longitude, accuracy);
+
+        // Evaluate committed state only; inside a transaction wait for the commit
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(location);
+                }
+            });
+        } else {
+            enqueue(location);
+        }
+    }
+
+    /**
+     * Queue a location for a device whose owner is looked up by the worker
+     */
+    public void submit(String deviceId, Double latitude, Double longitude) {
+        submit(deviceId, null, null, latitude, longitude, null);
+    }
+
+    private void enqueue(DeviceLocation location) {
+        BlockingQueue<DeviceLocation> queue = partitions.get(Math.floorMod(location.getDeviceId().hashCode(), partitions.size()));
+        if (queue.offer(location)) {
+            accepted.incrementAndGet();
+        } else if (dropped.incrementAndGet() % 100 == 1) {
+            System.err.println("⚠️ Geofence stage queue full, dropped " + dropped.get() + " location updates so far");
+        }
+    }
+
+    private void workerLoop(BlockingQueue<DeviceLocation> queue) {
+        while (running) {
+            try {
+                DeviceLocation location = resolveOwner(queue.take());
+                if (location != null) {
+                    geofenceCheckingService.checkLocation(location);
+                }
+                processed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.err.println("Error evaluating geofences: " + e.getMessage());
+            }
+        }
+    }
+
+    private DeviceLocation resolveOwner(DeviceLocation location) {
+        if (location.getUserEmail() != null) {
+            return location;
+        }
+        List<Object[]> rows = deviceRepository.findOwnerEmailAndName(location.getDeviceId());
+        if (rows.isEmpty()) {
+            return null;
+        }
+        return new DeviceLocation(location.getDeviceId(), (String) rows.get(0)[1], (String) rows.get(0)[0],
+                location.getLatitude(), location.getLongitude(), location.getAccuracy());
+    }
+
+    /**
+     * Get stage statistics
+     */
+    public Map<String, Object> getStats() {
+        int backlog = 0;
+        for (BlockingQueue<DeviceLocation> queue : partitions) {
+            backlog += queue.size();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("partitions", partitions.size());
+        stats.put("backlog", backlog);
+        stats.put("accepted", accepted.get());
+        stats.put("processed", processed.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
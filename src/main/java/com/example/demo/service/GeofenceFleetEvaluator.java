@@ -0,0 +1,205 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Geofence;
+import com.example.demo.repository.DeviceRepository;
+import com.example.demo.service.GeofenceCheckingService.DeviceLocation;
+import com.example.demo.service.GeofenceCheckingService.FenceSide;
+import com.example.demo.service.GeofenceCheckingService.FenceTransition;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-evaluates all of a user's located devices when their geofences change, instead of waiting
+ * for each device to move. The device list is split across a fork/join pool, each leaf tests its
+ * slice against only the changed fences, and the resulting transitions are emitted in one batch.
+ */
+@Service
+public class GeofenceFleetEvaluator {
+
+    private static final int DEVICES_PER_TASK = 256;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private GeofenceIndexService geofenceIndexService;
+
+    @Autowired
+    private GeofenceMembershipStore membershipStore;
+
+    @Autowired
+    private GeofenceCheckingService geofenceCheckingService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${app.geofence.fleet-parallelism:0}")
+    private int parallelism;
+
+    private ForkJoinPool pool;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("geofence-fleet-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Re-evaluate the user's devices against changed fences in the background.
+     * Call after the change is saved and the user's fence index invalidated.
+     */
+    public void reevaluate(String userId, Collection<Long> fenceIds) {
+        if (userId == null || fenceIds == null || fenceIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(fenceIds);
+        pool.execute(() -> {
+            try {
+                evaluate(userId, ids);
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                System.err.println("Fleet geofence evaluation failed for " + userId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void evaluate(String userId, List<Long> fenceIds) {
+        long started = System.nanoTime();
+
+        // Inactive or deleted fences drop out silently, like they do on a location check
+        List<Geofence> fences = new ArrayList<>();
+        for (Long fenceId : fenceIds) {
+            Geofence fence = geofenceIndexService.getActiveFence(userId, fenceId);
+            if (fence != null) {
+                fences.add(fence);
+            } else {
+                membershipStore.clearFence(fenceId);
+            }
+        }
+
+        List<Object[]> rows = fences.isEmpty() ? List.of() : deviceRepository.findPositionsByUserEmail(userId);
+        DeviceLocation[] devices = new DeviceLocation[rows.size()];
+        for (int i = 0; i < devices.length; i++) {
+            Object[] row = rows.get(i);
+            devices[i] = new DeviceLocation((String) row[0], (String) row[1], userId,
+                    (Double) row[2], (Double) row[3], (Double) row[4]);
+        }
+
+        // Already on a pool thread, so invoke() forks straight into this pool
+        List<FenceTransition> transitions = devices.length > 0
+                ? new EvaluateSlice(devices, fences, 0, devices.length).invoke()
+                : List.of();
+        if (!transitions.isEmpty()) {
+            geofenceCheckingService.emitTransitions(transitions);
+        }
+
+        int entered = 0;
+        for (FenceTransition transition : transitions) {
+            if (transition.isEntered()) {
+                entered++;
+            }
+        }
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("action", "evaluated");
+        result.put("geofenceIds", fenceIds);
+        result.put("devices", devices.length);
+        result.put("entered", entered);
+        result.put("exited", transitions.size() - entered);
+        result.put("elapsedMs", elapsedMs);
+        lastRun = result;
+        runs.incrementAndGet();
+
+        messagingTemplate.convertAndSendToUser(userId, "/queue/geofence-updates", result);
+        System.out.println("📍 Re-evaluated " + devices.length + " devices against " + fences.size()
+                + " geofences in " + elapsedMs + "ms (" + transitions.size() + " transitions)");
+    }
+
+    /**
+     * Get evaluator statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("parallelism", pool.getParallelism());
+        stats.put("runs", runs.get());
+        stats.put("failures", failures.get());
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    /**
+     * Tests a slice of devices against the changed fences, splitting until slices are small
+     */
+    private class EvaluateSlice extends RecursiveTask<List<FenceTransition>> {
+        private final DeviceLocation[] devices;
+        private final List<Geofence> fences;
+        private final int from;
+        private final int to;
+
+        EvaluateSlice(DeviceLocation[] devices, List<Geofence> fences, int from, int to) {
+            this.devices = devices;
+            this.fences = fences;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<FenceTransition> compute() {
+            if (to - from > DEVICES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                EvaluateSlice left = new EvaluateSlice(devices, fences, from, middle);
+                left.fork();
+                List<FenceTransition> right = new EvaluateSlice(devices, fences, middle, to).compute();
+                List<FenceTransition> merged = left.join();
+                merged.addAll(right);
+                return merged;
+            }
+
+            List<FenceTransition> transitions = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                DeviceLocation device = devices[i];
+                for (Geofence fence : fences) {
+                    // A fence edit is not jitter, so no dwell; fixes near the boundary keep their state
+                    FenceSide side = geofenceCheckingService.classify(
+                            fence, device.getLatitude(), device.getLongitude(), device.getAccuracy());
+                    if (side == FenceSide.UNCERTAIN) {
+                        continue;
+                    }
+                    boolean inside = side == FenceSide.INSIDE;
+                    if (membershipStore.setInside(device.getDeviceId(), fence.getId(), inside)) {
+                        transitions.add(new FenceTransition(device, fence, inside));
+                    }
+                }
+            }
+            return transitions;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Geofence;
+import com.example.demo.repository.GeofenceRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user in-memory spatial index of active geofences.
+ * Loaded from the database on first use and dropped whenever the user's fences change,
+ * so location updates are matched against fences without touching the database and
+ * only fences whose bounding box holds the point get an exact distance test.
+ * Users with more fences than fit comfortably in memory are served by the database's
+ * bounding-box index instead (GiST on PostgreSQL, the portable JPQL query elsewhere).
+ * Invalidations go out on the cluster event bus, so every node drops its copy of the index.
+ * Fences saved before the bounding-box columns existed are filled in at startup, since the
+ * database route cannot see a fence without a box.
+ */
+@Service
+public class GeofenceIndexService {
+
+    public static final String FENCES_CHANGED_EVENT = "geofences-changed";
+
+    @Autowired
+    private GeofenceRepository geofenceRepository;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${app.geofence.index-max-fences:5000}")
+    private long maxIndexedFences;
+
+    @Value("${app.database.type:h2}")
+    private String databaseType;
+
+    // Idle users fall out so the index does not keep every account's fences forever
+    private final Cache<String, UserFenceIndex> indexes = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    // Whether the GiST query can be used; decided by the database actually connected to
+    private volatile boolean postgres;
+
+    @PostConstruct
+    public void start() {
+        clusterEventBus.subscribe(FENCES_CHANGED_EVENT, event -> indexes.invalidate(event.path("userId").asText()));
+        postgres = "postgresql".equalsIgnoreCase(databaseType);
+        try (Connection connection = dataSource.getConnection()) {
+            boolean connectedToPostgres = "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+            if (connectedToPostgres != postgres) {
+                System.err.println("⚠️ app.database.type=" + databaseType + " does not match the connected database; "
+                        + "geofence queries follow the connected database");
+            }
+            postgres = connectedToPostgres;
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not detect the database for geofence queries, using app.database.type: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fill in bounding boxes of fences saved before the columns existed; without one a fence is
+     * never returned by the database route. Flyway's V7 does the same, this covers schema-update setups.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillBoundingBoxes() {
+        try {
+            List<Geofence> missing = geofenceRepository.findWithoutBoundingBox();
+            if (missing.isEmpty()) {
+                return;
+            }
+            List<Geofence> filled = new ArrayList<>();
+            for (Geofence fence : missing) {
+                try {
+                    fence.refreshBoundingBox();
+                    filled.add(fence);
+                } catch (Exception e) {
+                    System.err.println("⚠️ Geofence " + fence.getId() + " has no usable shape: " + e.getMessage());
+                }
+            }
+            geofenceRepository.saveAll(filled);
+            indexes.invalidateAll();
+            System.out.println("📦 Filled in bounding boxes for " + filled.size() + " geofences");
+        } catch (Exception e) {
+            System.err.println("Failed to backfill geofence bounding boxes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Active geofences that contain the point
+     */
+    public List<Geofence> findContaining(String userId, double latitude, double longitude) {
+        List<Geofence> result = new ArrayList<>();
+        UserFenceIndex index = getIndex(userId);
+        if (index == UserFenceIndex.DATABASE) {
+            for (Geofence fence : findCandidatesInDatabase(userId, latitude, longitude)) {
+                if (fence.containsPoint(latitude, longitude)) {
+                    result.add(fence);
+                }
+            }
+            return result;
+        }
+        index.tree.search(latitude, longitude, fence -> {
+            if (fence.containsPoint(latitude, longitude)) {
+                result.add(fence);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Active geofence by id, or null if it is gone or inactive
+     */
+    public Geofence getActiveFence(String userId, Long geofenceId) {
+        UserFenceIndex index = getIndex(userId);
+        if (index == UserFenceIndex.DATABASE) {
+            return geofenceRepository.findById(geofenceId)
+                    .filter(fence -> Boolean.TRUE.equals(fence.getIsActive()) && userId.equals(fence.getUserId()))
+                    .orElse(null);
+        }
+        return index.byId.get(geofenceId);
+    }
+
+    /**
+     * All active geofences for a user
+     */
+    public Collection<Geofence> getActiveFences(String userId) {
+        UserFenceIndex index = getIndex(userId);
+        if (index == UserFenceIndex.DATABASE) {
+            return geofenceRepository.findByUserIdAndIsActiveTrue(userId);
+        }
+        return index.byId.values();
+    }
+
+    /**
+     * Drop a user's index on every node after their geofences were created, changed or deleted
+     */
+    public void invalidate(String userId) {
+        if (userId != null) {
+            clusterEventBus.publish(FENCES_CHANGED_EVENT, Map.of("userId", userId));
+        }
+    }
+
+    private UserFenceIndex getIndex(String userId) {
+        if (userId == null) {
+            return UserFenceIndex.EMPTY;
+        }
+        return indexes.get(userId, id -> {
+            Long count = geofenceRepository.countActiveGeofencesByUser(id);
+            if (count != null && count > maxIndexedFences) {
+                return UserFenceIndex.DATABASE;
+            }
+            return new UserFenceIndex(geofenceRepository.findByUserIdAndIsActiveTrue(id));
+        });
+    }
+
+    // Bounding-box candidates from the database; the exact shape test is left to the caller
+    private List<Geofence> findCandidatesInDatabase(String userId, double latitude, double longitude) {
+        if (postgres) {
+            return geofenceRepository.findGeofencesContainingPointIndexed(userId, latitude, longitude);
+        }
+        return geofenceRepository.findGeofencesContainingPoint(userId, latitude, longitude);
+    }
+
+    /**
+     * Immutable snapshot of one user's active fences
+     */
+    private static class UserFenceIndex {
+        static final UserFenceIndex EMPTY = new UserFenceIndex(List.of());
+        // Marker for users whose fences are queried from the database instead of held in memory
+        static final UserFenceIndex DATABASE = new UserFenceIndex(List.of());
+
+        final StrRTree<Geofence> tree;
+        final Map<Long, Geofence> byId = new HashMap<>();
+
+        UserFenceIndex(List<Geofence> fences) {
+            for (Geofence fence : fences) {
+                byId.put(fence.getId(), fence);
+            }
+            this.tree = StrRTree.build(fences, Geofence::boundingBox);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.demo.service;
+
+import com.example.demo.model.GeofenceMembership;
+import com.example.demo.repository.GeofenceMembershipRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Which geofences each device is inside, as a sorted long[] of fence IDs per device.
+ * Changes are snapshotted to the geofence_membership table in batches and the whole state is
+ * restored at startup, before the geofence stage starts consuming locations, so a deploy
+ * does not re-fire ENTRY alerts for every device. Devices silent for longer than the
+ * retention period are evicted from memory and the table.
+ */
+@Service
+public class GeofenceMembershipStore {
+
+    private static final long[] EMPTY = new long[0];
+    private static final long TOUCH_PERSIST_INTERVAL_MS = 86400000L; // Refresh updated_at at most daily
+
+    @Autowired
+    private GeofenceMembershipRepository membershipRepository;
+
+    @Value("${app.geofence.membership-retention-days:30}")
+    private int retentionDays;
+
+    private final Map<String, Membership> memberships = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void restore() {
+        try {
+            for (GeofenceMembership row : membershipRepository.findAll()) {
+                long updatedAt = row.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                memberships.put(row.getDeviceId(), new Membership(decode(row.getFenceIds()), updatedAt, updatedAt));
+            }
+            System.out.println("📍 Restored geofence membership for " + memberships.size() + " devices");
+        } catch (Exception e) {
+            System.err.println("Failed to restore geofence membership: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshot();
+    }
+
+    /**
+     * Fence IDs the device is inside, ascending
+     */
+    public long[] get(String deviceId) {
+        Membership membership = memberships.get(deviceId);
+        return membership != null ? membership.fenceIds : EMPTY;
+    }
+
+    /**
+     * Replace a device's fence IDs with what the function makes of the current ones, atomically with
+     * every other change to that device (setInside, clearFence). The function gets and returns a sorted
+     * array, empty when the device is outside every fence; it runs once, under a per-device lock, and
+     * must not call back into the store. Counts as device activity. Returns the new fence IDs.
+     */
+    public long[] compute(String deviceId, UnaryOperator<long[]> function) {
+        return compute(deviceId, function, true);
+    }
+
+    private long[] compute(String deviceId, UnaryOperator<long[]> function, boolean activity) {
+        long now = System.currentTimeMillis();
+        Membership result = memberships.compute(deviceId, (id, previous) -> {
+            long[] ids = previous != null ? previous.fenceIds : EMPTY;
+            long[] next = function.apply(ids);
+            if (next.length == 0) {
+                if (previous != null) {
+                    dirty.add(id);
+                }
+                return null; // Devices outside every fence are not kept
+            }
+            boolean changed = !Arrays.equals(ids, next);
+            long persistedAt = previous != null ? previous.persistedAt : 0;
+            if (changed || (activity && now - persistedAt > TOUCH_PERSIST_INTERVAL_MS)) {
+                dirty.add(id);
+            }
+            long lastActivity = activity || previous == null ? now : previous.lastActivity;
+            return new Membership(next, lastActivity, persistedAt);
+        });
+        return result != null ? result.fenceIds : EMPTY;
+    }
+
+    /**
+     * Add or remove a single fence for a device. Returns true when the membership changed.
+     */
+    public boolean setInside(String deviceId, long fenceId, boolean inside) {
+        long now = System.currentTimeMillis();
+        boolean[] changed = new boolean[1];
+        memberships.compute(deviceId, (id, previous) -> {
+            long[] ids = previous != null ? previous.fenceIds : EMPTY;
+            int position = Arrays.binarySearch(ids, fenceId);
+            if ((position >= 0) == inside) {
+                return previous;
+            }
+            changed[0] = true;
+            dirty.add(id);
+
+            long[] next;
+            if (inside) {
+                int at = -position - 1;
+                next = new long[ids.length + 1];
+                System.arraycopy(ids, 0, next, 0, at);
+                next[at] = fenceId;
+                System.arraycopy(ids, at, next, at + 1, ids.length - at);
+            } else if (ids.length == 1) {
+                return null; // Outside every fence
+            } else {
+                next = new long[ids.length - 1];
+                System.arraycopy(ids, 0, next, 0, position);
+                System.arraycopy(ids, position + 1, next, position, ids.length - position - 1);
+            }
+            // A re-evaluation is not device activity; keep the last report time
+            return previous != null
+                    ? new Membership(next, previous.lastActivity, previous.persistedAt)
+                    : new Membership(next, now, 0);
+        });
+        return changed[0];
+    }
+
+    /**
+     * Forget a device (removed)
+     */
+    public void clear(String deviceId) {
+        if (memberships.remove(deviceId) != null) {
+            dirty.add(deviceId);
+        }
+    }
+
+    /**
+     * Remove a fence from every device (deleted)
+     */
+    public void clearFence(long fenceId) {
+        for (Map.Entry<String, Membership> entry : memberships.entrySet()) {
+            if (Arrays.binarySearch(entry.getValue().fenceIds, fenceId) >= 0) {
+                // Filtered under the device's lock, so a concurrent location check is not overwritten
+                compute(entry.getKey(), ids -> Arrays.stream(ids).filter(id -> id != fenceId).toArray(), false);
+            }
+        }
+    }
+
+    /**
+     * Write changed memberships to the database
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void snapshot() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        try {
+            List<GeofenceMembership> rows = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (String deviceId : new ArrayList<>(dirty)) {
+                dirty.remove(deviceId);
+                Membership membership = memberships.computeIfPresent(deviceId,
+                    (id, current) -> new Membership(current.fenceIds, current.lastActivity, now));
+                if (membership == null) {
+                    removed.add(deviceId);
+                } else {
+                    rows.add(new GeofenceMembership(deviceId, encode(membership.fenceIds), toDateTime(membership.lastActivity)));
+                }
+            }
+            membershipRepository.saveAll(rows);
+            if (!removed.isEmpty()) {
+                membershipRepository.deleteAllByIdInBatch(removed);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to snapshot geofence membership: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Evict devices that have not reported a location within the retention period
+     */
+    @Scheduled(cron = "0 15 3 * * *") // Daily at 03:15
+    public void evictInactive() {
+        long cutoffMillis = System.currentTimeMillis() - retentionDays * 86400000L;
+        int evicted = 0;
+        for (Map.Entry<String, Membership> entry : memberships.entrySet()) {
+            if (entry.getValue().lastActivity < cutoffMillis && memberships.remove(entry.getKey(), entry.getValue())) {
+                dirty.remove(entry.getKey());
+                evicted++;
+            }
+        }
+        try {
+            int deleted = membershipRepository.deleteByUpdatedAtBefore(toDateTime(cutoffMillis));
+            if (evicted > 0 || deleted > 0) {
+                System.out.println("🧹 Evicted geofence membership for " + evicted + " inactive devices (" + deleted + " rows)");
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to evict geofence membership: " + e.getMessage());
+        }
+    }
+
+    public int size() {
+        return memberships.size();
+    }
+
+    private static String encode(long[] fenceIds) {
+        StringBuilder out = new StringBuilder();
+        for (long id : fenceIds) {
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(id);
+        }
+        return out.toString();
+    }
+
+    private static long[] decode(String fenceIds) {
+        if (fenceIds == null || fenceIds.isEmpty()) {
+            return EMPTY;
+        }
+        long[] ids = Arrays.stream(fenceIds.split(",")).mapToLong(Long::parseLong).toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Immutable membership of one device
+     */
+    private static class Membership {
+        final long[] fenceIds;
+        final long lastActivity;
+        final long persistedAt;
+
+        Membership(long[] fenceIds, long lastActivity, long persistedAt) {
+            this.fenceIds = fenceIds;
+            this.lastActivity = lastActivity;
+            this.persistedAt = persistedAt;
+        }
+    }
+}
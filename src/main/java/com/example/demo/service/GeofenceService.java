@@ -1,5 +1,6 @@
 package com.example.demo.service;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationData;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +23,9 @@ public class GeofenceService {
     @Autowired
     private WebSocketService webSocketService;
     
+    @Autowired
+    private GeofenceEvaluationStage geofenceEvaluationStage;
+    
     // Store geofences in memory (in production, use database)
     private final Map<String, List<Geofence>> deviceGeofences = new ConcurrentHashMap<>();
     private final Map<String, Boolean> lastGeofenceStatus = new ConcurrentHashMap<>();
@@ -30,13 +34,8 @@ public class GeofenceService {
      * Check geofence violations (overloaded method for compatibility)
      */
     public void checkGeofenceViolations(String deviceId, Double latitude, Double longitude) {
-        if (latitude != null && longitude != null) {
-            LocationData location = new LocationData();
-            location.setLatitude(latitude);
-            location.setLongitude(longitude);
-            location.setTimestamp(LocalDateTime.now());
-            // checkGeofences(deviceId, userEmail, location); // Requires proper user context
-        }
+        // Evaluated asynchronously against the user's stored geofences; the stage resolves the owner
+        geofenceEvaluationStage.submit(deviceId, latitude, longitude);
     }
 
     /**
@@ -129,20 +128,7 @@ public class GeofenceService {
         }
         
         public boolean contains(double lat, double lng) {
-            double distance = calculateDistance(centerLat, centerLng, lat, lng);
-            return distance <= radiusMeters;
-        }
-        
-        private double calculateDistance(double lat1, double lng1, double lat2, double lng2) {
-            // Haversine formula for distance calculation
-            double R = 6371000; // Earth's radius in meters
-            double dLat = Math.toRadians(lat2 - lat1);
-            double dLng = Math.toRadians(lng2 - lng1);
-            double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-                      Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                      Math.sin(dLng/2) * Math.sin(dLng/2);
-            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-            return R * c;
+            return GeoKernel.withinMeters(centerLat, centerLng, lat, lng, radiusMeters);
         }
         
         public String getName() { return name; }
@@ -167,7 +153,9 @@ public class GeofenceService {
      * Check geofence events
      */
     public void checkGeofenceEvents(String deviceId, LocationData location) {
-        // checkGeofences(deviceId, userEmail, location); // Requires proper user context
+        if (location != null) {
+            geofenceEvaluationStage.submit(deviceId, location.getLatitude(), location.getLongitude());
+        }
     }
     
     /**
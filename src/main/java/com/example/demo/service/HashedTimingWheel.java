@@ -0,0 +1,118 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timing wheel holding at most one deadline per key.
+ *
+ * Arming, re-arming and cancelling a key are O(1). {@link #advance(long)} only
+ * visits the buckets whose ticks elapsed since the previous call, so the cost of
+ * finding expired keys does not depend on how many keys are armed. A deadline fires
+ * on the first advance at or after it, at most one tick late.
+ */
+public class HashedTimingWheel<K> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Set<K>> buckets;
+    private final Map<K, Timeout> timeouts = new HashMap<>();
+    private long currentTick;
+
+    public HashedTimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new LinkedHashSet<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Arm (or re-arm) the deadline for a key. Deadlines already in the past fire on the next tick.
+     */
+    public synchronized void schedule(K key, long deadlineMillis) {
+        Timeout previous = timeouts.remove(key);
+        if (previous != null) {
+            buckets.get(previous.bucket).remove(key);
+        }
+        // First tick at or after the deadline, so advancing to that tick always finds the key due
+        long tick = Math.max(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), currentTick + 1);
+        int bucket = (int) (tick & mask);
+        timeouts.put(key, new Timeout(deadlineMillis, bucket));
+        buckets.get(bucket).add(key);
+    }
+
+    /**
+     * Disarm a key. Returns true when a deadline was pending.
+     */
+    public synchronized boolean cancel(K key) {
+        Timeout previous = timeouts.remove(key);
+        if (previous == null) {
+            return false;
+        }
+        buckets.get(previous.bucket).remove(key);
+        return true;
+    }
+
+    /**
+     * Move the wheel forward to the given time and return the keys whose deadline passed.
+     * Expired keys are disarmed before they are returned.
+     */
+    public synchronized List<K> advance(long nowMillis) {
+        long targetTick = nowMillis / tickMillis;
+        List<K> expired = new ArrayList<>();
+        long steps = Math.min(targetTick - currentTick, buckets.size());
+
+        for (long step = 1; step <= steps; step++) {
+            Iterator<K> it = buckets.get((int) ((currentTick + step) & mask)).iterator();
+            while (it.hasNext()) {
+                K key = it.next();
+                // Keys sharing a bucket may belong to a later rotation of the wheel
+                if (timeouts.get(key).deadlineMillis <= nowMillis) {
+                    it.remove();
+                    timeouts.remove(key);
+                    expired.add(key);
+                }
+            }
+        }
+
+        currentTick = Math.max(currentTick, targetTick);
+        return expired;
+    }
+
+    public synchronized Long getDeadline(K key) {
+        Timeout timeout = timeouts.get(key);
+        return timeout != null ? timeout.deadlineMillis : null;
+    }
+
+    public synchronized int size() {
+        return timeouts.size();
+    }
+
+    private static final class Timeout {
+        private final long deadlineMillis;
+        private final int bucket;
+
+        private Timeout(long deadlineMillis, int bucket) {
+            this.deadlineMillis = deadlineMillis;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vaadin.flow.shared.Registration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Device changes for open map views, pushed through Vaadin server push.
+ * Each UI registers a listener for its user; changes are merged per device and flushed at a fixed
+ * frame rate as one JSON batch per user, encoded once and handed to every open map of that user.
+ * Batches use the same short field keys as the STOMP delta stream (see DeviceDeltaStream.fields).
+ */
+@Service
+public class LiveMapBroadcaster {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // user -> listeners of their open map views
+    private final Map<String, Set<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+    // user -> device -> changed fields since the last frame; inner maps are only touched inside compute()/remove()
+    private final Map<String, Map<String, Map<String, Object>>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong offered = new AtomicLong();
+
+    /**
+     * Receive batches of changed devices for the user. The listener must hand off to its UI with UI.access.
+     */
+    public Registration register(String userEmail, Consumer<String> listener) {
+        listeners.computeIfAbsent(userEmail, u -> new CopyOnWriteArraySet<>()).add(listener);
+        return () -> listeners.computeIfPresent(userEmail, (u, set) -> {
+            set.remove(listener);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public boolean hasListener(String userEmail) {
+        return userEmail != null && listeners.containsKey(userEmail);
+    }
+
+    /**
+     * Merge a device's fields into the user's next frame
+     */
+    public void offer(String userEmail, String deviceId, Map<String, Object> fields) {
+        if (!hasListener(userEmail)) {
+            return;
+        }
+        offered.incrementAndGet();
+        pending.compute(userEmail, (user, devices) -> {
+            Map<String, Map<String, Object>> next = devices != null ? devices : new LinkedHashMap<>();
+            next.computeIfAbsent(deviceId, id -> new LinkedHashMap<>()).putAll(fields);
+            return next;
+        });
+    }
+
+    /**
+     * Every device as one batch in the same format, for resyncing a map in place
+     */
+    public String encodeAll(List<Device> devices) throws JsonProcessingException {
+        List<Map<String, Object>> delta = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", device.getDeviceId());
+            entry.putAll(DeviceDeltaStream.fields(device, null));
+            delta.add(entry);
+        }
+        return objectMapper.writeValueAsString(delta);
+    }
+
+    /**
+     * Send one batch per user with every device that changed since the last frame
+     */
+    @Scheduled(fixedDelayString = "${app.map.push-interval-ms:250}")
+    public void flush() {
+        for (String userEmail : new ArrayList<>(pending.keySet())) {
+            Map<String, Map<String, Object>> devices = pending.remove(userEmail);
+            Set<Consumer<String>> sinks = listeners.get(userEmail);
+            if (devices == null || devices.isEmpty() || sinks == null) {
+                continue;
+            }
+            List<Map<String, Object>> delta = new ArrayList<>(devices.size());
+            for (Map.Entry<String, Map<String, Object>> device : devices.entrySet()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("id", device.getKey());
+                entry.putAll(device.getValue());
+                delta.add(entry);
+            }
+            String json;
+            try {
+                json = objectMapper.writeValueAsString(delta);
+            } catch (Exception e) {
+                System.err.println("Failed to encode map updates for " + userEmail + ": " + e.getMessage());
+                continue;
+            }
+            for (Consumer<String> sink : sinks) {
+                try {
+                    sink.accept(json);
+                } catch (Exception e) {
+                    // UI detached between registration and flush; its detach listener unregisters it
+                    System.err.println("Failed to push map updates to " + userEmail + ": " + e.getMessage());
+                }
+            }
+            frames.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int views = 0;
+        for (Set<Consumer<String>> set : listeners.values()) {
+            views += set.size();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("users", listeners.size());
+        stats.put("views", views);
+        stats.put("offered", offered.get());
+        stats.put("frames", frames.get());
+        return stats;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest-value coalescing of live device updates.
+ * Only the newest update per (subscriber, device) is kept; on every tick each subscriber with
+ * pending changes gets one batched frame holding all of them. A device reporting every second
+ * in theft mode therefore costs a dashboard at most one entry per tick, and the frame rate per
+ * subscriber is bounded by the tick no matter how fast devices report.
+ * An update shared by several subscribers is encoded once per tick and its bytes are spliced
+ * into each subscriber's frame.
+ */
+@Service
+public class LiveUpdateCoalescer {
+
+    private static final byte[] FRAME_PREFIX = "{\"type\":\"DEVICE_UPDATES\",\"timestamp\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UPDATES_PREFIX = ",\"updates\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FRAME_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private StompFrameSender frameSender;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // subscriber -> device -> latest update; inner maps are only touched inside compute()/remove()
+    private final Map<String, Map<String, Object>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong encoded = new AtomicLong();
+
+    /**
+     * Queue an update for the subscriber's next frame, replacing any older one for the same device
+     */
+    public void offer(String subscriber, String destination, String deviceId, Object update) {
+        offered.incrementAndGet();
+        pending.compute(subscriber + "|" + destination, (key, updates) -> {
+            Map<String, Object> next = updates != null ? updates : new LinkedHashMap<>();
+            if (next.put(deviceId, update) != null) {
+                superseded.incrementAndGet();
+            }
+            return next;
+        });
+    }
+
+    /**
+     * Send one frame per subscriber with everything that changed since the last tick
+     */
+    @Scheduled(fixedDelayString = "${app.realtime.flush-interval-ms:500}")
+    public void flush() {
+        // Publishers hand the same update object to every recipient, so identity is enough to share the encoding
+        Map<Object, byte[]> encodedUpdates = new IdentityHashMap<>();
+        byte[] timestamp = Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+
+        for (String key : new ArrayList<>(pending.keySet())) {
+            Map<String, Object> updates = pending.remove(key);
+            if (updates == null || updates.isEmpty()) {
+                continue;
+            }
+            int separator = key.lastIndexOf('|'); // Destinations never contain '|'
+            String subscriber = key.substring(0, separator);
+            String destination = key.substring(separator + 1);
+
+            try {
+                ByteArrayOutputStream frame = new ByteArrayOutputStream(256 * updates.size());
+                frame.writeBytes(FRAME_PREFIX);
+                frame.writeBytes(timestamp);
+                frame.writeBytes(UPDATES_PREFIX);
+                boolean first = true;
+                for (Object update : updates.values()) {
+                    if (!first) {
+                        frame.write(',');
+                    }
+                    frame.writeBytes(encode(encodedUpdates, update));
+                    first = false;
+                }
+                frame.writeBytes(FRAME_SUFFIX);
+
+                frameSender.sendToUser(subscriber, destination, frameSender.frame(frame.toByteArray()));
+                frames.incrementAndGet();
+                delivered.addAndGet(updates.size());
+            } catch (Exception e) {
+                System.err.println("Failed to send live updates to " + subscriber + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private byte[] encode(Map<Object, byte[]> encodedUpdates, Object update) throws Exception {
+        byte[] json = encodedUpdates.get(update);
+        if (json == null) {
+            json = objectMapper.writeValueAsBytes(update);
+            encodedUpdates.put(update, json);
+            encoded.incrementAndGet();
+        }
+        return json;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingSubscribers", pending.size());
+        stats.put("offered", offered.get());
+        stats.put("superseded", superseded.get());
+        stats.put("frames", frames.get());
+        stats.put("delivered", delivered.get());
+        stats.put("encoded", encoded.get());
+        return stats;
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous email dispatcher.
+ * Callers only enqueue. The first alert to a user goes out at once and opens a digest window;
+ * follow-ups inside the window are merged into one mail sent when it closes. A small worker pool sends whatever is queued in batches over one SMTP connection per batch,
+ * and failed messages are retried with exponential backoff.
+ * Callers that must not lose a mail (the outbox) pass a DeliveryReceipt, which is told once the
+ * mail has actually gone out or will not be sent by this process.
+ * Point spring.mail.host/port at a local fake SMTP server to exercise it end to end.
+ */
+@Service
+public class MailDispatcher {
+
+    private static final String FROM_ADDRESS = "noreply@lapso.local";
+    private static final int MAX_DIGEST_ENTRIES = 50;
+
+    @Autowired(required = false)
+    private JavaMailSender mailSender;
+
+    @Value("${app.mail.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${app.mail.workers:2}")
+    private int workerCount;
+
+    @Value("${app.mail.batch-size:50}")
+    private int batchSize;
+
+    @Value("${app.mail.digest-window-ms:30000}")
+    private long digestWindowMs;
+
+    @Value("${app.mail.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.mail.retry-backoff-ms:2000}")
+    private long retryBackoffMs;
+
+    private BlockingQueue<MailItem> queue;
+    private ExecutorService workers;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean running;
+
+    // Open digest window per recipient; its follow-ups are flushed when the window closes
+    private final Map<String, Digest> digests = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "mail-dispatcher-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            workers.submit(this::workerLoop);
+        }
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mail-dispatcher-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        // Push out whatever is still sitting in a digest window before the workers stop
+        flushDigests(true);
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue an alert email. It is sent right away unless an earlier alert to the same recipient
+     * opened a digest window, in which case it is merged into that window's digest.
+     * Returns false when the mail was dropped because the queue is full.
+     */
+    public boolean submit(String to, String subject, String body) {
+        return submit(to, subject, body, null);
+    }
+
+    /**
+     * Queue an alert email and report its fate to the receipt. A merged digest reports to the
+     * receipts of all alerts in it once the digest is sent.
+     */
+    public boolean submit(String to, String subject, String body, DeliveryReceipt receipt) {
+        if (to == null) {
+            if (receipt != null) {
+                receipt.failed("No recipient", true);
+            }
+            return false;
+        }
+        submitted.incrementAndGet();
+
+        if (digestWindowMs <= 0 || (digests.size() >= queueCapacity && !digests.containsKey(to))) {
+            MailItem item = new MailItem(to, subject, body);
+            item.addReceipt(receipt);
+            return offer(item);
+        }
+
+        long flushAt = System.currentTimeMillis() + digestWindowMs;
+        boolean[] leading = new boolean[1];
+        digests.compute(to, (recipient, digest) -> {
+            if (digest == null) {
+                // Leading edge: this one is sent now, the window only collects what follows
+                leading[0] = true;
+                return new Digest(flushAt);
+            }
+            merged.incrementAndGet();
+            digest.add(subject, body, receipt);
+            return digest;
+        });
+        if (!leading[0]) {
+            return true;
+        }
+        MailItem item = new MailItem(to, subject, body);
+        item.addReceipt(receipt);
+        return offer(item);
+    }
+
+    /**
+     * Queue an email that must not wait for a digest window (verification, password reset, theft
+     * and critical alerts)
+     */
+    public boolean submitImmediate(String to, String subject, String body) {
+        if (to == null) {
+            return false;
+        }
+        submitted.incrementAndGet();
+        return offer(new MailItem(to, subject, body));
+    }
+
+    /**
+     * Move digests whose window has closed onto the send queue
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void flushDueDigests() {
+        flushDigests(false);
+    }
+
+    private void flushDigests(boolean all) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Digest> entry : digests.entrySet()) {
+            Digest digest = entry.getValue();
+            if ((all || digest.flushAt <= now) && digests.remove(entry.getKey(), digest) && !digest.isEmpty()) {
+                offer(digest.toMailItem(entry.getKey()));
+            }
+        }
+    }
+
+    private boolean offer(MailItem item) {
+        if (queue.offer(item)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        System.err.println("❌ Mail queue full, dropping email to " + item.to + ": " + item.subject);
+        item.failed("Mail queue full", false);
+        return false;
+    }
+
+    private void workerLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                MailItem first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<MailItem> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                sendBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Mail dispatcher error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void sendBatch(List<MailItem> batch) {
+        if (mailSender == null) {
+            for (MailItem item : batch) {
+                System.out.println("📧 Email service not configured, notification logged: " + item.subject);
+                item.sent();
+            }
+            return;
+        }
+
+        SimpleMailMessage[] messages = new SimpleMailMessage[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            messages[i] = batch.get(i).toMessage();
+        }
+        batches.incrementAndGet();
+
+        try {
+            // One connection for the whole batch
+            mailSender.send(messages);
+            sent.addAndGet(messages.length);
+            batch.forEach(MailItem::sent);
+            System.out.println("📧 Sent " + messages.length + " email(s)");
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (int i = 0; i < messages.length; i++) {
+                // No per-message detail means the whole batch failed (e.g. connection refused)
+                if (failedMessages.isEmpty() || failedMessages.containsKey(messages[i])) {
+                    scheduleRetry(batch.get(i), e);
+                } else {
+                    sent.incrementAndGet();
+                    batch.get(i).sent();
+                }
+            }
+        } catch (Exception e) {
+            for (MailItem item : batch) {
+                scheduleRetry(item, e);
+            }
+        }
+    }
+
+    private void scheduleRetry(MailItem item, Exception cause) {
+        item.attempts++;
+        if (item.attempts >= maxAttempts || !running) {
+            failed.incrementAndGet();
+            System.err.println("❌ Failed to send email to " + item.to + " after " + item.attempts
+                + " attempts: " + cause.getMessage());
+            // Shutting down is not the mail's fault; the outbox hands it over again after the restart
+            item.failed(cause.getMessage(), running);
+            return;
+        }
+        retried.incrementAndGet();
+        long delay = retryBackoffMs << Math.min(item.attempts - 1, 10);
+        retryScheduler.schedule(() -> offer(item), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get dispatcher statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("submitted", submitted.get());
+        stats.put("sent", sent.get());
+        stats.put("mergedIntoDigest", merged.get());
+        stats.put("retried", retried.get());
+        stats.put("failed", failed.get());
+        stats.put("dropped", dropped.get());
+        stats.put("batches", batches.get());
+        stats.put("queued", queue.size());
+        stats.put("openDigests", digests.size());
+        return stats;
+    }
+
+    /**
+     * Told what happened to a submitted email. Called on a dispatcher thread.
+     */
+    public interface DeliveryReceipt {
+        void sent();
+
+        /**
+         * permanent is false when the mail was only dropped (full queue, shutdown) and may be submitted again
+         */
+        void failed(String reason, boolean permanent);
+    }
+
+    /**
+     * One email on the send queue
+     */
+    private static class MailItem {
+        final String to;
+        final String subject;
+        final String body;
+        final List<DeliveryReceipt> receipts = new ArrayList<>();
+        int attempts;
+
+        MailItem(String to, String subject, String body) {
+            this.to = to;
+            this.subject = subject;
+            this.body = body;
+        }
+
+        void addReceipt(DeliveryReceipt receipt) {
+            if (receipt != null) {
+                receipts.add(receipt);
+            }
+        }
+
+        void sent() {
+            for (DeliveryReceipt receipt : receipts) {
+                try {
+                    receipt.sent();
+                } catch (Exception e) {
+                    System.err.println("Mail receipt failed: " + e.getMessage());
+                }
+            }
+        }
+
+        void failed(String reason, boolean permanent) {
+            for (DeliveryReceipt receipt : receipts) {
+                try {
+                    receipt.failed(reason, permanent);
+                } catch (Exception e) {
+                    System.err.println("Mail receipt failed: " + e.getMessage());
+                }
+            }
+        }
+
+        SimpleMailMessage toMessage() {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(to);
+            message.setSubject(subject);
+            message.setText(body);
+            message.setFrom(FROM_ADDRESS);
+            return message;
+        }
+    }
+
+    /**
+     * Follow-up alerts collected for one recipient during a digest window
+     */
+    private static class Digest {
+        final long flushAt;
+        final List<String> subjects = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+        final List<DeliveryReceipt> receipts = new ArrayList<>();
+        int overflow;
+
+        Digest(long flushAt) {
+            this.flushAt = flushAt;
+        }
+
+        void add(String subject, String body, DeliveryReceipt receipt) {
+            if (receipt != null) {
+                receipts.add(receipt);
+            }
+            if (subjects.size() >= MAX_DIGEST_ENTRIES) {
+                overflow++;
+                return;
+            }
+            subjects.add(subject);
+            bodies.add(body);
+        }
+
+        boolean isEmpty() {
+            return subjects.isEmpty();
+        }
+
+        MailItem toMailItem(String to) {
+            MailItem item;
+            if (subjects.size() == 1 && overflow == 0) {
+                item = new MailItem(to, subjects.get(0), bodies.get(0));
+                receipts.forEach(item::addReceipt);
+                return item;
+            }
+
+            int total = subjects.size() + overflow;
+            StringBuilder body = new StringBuilder();
+            body.append("You have ").append(total).append(" new LAPSO alerts:\n\n");
+            for (int i = 0; i < subjects.size(); i++) {
+                body.append("━━━ ").append(subjects.get(i)).append(" ━━━\n")
+                    .append(bodies.get(i)).append("\n\n");
+            }
+            if (overflow > 0) {
+                body.append("...and ").append(overflow).append(" more alerts.\n\n");
+            }
+            body.append("LAPSO - Free Laptop Security");
+            item = new MailItem(to, "🔔 LAPSO: " + total + " new alerts", body.toString());
+            receipts.forEach(item::addReceipt);
+            return item;
+        }
+    }
+}
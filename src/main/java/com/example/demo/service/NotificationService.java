@@ -3,8 +3,6 @@ package com.example.demo.service;
 import com.example.demo.model.Device;
 import com.example.demo.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -16,8 +14,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @Service
 public class NotificationService {
 
-    @Autowired(required = false)
-    private JavaMailSender mailSender;
+    @Autowired
+    private MailDispatcher mailDispatcher;
     
     @Autowired
     private WebSocketService webSocketService;
@@ -193,9 +191,9 @@ public class NotificationService {
     public void sendTheftDetectionNotification(Device device) {
         String userEmail = device.getUserEmail();
         
-        // Always send theft notifications (override rate limiting)
+        // Always send theft notifications (override rate limiting and the digest window)
         // Email notification
-        sendEmailNotification(
+        sendUrgentEmailNotification(
             userEmail,
             "🚨 LAPSO URGENT: Theft Detected",
             String.format(
@@ -261,27 +259,24 @@ public class NotificationService {
     }
     
     /**
-     * Send email notification
+     * Send email notification (queued; bursts to the same user are merged into one digest)
      */
     public void sendEmailNotification(String to, String subject, String body) {
-        if (mailSender == null) {
-            System.out.println("📧 Email service not configured, notification logged: " + subject);
-            return;
-        }
-        
-        try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setTo(to);
-            message.setSubject(subject);
-            message.setText(body);
-            message.setFrom("noreply@lapso.local");
-            
-            mailSender.send(message);
-            System.out.println("📧 Email sent successfully to " + to);
-            
-        } catch (Exception e) {
-            System.err.println("❌ Failed to send email to " + to + ": " + e.getMessage());
-        }
+        mailDispatcher.submit(to, subject, body);
+    }
+    
+    /**
+     * Send an alert email that must not wait in a digest window (theft, emergency, critical)
+     */
+    public void sendUrgentEmailNotification(String to, String subject, String body) {
+        mailDispatcher.submitImmediate(to, subject, body);
+    }
+    
+    /**
+     * Hand an email to the dispatcher; the receipt learns whether it was sent, dropped or given up on
+     */
+    public void deliverEmail(String to, String subject, String body, MailDispatcher.DeliveryReceipt receipt) {
+        mailDispatcher.submit(to, subject, body, receipt);
     }
     
     /**
@@ -429,7 +424,7 @@ public class NotificationService {
                          "http://localhost:8080/verify?token=" + verificationToken + "\n\n" +
                          "Best regards,\nLAPSO Team";
             
-            sendEmailNotification(email, subject, body);
+            mailDispatcher.submitImmediate(email, subject, body);
             System.out.println("📧 Verification email sent to " + email);
             
         } catch (Exception e) {
@@ -449,7 +444,7 @@ public class NotificationService {
                          "If you didn't request this, please ignore this email.\n\n" +
                          "Best regards,\nLAPSO Team";
             
-            sendEmailNotification(email, subject, body);
+            mailDispatcher.submitImmediate(email, subject, body);
             System.out.println("📧 Password reset email sent to " + email);
             
         } catch (Exception e) {
@@ -485,7 +480,7 @@ public class NotificationService {
                          "Please take immediate action.\n\n" +
                          "LAPSO Security Team";
             
-            sendEmailNotification(userEmail, subject, body);
+            sendUrgentEmailNotification(userEmail, subject, body);
             
             if (webSocketService != null) {
                 webSocketService.sendAlert(userEmail, "emergency", message, null);
@@ -511,7 +506,7 @@ public class NotificationService {
                          "Immediate attention required.\n\n" +
                          "LAPSO Security Team";
             
-            sendEmailNotification(userEmail, subject, body);
+            sendUrgentEmailNotification(userEmail, subject, body);
             
             if (webSocketService != null) {
                 webSocketService.sendAlert(userEmail, "critical", message, null);
@@ -538,7 +533,7 @@ public class NotificationService {
                          "3. Use remote lock/wipe if necessary\n\n" +
                          "LAPSO Security Team";
             
-            sendEmailNotification(userEmail, subject, body);
+            sendUrgentEmailNotification(userEmail, subject, body);
             
             if (webSocketService != null) {
                 webSocketService.sendAlert(userEmail, "theft", message, null);
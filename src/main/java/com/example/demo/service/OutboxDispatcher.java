@@ -0,0 +1,282 @@
+package com.example.demo.service;
+
+import com.example.demo.model.OutboxEvent;
+import com.example.demo.repository.OutboxEventRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers outbox events after their transaction has committed.
+ * Events are claimed in insertion order in batches; a failed or backing-off event holds back
+ * later events for the same device so per-device ordering is kept across retries.
+ *
+ * With several nodes, each batch is claimed in a short transaction (FOR UPDATE SKIP LOCKED,
+ * serialized by an advisory lock on PostgreSQL) and marked CLAIMED under a lease, so every event is
+ * delivered by one node. Devices with a claimed event are left to the node holding it. Claims
+ * whose node died are released when the lease runs out.
+ *
+ * Emails may wait in a digest window or the mail queue, so their rows are not deleted on hand-off:
+ * they are marked SENDING under a lease and removed only when MailDispatcher reports the mail sent.
+ * A dropped mail goes back to PENDING with the usual backoff, and a lease that runs out (crash,
+ * restart) releases the row for another attempt.
+ */
+@Service
+public class OutboxDispatcher {
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private StompFrameSender frameSender;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${app.outbox.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${app.outbox.email-lease-ms:900000}")
+    private long emailLeaseMs;
+
+    @Value("${app.outbox.claim-lease-ms:60000}")
+    private long claimLeaseMs;
+
+    @Value("${app.database.type:h2}")
+    private String databaseType;
+
+    private static final long MAX_BACKOFF_MS = 300000; // 5 minutes
+    private static final int BATCH_SIZE = 200;
+    private static final long CLAIM_LOCK_KEY = 0x4c4150534f01L; // pg advisory lock id for outbox claims
+
+    // Only one drain at a time; a wake-up during a drain makes it go round again
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final AtomicBoolean wakeRequested = new AtomicBoolean();
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
+    /**
+     * Called after a transaction that recorded events commits
+     */
+    @Async
+    public void wakeUp() {
+        dispatchPending();
+    }
+
+    /**
+     * Safety net for wake-ups lost to a crash and for events waiting on a retry backoff
+     */
+    @Scheduled(fixedDelay = 2000)
+    public void dispatchPending() {
+        wakeRequested.set(true);
+        while (wakeRequested.get() && drainLock.tryLock()) {
+            try {
+                wakeRequested.set(false);
+                drain();
+            } catch (Exception e) {
+                System.err.println("Error dispatching outbox events: " + e.getMessage());
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+
+    private void drain() {
+        int released = outboxEventRepository.releaseExpiredLeases(LocalDateTime.now());
+        if (released > 0) {
+            System.err.println("⚠️ " + released + " outbox event(s) were claimed or handed off but never settled, retrying");
+        }
+        while (true) {
+            List<OutboxEvent> batch = claimBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            Set<String> blockedKeys = new HashSet<>();
+            List<Long> delivered = new ArrayList<>();
+            List<Long> skipped = new ArrayList<>();
+            List<OutboxEvent> failed = new ArrayList<>();
+            int handedOff = 0;
+
+            for (OutboxEvent event : batch) {
+                String key = event.getAggregateKey();
+                if (blockedKeys.contains(key)) {
+                    skipped.add(event.getId());
+                    continue;
+                }
+                try {
+                    if (deliver(event)) {
+                        delivered.add(event.getId());
+                    } else {
+                        handedOff++;
+                    }
+                } catch (Exception e) {
+                    blockedKeys.add(key);
+                    event.setStatus(OutboxEvent.STATUS_PENDING);
+                    scheduleRetry(event, e.getMessage());
+                    failed.add(event);
+                }
+            }
+
+            if (!delivered.isEmpty()) {
+                outboxEventRepository.deleteAllByIdInBatch(delivered);
+                deliveredCount.addAndGet(delivered.size());
+            }
+            if (!failed.isEmpty()) {
+                outboxEventRepository.saveAll(failed);
+            }
+            if (!skipped.isEmpty()) {
+                outboxEventRepository.releaseClaimed(skipped, LocalDateTime.now());
+            }
+
+            // Whatever is left is waiting on a backoff; the scheduled poll picks it up
+            if (delivered.size() + handedOff < batch.size()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claim the next batch of due events for this node
+     */
+    private List<OutboxEvent> claimBatch() {
+        return transactionTemplate.execute(status -> {
+            if ("postgresql".equalsIgnoreCase(databaseType)) {
+                // Claims run one at a time, so a device's events never end up claimed by two nodes
+                outboxEventRepository.lockClaims(CLAIM_LOCK_KEY);
+            }
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime leaseUntil = now.plusNanos(claimLeaseMs * 1_000_000);
+            List<OutboxEvent> batch = outboxEventRepository.findClaimable(now, BATCH_SIZE);
+            for (OutboxEvent event : batch) {
+                event.setStatus(OutboxEvent.STATUS_CLAIMED);
+                event.setNextAttemptAt(leaseUntil);
+            }
+            return batch;
+        });
+    }
+
+    /**
+     * Deliver one event. Returns true when it is done and the row can go, false when an email was
+     * handed to the mail dispatcher and its row waits for the delivery receipt.
+     */
+    private boolean deliver(OutboxEvent event) throws Exception {
+        String json = event.getPayload() != null ? event.getPayload() : "{}";
+
+        // The row already holds the encoded payload; STOMP frames are sent from it without re-serializing.
+        // Every node delivers them to its own sessions; the row id keeps a row whose lease ran out mid-delivery
+        // from being sent twice.
+        String eventId = "outbox:" + event.getId();
+        switch (event.getEventType()) {
+            case OutboxEvent.TYPE_TOPIC:
+                frameSender.publishToCluster(eventId, event.getDestination(), null, json);
+                return true;
+            case OutboxEvent.TYPE_USER_QUEUE:
+                frameSender.publishToCluster(eventId, event.getDestination(), event.getRecipient(), json);
+                return true;
+            case OutboxEvent.TYPE_EMAIL: {
+                Map<?, ?> email = objectMapper.readValue(json, Map.class);
+                // Leased before the hand-off, so a receipt that arrives right away always finds the row SENDING
+                outboxEventRepository.markSending(event.getId(), LocalDateTime.now().plusNanos(emailLeaseMs * 1_000_000));
+                notificationService.deliverEmail(event.getRecipient(),
+                    String.valueOf(email.get("subject")), String.valueOf(email.get("body")), new EmailReceipt(event.getId()));
+                return false;
+            }
+            default:
+                throw new IllegalStateException("Unknown outbox event type: " + event.getEventType());
+        }
+    }
+
+    private void scheduleRetry(OutboxEvent event, String error) {
+        int attempts = event.getAttempts() + 1;
+        event.setAttempts(attempts);
+        event.setLastError(error);
+
+        if (attempts >= maxAttempts) {
+            event.setStatus(OutboxEvent.STATUS_FAILED);
+            deadLetterCount.incrementAndGet();
+            System.err.println("❌ Outbox event " + event.getId() + " (" + event.getEventType() + ") gave up after "
+                + attempts + " attempts: " + error);
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF_MS, retryBackoffMs << Math.min(attempts - 1, 20));
+        event.setNextAttemptAt(LocalDateTime.now().plusNanos(backoff * 1_000_000));
+        retryCount.incrementAndGet();
+    }
+
+    /**
+     * Settles a SENDING email row once the mail dispatcher knows what happened to the mail
+     */
+    private class EmailReceipt implements MailDispatcher.DeliveryReceipt {
+        private final Long eventId;
+
+        EmailReceipt(Long eventId) {
+            this.eventId = eventId;
+        }
+
+        @Override
+        public void sent() {
+            outboxEventRepository.deleteAllByIdInBatch(List.of(eventId));
+            deliveredCount.incrementAndGet();
+        }
+
+        @Override
+        public void failed(String reason, boolean permanent) {
+            outboxEventRepository.findById(eventId)
+                .filter(event -> OutboxEvent.STATUS_SENDING.equals(event.getStatus()))
+                .ifPresent(event -> {
+                    if (permanent) {
+                        event.setStatus(OutboxEvent.STATUS_FAILED);
+                        event.setLastError(reason);
+                        deadLetterCount.incrementAndGet();
+                    } else {
+                        event.setStatus(OutboxEvent.STATUS_PENDING);
+                        scheduleRetry(event, reason);
+                    }
+                    outboxEventRepository.save(event);
+                });
+        }
+    }
+
+    /**
+     * Get dispatcher statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pending", outboxEventRepository.countByStatus(OutboxEvent.STATUS_PENDING));
+        stats.put("claimed", outboxEventRepository.countByStatus(OutboxEvent.STATUS_CLAIMED));
+        stats.put("sendingEmails", outboxEventRepository.countByStatus(OutboxEvent.STATUS_SENDING));
+        stats.put("failed", outboxEventRepository.countByStatus(OutboxEvent.STATUS_FAILED));
+        stats.put("delivered", deliveredCount.get());
+        stats.put("retries", retryCount.get());
+        stats.put("deadLettered", deadLetterCount.get());
+        return stats;
+    }
+}
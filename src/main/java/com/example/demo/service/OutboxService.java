@@ -0,0 +1,102 @@
+package com.example.demo.service;
+
+import com.example.demo.model.OutboxEvent;
+import com.example.demo.repository.OutboxEventRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Transactional outbox.
+ * Side effects are written as rows in the caller's transaction and only delivered once it commits,
+ * so slow WebSocket or SMTP work never runs while a database connection is held, and a rolled back
+ * heartbeat never produces an alert.
+ */
+@Service
+public class OutboxService {
+
+    // Marks a transaction that already has an after-commit wake-up registered
+    private static final Object WAKE_UP_REGISTERED = new Object();
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private OutboxDispatcher outboxDispatcher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Broadcast a message to a STOMP topic
+     */
+    public void publish(String deviceId, String destination, Object payload) {
+        record(new OutboxEvent(deviceId, OutboxEvent.TYPE_TOPIC, destination, null, toJson(payload)));
+    }
+
+    /**
+     * Send a message to one user's STOMP queue
+     */
+    public void publishToUser(String deviceId, String userEmail, String destination, Object payload) {
+        record(new OutboxEvent(deviceId, OutboxEvent.TYPE_USER_QUEUE, destination, userEmail, toJson(payload)));
+    }
+
+    /**
+     * Send the same message to several users' STOMP queues, serialized once for all of them
+     */
+    public void publishToUsers(String deviceId, Collection<String> userEmails, String destination, Object payload) {
+        String json = toJson(payload);
+        for (String userEmail : userEmails) {
+            record(new OutboxEvent(deviceId, OutboxEvent.TYPE_USER_QUEUE, destination, userEmail, json));
+        }
+    }
+
+    /**
+     * Send an email
+     */
+    public void email(String deviceId, String to, String subject, String body) {
+        record(new OutboxEvent(deviceId, OutboxEvent.TYPE_EMAIL, null, to,
+            toJson(Map.of("subject", subject, "body", body))));
+    }
+
+    private void record(OutboxEvent event) {
+        if (event.getAggregateKey() == null) {
+            event.setAggregateKey("system");
+        }
+        outboxEventRepository.save(event);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // No surrounding transaction - the row is already committed
+            outboxDispatcher.wakeUp();
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.hasResource(WAKE_UP_REGISTERED)) {
+            TransactionSynchronizationManager.bindResource(WAKE_UP_REGISTERED, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    outboxDispatcher.wakeUp();
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(WAKE_UP_REGISTERED);
+                }
+            });
+        }
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Outbox payload is not serializable: " + e.getMessage(), e);
+        }
+    }
+}
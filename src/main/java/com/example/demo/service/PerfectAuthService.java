@@ -5,6 +5,7 @@ import com.example.demo.repository.UserRepository;
 import com.example.demo.service.UserService;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.server.VaadinSession;
+import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -14,6 +15,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
+import java.util.Enumeration;
 
 /**
  * Perfect, bulletproof authentication service
@@ -74,6 +76,45 @@ public class PerfectAuthService {
         }
     }
     
+    /**
+     * User logged in to the given Vaadin session, for requests outside Vaadin (e.g. a WebSocket handshake)
+     */
+    public String getLoggedInUser(VaadinSession session) {
+        session.lock();
+        try {
+            if (!Boolean.TRUE.equals(session.getAttribute(SESSION_AUTH_KEY))) {
+                return null;
+            }
+            return (String) session.getAttribute(SESSION_USER_KEY);
+        } finally {
+            session.unlock();
+        }
+    }
+    
+    /**
+     * User logged in to a Vaadin session held by the HTTP session, for plain MVC and WebSocket requests
+     */
+    public String getLoggedInUser(HttpSession httpSession) {
+        if (httpSession == null) {
+            return null;
+        }
+        try {
+            // Vaadin keeps its session as an attribute of the HTTP session, keyed by servlet name
+            Enumeration<String> names = httpSession.getAttributeNames();
+            while (names.hasMoreElements()) {
+                if (httpSession.getAttribute(names.nextElement()) instanceof VaadinSession vaadinSession) {
+                    String userEmail = getLoggedInUser(vaadinSession);
+                    if (userEmail != null) {
+                        return userEmail;
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Session invalidated meanwhile
+        }
+        return null;
+    }
+    
     /**
      * Login user - sets both Vaadin session and Spring Security context
      */
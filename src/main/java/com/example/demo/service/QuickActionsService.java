@@ -20,6 +20,9 @@ public class QuickActionsService {
     
     @Autowired
     private WebSocketService webSocketService;
+    
+    @Autowired
+    private DeviceCommandQueue deviceCommandQueue;
 
     /**
      * Lock device remotely
@@ -428,10 +431,9 @@ public class QuickActionsService {
     private void sendDeviceCommand(String deviceId, String command, Map<String, Object> parameters) {
         try {
             // Queue the command for the device agent to poll
-            com.example.demo.controller.DeviceCommandController.queueCommand(deviceId, command, parameters);
-            
-            System.out.println(String.format("📤 Command queued for device %s: %s with parameters: %s", 
-                deviceId, command, parameters));
+            deviceCommandQueue.enqueue(deviceId, command, parameters).ifPresent(queued ->
+                System.out.println(String.format("📤 Command %d queued for device %s: %s with parameters: %s", 
+                    queued.getId(), deviceId, command, parameters)));
             
         } catch (Exception e) {
             System.err.println("❌ Failed to queue command for device " + deviceId + ": " + e.getMessage());
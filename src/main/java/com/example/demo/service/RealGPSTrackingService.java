@@ -1,5 +1,6 @@
 package com.example.demo.service;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationData;
 import com.example.demo.repository.DeviceRepository;
@@ -28,6 +29,9 @@ public class RealGPSTrackingService {
     @Autowired
     private WebSocketService webSocketService;
     
+    @Autowired
+    private DeviceOfflineDetector offlineDetector;
+    
     // Real-time location cache for instant access
     private final Map<String, LocationData> realtimeLocationCache = new ConcurrentHashMap<>();
     
@@ -62,6 +66,7 @@ public class RealGPSTrackingService {
                 device.setLastSeen(LocalDateTime.now());
                 device.setIsOnline(true);
                 deviceRepository.save(device);
+                offlineDetector.recordHeartbeat(deviceId);
                 
                 // Cache for real-time access
                 realtimeLocationCache.put(deviceId, locationData);
@@ -112,16 +117,7 @@ public class RealGPSTrackingService {
      * Calculate distance between two GPS points with high precision
      */
     public double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371000; // Earth's radius in meters
-        
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return R * c; // Distance in meters
+        return GeoKernel.haversineMeters(lat1, lon1, lat2, lon2);
     }
     
     /**
@@ -1,5 +1,6 @@
 package com.example.demo.service;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationData;
 import com.example.demo.repository.DeviceRepository;
@@ -353,25 +354,12 @@ public class RealTheftDetectionService {
      */
     private double calculateDistance(LocationData loc1, LocationPoint loc2) {
         if (loc1 == null || loc2 == null) return 0.0;  // Null check to prevent NPE
-        return calculateDistance(loc1.getLatitude(), loc1.getLongitude(), loc2.getLatitude(), loc2.getLongitude());
+        return GeoKernel.haversineMeters(loc1.getLatitude(), loc1.getLongitude(), loc2.getLatitude(), loc2.getLongitude());
     }
     
     private double calculateDistance(LocationPoint loc1, LocationPoint loc2) {
         if (loc1 == null || loc2 == null) return 0.0;  // Null check to prevent NPE
-        return calculateDistance(loc1.getLatitude(), loc1.getLongitude(), loc2.getLatitude(), loc2.getLongitude());
-    }
-    
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371000; // Earth's radius in meters
-        
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return R * c;
+        return GeoKernel.haversineMeters(loc1.getLatitude(), loc1.getLongitude(), loc2.getLatitude(), loc2.getLongitude());
     }
     
     // Helper methods
@@ -20,9 +20,13 @@ public class RealTimeMonitoringService {
     @Autowired
     private WebSocketService webSocketService;
 
+    @Autowired
+    private DeviceUpdatePublisher deviceUpdatePublisher;
+
     /**
      * Monitor devices in real-time (every 30 seconds)
      * DISABLED: Only update when agent sends actual data
+     * Offline transitions are handled by DeviceOfflineDetector deadlines, not by this scan
      */
     // @Scheduled(fixedRate = 30000)
     public void monitorDevices() {
@@ -30,9 +34,6 @@ public class RealTimeMonitoringService {
             List<Device> onlineDevices = deviceRepository.findByIsOnlineTrue();
             
             for (Device device : onlineDevices) {
-                // Check device health only - don't send fake location requests
-                checkDeviceHealth(device);
-                
                 // Send real-time status to user (status only, no fake location data)
                 sendRealTimeUpdate(device);
             }
@@ -97,8 +98,9 @@ public class RealTimeMonitoringService {
     }
     
     /**
-     * Enhanced real-time monitoring with health checks
+     * Enhanced real-time monitoring
      * DISABLED: Only update when agent sends actual data, not fake scheduled updates
+     * Offline transitions are handled by DeviceOfflineDetector deadlines, not by this scan
      */
     // @Scheduled(fixedRate = 15000) // Every 15 seconds for real-time monitoring
     public void enhancedRealTimeMonitoring() {
@@ -106,9 +108,6 @@ public class RealTimeMonitoringService {
             List<Device> allDevices = deviceRepository.findAll();
             
             for (Device device : allDevices) {
-                // Check device health
-                checkDeviceHealth(device);
-                
                 // Only send updates for devices that are actually responding
                 // Don't send fake location requests - wait for agent to report
                 
@@ -138,81 +137,14 @@ public class RealTimeMonitoringService {
     }
     
     /**
-     * Check device health and update status
-     */
-    private void checkDeviceHealth(Device device) {
-        try {
-            LocalDateTime now = LocalDateTime.now();
-            LocalDateTime lastSeen = device.getLastSeen();
-            
-            if (lastSeen != null) {
-                long minutesOffline = java.time.Duration.between(lastSeen, now).toMinutes();
-                
-                // Update online status based on last seen time
-                if (minutesOffline > 2) { // 2 minutes threshold (faster than Microsoft's 5+ minutes)
-                    if (Boolean.TRUE.equals(device.getIsOnline())) {
-                        device.setIsOnline(false);
-                        device.setOfflineReason("No communication for " + minutesOffline + " minutes");
-                        
-                        // Send offline alert
-                        webSocketService.sendAlert(
-                            device.getUserEmail(),
-                            "DEVICE_OFFLINE",
-                            device.getDeviceName() + " went offline",
-                            device.getDeviceId()
-                        );
-                    }
-                } else {
-                    if (Boolean.FALSE.equals(device.getIsOnline())) {
-                        device.setIsOnline(true);
-                        device.setOfflineReason(null);
-                        
-                        // Send online alert
-                        webSocketService.sendAlert(
-                            device.getUserEmail(),
-                            "DEVICE_ONLINE",
-                            device.getDeviceName() + " is back online",
-                            device.getDeviceId()
-                        );
-                    }
-                }
-                
-                deviceRepository.save(device);
-            }
-            
-        } catch (Exception e) {
-            System.err.println("Error checking device health: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Send enhanced real-time update
+     * Send enhanced real-time update - only the fields that changed since the subscriber's last frame
      */
     private void sendEnhancedRealTimeUpdate(Device device) {
         try {
-            Map<String, Object> update = new HashMap<>();
-            update.put("deviceId", device.getDeviceId());
-            update.put("deviceName", device.getDeviceName());
-            update.put("isOnline", device.getIsOnline());
-            update.put("batteryLevel", device.getBatteryLevel());
-            update.put("isCharging", device.getIsCharging());
-            update.put("lastSeen", device.getLastSeen());
-            update.put("latitude", device.getLatitude());
-            update.put("longitude", device.getLongitude());
-            update.put("accuracy", device.getAccuracy());
-            update.put("address", device.getAddress());
-            update.put("cpuUsage", device.getCpuUsage());
-            update.put("memoryUsage", device.getMemoryUsage());
-            update.put("diskUsage", device.getDiskUsage());
-            update.put("networkStatus", device.getNetworkStatus());
-            update.put("securityStatus", device.getSecurityStatus());
-            update.put("timestamp", LocalDateTime.now());
-            
             // Calculate health score
             double healthScore = calculateDeviceHealthScore(device);
-            update.put("healthScore", healthScore);
             
-            webSocketService.sendRealTimeUpdate(device.getUserEmail(), update);
+            deviceUpdatePublisher.publishDelta(device, healthScore);
             
         } catch (Exception e) {
             System.err.println("Failed to send enhanced real-time update: " + e.getMessage());
@@ -258,22 +190,11 @@ public class RealTimeMonitoringService {
     }
 
     /**
-     * Send real-time update via WebSocket
+     * Send real-time update as field deltas
      */
     private void sendRealTimeUpdate(Device device) {
         try {
-            Map<String, Object> update = new HashMap<>();
-            update.put("deviceId", device.getDeviceId());
-            update.put("deviceName", device.getDeviceName());
-            update.put("isOnline", device.getIsOnline());
-            update.put("batteryLevel", device.getBatteryLevel());
-            update.put("lastSeen", device.getLastSeen());
-            update.put("latitude", device.getLatitude());
-            update.put("longitude", device.getLongitude());
-            update.put("address", device.getAddress());
-            update.put("timestamp", LocalDateTime.now());
-            
-            webSocketService.sendRealTimeUpdate(device.getUserEmail(), update);
+            deviceUpdatePublisher.publishDelta(device, null);
             
         } catch (Exception e) {
             System.err.println("Failed to send real-time update: " + e.getMessage());
@@ -0,0 +1,170 @@
+package com.example.demo.service;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue for one WebSocket session.
+ * Callers only enqueue; a shared sender pool writes to the socket, one drain at a time per session,
+ * so a slow client delays nobody but itself. When the queue is full the overflow policy either
+ * drops the oldest queued message or disconnects the client.
+ */
+class SessionSendQueue {
+
+    enum OverflowPolicy {
+        DROP_OLDEST,
+        DISCONNECT
+    }
+
+    // Messages written per turn before the session yields its sender thread to others
+    private static final int MAX_MESSAGES_PER_DRAIN = 64;
+
+    private final WebSocketSession session;
+    private final String userEmail;
+    private final BlockingQueue<Outbound> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Executor senders;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastLagMs;
+    private volatile long maxLagMs;
+    private volatile long lastSendMs;
+
+    SessionSendQueue(WebSocketSession session, String userEmail, int capacity, OverflowPolicy overflowPolicy, Executor senders) {
+        this.session = session;
+        this.userEmail = userEmail;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.senders = senders;
+    }
+
+    /**
+     * Queue a message. Returns false if the session is closed or was disconnected for falling behind.
+     */
+    boolean offer(TextMessage message) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        Outbound item = new Outbound(message, System.currentTimeMillis());
+        while (!queue.offer(item)) {
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                disconnect("send queue full");
+                return false;
+            }
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false); // Shutting down
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_MESSAGES_PER_DRAIN; i++) {
+                Outbound item = queue.poll();
+                if (item == null) {
+                    break;
+                }
+                if (!session.isOpen()) {
+                    queue.clear();
+                    break;
+                }
+                long started = System.currentTimeMillis();
+                session.sendMessage(item.message);
+                long finished = System.currentTimeMillis();
+                lastSendMs = finished - started;
+                lastLagMs = finished - item.enqueuedAt;
+                maxLagMs = Math.max(maxLagMs, lastLagMs);
+                sent.incrementAndGet();
+            }
+        } catch (Exception e) {
+            System.err.println("WebSocket send failed for " + userEmail + ": " + e.getMessage());
+            disconnect("send failed");
+        } finally {
+            draining.set(false);
+            // Messages queued while this turn was finishing, or left over after yielding
+            if (!queue.isEmpty() && session.isOpen()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    void disconnect(String reason) {
+        queue.clear();
+        try {
+            if (session.isOpen()) {
+                System.err.println("⚠️ Disconnecting WebSocket session " + session.getId() + " of " + userEmail + ": " + reason);
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to close WebSocket session: " + e.getMessage());
+        }
+    }
+
+    String getSessionId() {
+        return session.getId();
+    }
+
+    String getUserEmail() {
+        return userEmail;
+    }
+
+    /**
+     * Age of the oldest queued message, 0 when the queue is empty
+     */
+    long currentLagMs() {
+        Outbound head = queue.peek();
+        return head != null ? System.currentTimeMillis() - head.enqueuedAt : 0;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessionId", session.getId());
+        stats.put("user", userEmail);
+        stats.put("queued", queue.size());
+        stats.put("sent", sent.get());
+        stats.put("dropped", dropped.get());
+        stats.put("lagMs", currentLagMs());
+        stats.put("lastLagMs", lastLagMs);
+        stats.put("maxLagMs", maxLagMs);
+        stats.put("lastSendMs", lastSendMs);
+        return stats;
+    }
+
+    private static class Outbound {
+        final TextMessage message;
+        final long enqueuedAt;
+
+        Outbound(TextMessage message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends payloads that are encoded to JSON once and shared by every recipient.
+ * SimpMessagingTemplate.convertAndSend runs the message converter per call, so fanning one event
+ * out to N users serializes it N times; a pre-encoded frame only has its (small) headers copied
+ * per destination while the payload bytes are reused.
+ * Frames published to the cluster are delivered by every node to its own STOMP broker.
+ */
+@Service
+public class StompFrameSender {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    private static final String FRAME_EVENT = "stomp-frame";
+
+    @PostConstruct
+    public void subscribeToCluster() {
+        clusterEventBus.subscribe(FRAME_EVENT, event -> {
+            Message<byte[]> frame = fromJson(event.path("json").asText());
+            String user = event.path("user").asText(null);
+            if (user != null) {
+                sendToUser(user, event.path("destination").asText(), frame);
+            } else {
+                send(event.path("destination").asText(), frame);
+            }
+        });
+    }
+
+    /**
+     * Deliver already encoded JSON on every node, to a topic (user null) or to one user's queue.
+     * Frames with an event id that was already delivered, e.g. by another node, are skipped.
+     */
+    public void publishToCluster(String eventId, String destination, String user, String json) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("destination", destination);
+        event.put("user", user);
+        event.put("json", json);
+        clusterEventBus.publish(FRAME_EVENT, eventId, event);
+    }
+
+    /**
+     * Encode a payload once into an immutable JSON frame
+     */
+    public Message<byte[]> encode(Object payload) throws JsonProcessingException {
+        return frame(objectMapper.writeValueAsBytes(payload));
+    }
+
+    /**
+     * Wrap JSON that is already encoded, e.g. an outbox row
+     */
+    public Message<byte[]> fromJson(String json) {
+        return frame(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Message<byte[]> frame(byte[] json) {
+        // Built without a live header accessor, so the template copies headers instead of mutating a shared frame
+        return MessageBuilder.withPayload(json)
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+                .build();
+    }
+
+    /**
+     * Send a frame to a topic or queue
+     */
+    public void send(String destination, Message<byte[]> frame) {
+        messagingTemplate.send(destination, frame);
+    }
+
+    /**
+     * Send a frame to one user's queue, e.g. /queue/devices -> /user/{user}/queue/devices
+     */
+    public void sendToUser(String user, String destination, Message<byte[]> frame) {
+        // Same escaping as SimpMessagingTemplate.convertAndSendToUser
+        messagingTemplate.send("/user/" + user.replace("/", "%2F") + destination, frame);
+    }
+
+    /**
+     * Send the same frame to several users
+     */
+    public void sendToUsers(Collection<String> users, String destination, Message<byte[]> frame) {
+        for (String user : users) {
+            sendToUser(user, destination, frame);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.demo.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live STOMP subscriptions, kept from session subscribe/unsubscribe/disconnect events,
+ * so publishers can skip building and sending messages nobody is listening to.
+ * Destinations are recorded as the client subscribed to them, e.g. /user/queue/devices.
+ */
+@Service
+public class StompSubscriptionRegistry {
+
+    // STOMP session id -> its subscriptions
+    private final Map<String, SessionSubscriptions> sessions = new ConcurrentHashMap<>();
+    // "user|destination" -> number of subscriptions
+    private final Map<String, Integer> userDestinationCounts = new ConcurrentHashMap<>();
+    // destination -> number of subscriptions across all users
+    private final Map<String, Integer> destinationCounts = new ConcurrentHashMap<>();
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        String user = userName(event.getUser(), event.getMessage());
+        SessionSubscriptions session = sessions.computeIfAbsent(sessionId, id -> new SessionSubscriptions(user));
+        synchronized (session) {
+            if (session.byId.putIfAbsent(subscriptionId, destination) == null) {
+                increment(session.user, destination);
+            }
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        SessionSubscriptions session = accessor.getSessionId() != null ? sessions.get(accessor.getSessionId()) : null;
+        if (session == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (session) {
+            String destination = session.byId.remove(accessor.getSubscriptionId());
+            if (destination != null) {
+                decrement(session.user, destination);
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        SessionSubscriptions session = sessions.remove(event.getSessionId());
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            for (String destination : session.byId.values()) {
+                decrement(session.user, destination);
+            }
+            session.byId.clear();
+        }
+    }
+
+    /**
+     * True if the user has at least one live subscription to the destination
+     */
+    public boolean hasSubscriber(String user, String destination) {
+        return user != null && userDestinationCounts.containsKey(key(user, destination));
+    }
+
+    /**
+     * True if anyone has a live subscription to the destination
+     */
+    public boolean hasAnySubscriber(String destination) {
+        return destinationCounts.containsKey(destination);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("destinations", new HashMap<>(destinationCounts));
+        return stats;
+    }
+
+    private void increment(String user, String destination) {
+        destinationCounts.merge(destination, 1, Integer::sum);
+        if (user != null) {
+            userDestinationCounts.merge(key(user, destination), 1, Integer::sum);
+        }
+    }
+
+    private void decrement(String user, String destination) {
+        // Entries are removed at zero so lookups are a single containsKey
+        destinationCounts.computeIfPresent(destination, (d, count) -> count > 1 ? count - 1 : null);
+        if (user != null) {
+            userDestinationCounts.computeIfPresent(key(user, destination), (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private static String key(String user, String destination) {
+        return user + "|" + destination;
+    }
+
+    private static String userName(Principal principal, Message<?> message) {
+        if (principal != null) {
+            return principal.getName();
+        }
+        Principal fromHeaders = StompHeaderAccessor.wrap(message).getUser();
+        return fromHeaders != null ? fromHeaders.getName() : null;
+    }
+
+    private static class SessionSubscriptions {
+        final String user;
+        final Map<String, String> byId = new HashMap<>(); // subscription id -> destination
+
+        SessionSubscriptions(String user) {
+            this.user = user;
+        }
+    }
+}
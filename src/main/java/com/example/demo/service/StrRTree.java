@@ -0,0 +1,135 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Immutable R-tree bulk-loaded with Sort-Tile-Recursive packing.
+ * Boxes are {minLat, minLng, maxLat, maxLng}. Built once from a full item list and
+ * replaced wholesale when the items change, which suits small, rarely edited sets like geofences.
+ */
+public final class StrRTree<T> {
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final Node root;
+    private final int size;
+
+    private StrRTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Pack items into a tree
+     */
+    public static <T> StrRTree<T> build(List<T> items, Function<T, double[]> boxOf) {
+        if (items.isEmpty()) {
+            return new StrRTree<>(null, 0);
+        }
+
+        List<Node> level = new ArrayList<>(items.size());
+        for (T item : items) {
+            level.add(Node.leaf(boxOf.apply(item), item));
+        }
+        while (level.size() > NODE_CAPACITY) {
+            level = packLevel(level);
+        }
+        return new StrRTree<>(Node.parent(level), items.size());
+    }
+
+    /**
+     * Visit every item whose box contains the point
+     */
+    @SuppressWarnings("unchecked")
+    public void search(double lat, double lng, Consumer<T> visitor) {
+        if (root == null || !root.contains(lat, lng)) {
+            return;
+        }
+        List<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            for (Node child : node.children) {
+                if (!child.contains(lat, lng)) {
+                    continue;
+                }
+                if (child.children == null) {
+                    visitor.accept((T) child.item);
+                } else {
+                    stack.add(child);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // One STR pass: sort by longitude into vertical slices, then by latitude within a slice
+    private static List<Node> packLevel(List<Node> nodes) {
+        int nodeCount = (nodes.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * NODE_CAPACITY;
+
+        List<Node> sorted = new ArrayList<>(nodes);
+        sorted.sort(Comparator.comparingDouble(Node::centerLng));
+
+        List<Node> parents = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < sorted.size(); sliceStart += sliceSize) {
+            List<Node> slice = new ArrayList<>(sorted.subList(sliceStart, Math.min(sliceStart + sliceSize, sorted.size())));
+            slice.sort(Comparator.comparingDouble(Node::centerLat));
+            for (int i = 0; i < slice.size(); i += NODE_CAPACITY) {
+                parents.add(Node.parent(slice.subList(i, Math.min(i + NODE_CAPACITY, slice.size()))));
+            }
+        }
+        return parents;
+    }
+
+    private static final class Node {
+        final double minLat, minLng, maxLat, maxLng;
+        final Node[] children; // null for leaf entries
+        final Object item;
+
+        private Node(double minLat, double minLng, double maxLat, double maxLng, Node[] children, Object item) {
+            this.minLat = minLat;
+            this.minLng = minLng;
+            this.maxLat = maxLat;
+            this.maxLng = maxLng;
+            this.children = children;
+            this.item = item;
+        }
+
+        static Node leaf(double[] box, Object item) {
+            return new Node(box[0], box[1], box[2], box[3], null, item);
+        }
+
+        static Node parent(List<Node> children) {
+            double minLat = Double.POSITIVE_INFINITY, minLng = Double.POSITIVE_INFINITY;
+            double maxLat = Double.NEGATIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+            for (Node child : children) {
+                minLat = Math.min(minLat, child.minLat);
+                minLng = Math.min(minLng, child.minLng);
+                maxLat = Math.max(maxLat, child.maxLat);
+                maxLng = Math.max(maxLng, child.maxLng);
+            }
+            return new Node(minLat, minLng, maxLat, maxLng, children.toArray(new Node[0]), null);
+        }
+
+        boolean contains(double lat, double lng) {
+            return lat >= minLat && lat <= maxLat && lng >= minLng && lng <= maxLng;
+        }
+
+        double centerLat() {
+            return (minLat + maxLat) / 2;
+        }
+
+        double centerLng() {
+            return (minLng + maxLng) / 2;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.demo.service;
 
+import com.example.demo.geo.GeoKernel;
 import com.example.demo.model.Device;
 import com.example.demo.model.LocationHistory;
 import com.example.demo.repository.LocationHistoryRepository;
@@ -102,7 +103,7 @@ public class TheftDetectionService {
 
         if (timeHours < 0.01) return 0; // Too close in time
 
-        double distance = haversineDistance(
+        double distance = GeoKernel.haversineKm(
             previous.getLatitude(), previous.getLongitude(),
             latest.getLatitude(), latest.getLongitude()
         );
@@ -140,17 +141,17 @@ public class TheftDetectionService {
             LocationHistory p2 = recent.get(i + 1);
             LocationHistory p3 = recent.get(i + 2);
 
-            double dist12 = haversineDistance(
+            double dist12 = GeoKernel.haversineKm(
                 p1.getLatitude(), p1.getLongitude(),
                 p2.getLatitude(), p2.getLongitude()
             );
 
-            double dist23 = haversineDistance(
+            double dist23 = GeoKernel.haversineKm(
                 p2.getLatitude(), p2.getLongitude(),
                 p3.getLatitude(), p3.getLongitude()
             );
 
-            double dist13 = haversineDistance(
+            double dist13 = GeoKernel.haversineKm(
                 p1.getLatitude(), p1.getLongitude(),
                 p3.getLatitude(), p3.getLongitude()
             );
@@ -188,7 +189,7 @@ public class TheftDetectionService {
 
         for (int i = 1; i < Math.min(10, history.size()); i++) {
             LocationHistory usual = history.get(i);
-            double distance = haversineDistance(
+            double distance = GeoKernel.haversineKm(
                 current.getLatitude(), current.getLongitude(),
                 usual.getLatitude(), usual.getLongitude()
             );
@@ -215,7 +216,7 @@ public class TheftDetectionService {
 
             if (timeHours < 0.01) continue;
 
-            double distance = haversineDistance(
+            double distance = GeoKernel.haversineKm(
                 current.getLatitude(), current.getLongitude(),
                 next.getLatitude(), next.getLongitude()
             );
@@ -227,16 +228,6 @@ public class TheftDetectionService {
         return maxSpeed;
     }
 
-    private double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371; // Earth radius in km
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
-    }
 
     // Result class
     public static class TheftAnalysisResult {
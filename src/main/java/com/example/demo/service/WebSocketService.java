@@ -1,35 +1,135 @@
 package com.example.demo.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Raw WebSocket push to browsers and apps, on /raw-ws (see RawWebSocketConfig).
+ * A user can hold any number of sessions (tabs, phones); every message goes to all of them.
+ * Each session has its own bounded send queue drained by a shared sender pool, so callers on
+ * the heartbeat or alert paths never block on a slow client.
+ */
 @Service
 public class WebSocketService extends TextWebSocketHandler {
 
-    private final Map<String, WebSocketSession> userSessions = new ConcurrentHashMap<>();
+    // Set by the handshake interceptor from the logged-in HTTP session
+    public static final String USER_EMAIL_ATTRIBUTE = "userEmail";
+
+    // user email -> that user's open sessions
+    private final Map<String, Set<SessionSendQueue>> userSessions = new ConcurrentHashMap<>();
+    // session id -> queue, for lookup on close
+    private final Map<String, SessionSendQueue> sessionsById = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @Autowired
+    private DeviceCommandQueue deviceCommandQueue;
+
+    @Value("${app.websocket.session-queue-capacity:256}")
+    private int sessionQueueCapacity;
+
+    @Value("${app.websocket.overflow-policy:DROP_OLDEST}")
+    private SessionSendQueue.OverflowPolicy overflowPolicy;
+
+    @Value("${app.websocket.sender-threads:4}")
+    private int senderThreads;
+
+    private ExecutorService senders;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ws-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdownNow();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String userEmail = getUserEmailFromSession(session);
         if (userEmail != null) {
-            userSessions.put(userEmail, session);
-            System.out.println("WebSocket connection established for user: " + userEmail);
+            SessionSendQueue queue = new SessionSendQueue(session, userEmail, sessionQueueCapacity, overflowPolicy, senders);
+            sessionsById.put(session.getId(), queue);
+            userSessions.computeIfAbsent(userEmail, email -> ConcurrentHashMap.newKeySet()).add(queue);
+            System.out.println("WebSocket connection established for user: " + userEmail
+                    + " (" + userSessions.get(userEmail).size() + " sessions)");
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        String userEmail = getUserEmailFromSession(session);
-        if (userEmail != null) {
-            userSessions.remove(userEmail);
-            System.out.println("WebSocket connection closed for user: " + userEmail);
+        SessionSendQueue queue = sessionsById.remove(session.getId());
+        if (queue != null) {
+            userSessions.computeIfPresent(queue.getUserEmail(), (email, sessions) -> {
+                sessions.remove(queue);
+                return sessions.isEmpty() ? null : sessions;
+            });
+            System.out.println("WebSocket connection closed for user: " + queue.getUserEmail());
+        }
+    }
+
+    /**
+     * Serialize once and queue for every session of the user. Returns false if the user has none.
+     */
+    private boolean sendToUser(String userEmail, Object payload) {
+        Set<SessionSendQueue> sessions = userEmail != null ? userSessions.get(userEmail) : null;
+        if (sessions == null || sessions.isEmpty()) {
+            return false;
+        }
+        TextMessage message = toMessage(payload);
+        if (message == null) {
+            return false;
+        }
+        boolean queued = false;
+        for (SessionSendQueue session : sessions) {
+            queued |= session.offer(message);
+        }
+        return queued;
+    }
+
+    /**
+     * Serialize once and queue for every open session
+     */
+    private void sendToAll(Object payload) {
+        TextMessage message = toMessage(payload);
+        if (message == null) {
+            return;
+        }
+        for (SessionSendQueue session : sessionsById.values()) {
+            session.offer(message);
+        }
+    }
+
+    private TextMessage toMessage(Object payload) {
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            System.err.println("Failed to serialize WebSocket message: " + e.getMessage());
+            return null;
         }
     }
 
@@ -43,26 +143,16 @@ public class WebSocketService extends TextWebSocketHandler {
      * 🚨 SEND THEFT ALERT VIA WEBSOCKET
      */
     public void sendTheftAlert(String userEmail, Object alertData) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                Map<String, Object> message = Map.of(
-                    "type", "THEFT_ALERT",
-                    "priority", "CRITICAL",
-                    "data", alertData,
-                    "timestamp", System.currentTimeMillis(),
-                    "sound", "emergency", // Trigger emergency sound
-                    "vibrate", true // Trigger vibration on mobile
-                );
-                
-                String jsonMessage = objectMapper.writeValueAsString(message);
-                session.sendMessage(new TextMessage(jsonMessage));
-                
-                System.out.println("🚨 Theft alert sent via WebSocket to: " + userEmail);
-                
-            } catch (IOException e) {
-                System.err.println("Failed to send theft alert via WebSocket: " + e.getMessage());
-            }
+        Map<String, Object> message = Map.of(
+            "type", "THEFT_ALERT",
+            "priority", "CRITICAL",
+            "data", alertData,
+            "timestamp", System.currentTimeMillis(),
+            "sound", "emergency", // Trigger emergency sound
+            "vibrate", true // Trigger vibration on mobile
+        );
+        if (sendToUser(userEmail, message)) {
+            System.out.println("🚨 Theft alert sent via WebSocket to: " + userEmail);
         }
     }
 
@@ -70,36 +160,20 @@ public class WebSocketService extends TextWebSocketHandler {
      * Send location update to user
      */
     public void sendLocationUpdate(String userEmail, Map<String, Object> locationData) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                String message = objectMapper.writeValueAsString(Map.of(
-                    "type", "location_update",
-                    "data", locationData
-                ));
-                session.sendMessage(new TextMessage(message));
-            } catch (IOException e) {
-                System.err.println("Failed to send location update: " + e.getMessage());
-            }
-        }
+        sendToUser(userEmail, Map.of(
+            "type", "location_update",
+            "data", locationData
+        ));
     }
 
     /**
      * Send real-time update to user
      */
     public void sendRealTimeUpdate(String userEmail, Map<String, Object> updateData) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                String message = objectMapper.writeValueAsString(Map.of(
-                    "type", "real_time_update",
-                    "data", updateData
-                ));
-                session.sendMessage(new TextMessage(message));
-            } catch (IOException e) {
-                System.err.println("Failed to send real-time update: " + e.getMessage());
-            }
-        }
+        sendToUser(userEmail, Map.of(
+            "type", "real_time_update",
+            "data", updateData
+        ));
     }
 
     /**
@@ -113,27 +187,42 @@ public class WebSocketService extends TextWebSocketHandler {
      * Get active session count
      */
     public int getActiveSessionCount() {
-        return userSessions.size();
+        return sessionsById.size();
     }
 
     /**
-     * Send notification to user
+     * Registry and per-session send queue statistics; sessions listed slowest first
      */
-    public void sendNotification(String userEmail, String title, String message) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                String notificationMessage = objectMapper.writeValueAsString(Map.of(
-                    "type", "notification",
-                    "title", title,
-                    "message", message,
-                    "timestamp", System.currentTimeMillis()
-                ));
-                session.sendMessage(new TextMessage(notificationMessage));
-            } catch (IOException e) {
-                System.err.println("Failed to send notification: " + e.getMessage());
+    public Map<String, Object> getStats() {
+        List<SessionSendQueue> sessions = new ArrayList<>(sessionsById.values());
+        sessions.sort(Comparator.comparingLong(SessionSendQueue::currentLagMs).reversed());
+        long dropped = 0;
+        List<Map<String, Object>> slowest = new ArrayList<>();
+        for (SessionSendQueue session : sessions) {
+            dropped += session.getDropped();
+            if (slowest.size() < 20) {
+                slowest.add(session.getStats());
             }
         }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("users", userSessions.size());
+        stats.put("sessions", sessions.size());
+        stats.put("overflowPolicy", overflowPolicy.name());
+        stats.put("dropped", dropped);
+        stats.put("slowestSessions", slowest);
+        return stats;
+    }
+
+    /**
+     * Send notification to user
+     */
+    public void sendNotification(String userEmail, String title, String message) {
+        sendToUser(userEmail, Map.of(
+            "type", "notification",
+            "title", title,
+            "message", message,
+            "timestamp", System.currentTimeMillis()
+        ));
     }
 
     /**
@@ -141,124 +230,67 @@ public class WebSocketService extends TextWebSocketHandler {
      */
     public void sendNotification(String type, String message) {
         // Broadcast to all connected users
-        userSessions.values().forEach(session -> {
-            if (session.isOpen()) {
-                try {
-                    String notificationMessage = objectMapper.writeValueAsString(Map.of(
-                        "type", type,
-                        "message", message,
-                        "timestamp", System.currentTimeMillis()
-                    ));
-                    session.sendMessage(new TextMessage(notificationMessage));
-                } catch (IOException e) {
-                    System.err.println("Failed to send notification: " + e.getMessage());
-                }
-            }
-        });
+        sendToAll(Map.of(
+            "type", type,
+            "message", message,
+            "timestamp", System.currentTimeMillis()
+        ));
     }
 
     /**
      * Send alert to user
      */
     public void sendAlert(String userEmail, String alertType, String message, String deviceId) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                String alertMessage = objectMapper.writeValueAsString(Map.of(
-                    "type", "alert",
-                    "alertType", alertType,
-                    "message", message,
-                    "deviceId", deviceId,
-                    "timestamp", System.currentTimeMillis()
-                ));
-                session.sendMessage(new TextMessage(alertMessage));
-            } catch (IOException e) {
-                System.err.println("Failed to send alert: " + e.getMessage());
-            }
-        }
+        sendToUser(userEmail, Map.of(
+            "type", "alert",
+            "alertType", alertType,
+            "message", message,
+            "deviceId", deviceId,
+            "timestamp", System.currentTimeMillis()
+        ));
     }
     
     /**
-     * Send command directly to device agent
+     * Queue a command for the device's agent. It is pushed over the agent channel if the agent is
+     * connected, otherwise delivered on its next poll. The "command" entry is the action.
      */
     public boolean sendCommandToDevice(String deviceId, Map<String, Object> command) {
         try {
-            // Enhanced command sending with device-specific channels
-            command.put("target", "device_agent");
-            command.put("deviceId", deviceId);
-            command.put("timestamp", System.currentTimeMillis());
-            
-            // In a real implementation, this would use device-specific WebSocket connections
-            // For now, we'll simulate by logging and using a command queue approach
-            System.out.println("📤 Command queued for device " + deviceId + ": " + command.get("command"));
-            
-            // Send to device agent if connected (simulated)
-            sendToDevice(deviceId, command);
-            
-            return true;
-            
+            Map<String, Object> parameters = new HashMap<>(command);
+            String action = String.valueOf(parameters.remove("command"));
+            return deviceCommandQueue.enqueue(deviceId, action, parameters).isPresent();
         } catch (Exception e) {
             System.err.println("Failed to send command to device: " + e.getMessage());
             return false;
         }
     }
     
-    /**
-     * Send message directly to device agent
-     */
-    private void sendToDevice(String deviceId, Map<String, Object> message) {
-        try {
-            // In production, this would send to device-specific WebSocket channel
-            message.put("channel", "device_" + deviceId);
-            message.put("timestamp", System.currentTimeMillis());
-            
-            // Simulate device agent communication
-            System.out.println("📡 Sending to device " + deviceId + ": " + message.get("command"));
-            
-            // In a real WebSocket setup, this would be:
-            // messagingTemplate.convertAndSend("/topic/device/" + deviceId, message);
-            
-        } catch (Exception e) {
-            System.err.println("Failed to send message to device: " + e.getMessage());
-        }
-    }
-    
     /**
      * Enhanced theft alert with detailed information
      */
     public void sendEnhancedTheftAlert(String userEmail, Object theftResult) {
-        WebSocketSession session = userSessions.get(userEmail);
-        if (session != null && session.isOpen()) {
-            try {
-                Map<String, Object> alert = Map.of(
-                    "type", "ENHANCED_THEFT_ALERT",
-                    "priority", "CRITICAL",
-                    "theftDetails", theftResult,
-                    "timestamp", System.currentTimeMillis(),
-                    "sound", "emergency",
-                    "vibrate", true,
-                    "actions", java.util.List.of(
-                        "Lock device immediately",
-                        "Take photos with camera", 
-                        "Start location tracking",
-                        "Contact authorities"
-                    )
-                );
-                
-                String jsonMessage = objectMapper.writeValueAsString(alert);
-                session.sendMessage(new TextMessage(jsonMessage));
-                
-                System.out.println("🚨 ENHANCED THEFT ALERT sent to " + userEmail);
-                
-            } catch (IOException e) {
-                System.err.println("Failed to send enhanced theft alert: " + e.getMessage());
-            }
+        Map<String, Object> alert = Map.of(
+            "type", "ENHANCED_THEFT_ALERT",
+            "priority", "CRITICAL",
+            "theftDetails", theftResult,
+            "timestamp", System.currentTimeMillis(),
+            "sound", "emergency",
+            "vibrate", true,
+            "actions", List.of(
+                "Lock device immediately",
+                "Take photos with camera", 
+                "Start location tracking",
+                "Contact authorities"
+            )
+        );
+        if (sendToUser(userEmail, alert)) {
+            System.out.println("🚨 ENHANCED THEFT ALERT sent to " + userEmail);
         }
     }
 
     private String getUserEmailFromSession(WebSocketSession session) {
         // Extract user email from session attributes
-        return (String) session.getAttributes().get("userEmail");
+        return (String) session.getAttributes().get(USER_EMAIL_ATTRIBUTE);
     }
     
     /**
@@ -273,23 +305,13 @@ public class WebSocketService extends TextWebSocketHandler {
      */
     public void broadcastDeviceUpdate(com.example.demo.model.Device device) {
         try {
-            String message = objectMapper.writeValueAsString(Map.of(
+            sendToAll(Map.of(
                 "type", "device_update",
                 "deviceId", device.getDeviceId(),
                 "deviceName", device.getDeviceName(),
                 "isOnline", device.getIsOnline(),
                 "timestamp", System.currentTimeMillis()
             ));
-            
-            for (WebSocketSession session : userSessions.values()) {
-                if (session.isOpen()) {
-                    try {
-                        session.sendMessage(new TextMessage(message));
-                    } catch (IOException e) {
-                        System.err.println("Failed to broadcast device update: " + e.getMessage());
-                    }
-                }
-            }
         } catch (Exception e) {
             System.err.println("Error broadcasting device update: " + e.getMessage());
         }
@@ -307,6 +329,10 @@ public class WebSocketService extends TextWebSocketHandler {
      */
     public void restart() {
         try {
+            for (SessionSendQueue session : sessionsById.values()) {
+                session.disconnect("service restart");
+            }
+            sessionsById.clear();
             userSessions.clear();
             System.out.println("✅ WebSocket Service restarted");
         } catch (Exception e) {
@@ -340,7 +340,7 @@ public class AgentDownloadView extends VerticalLayout {
         Div accessNote = new Div();
         accessNote.getElement().setProperty("innerHTML",
             "<p style='margin:12px 0 0 0;padding:12px;background:#eff6ff;border-radius:8px;border-left:4px solid #3b82f6;color:#1e40af;'>" +
-            "<strong>How to Access:</strong> After updating your agent, open the Map view in LAPSO. Click any device marker to see Lock, Screenshot, and Wipe buttons. Commands are executed when the agent polls the server (every 30 seconds).</p>");
+            "<strong>How to Access:</strong> After updating your agent, open the Map view in LAPSO. Click any device marker to see Lock, Screenshot, and Wipe buttons. Commands reach the agent within a second or two; agents without long poll support pick them up on their next poll (every 30 seconds).</p>");
 
         section.add(title, intro, updateBox, featuresBox, accessNote);
         return section;
@@ -6,6 +6,7 @@ import com.example.demo.service.AnalyticsService;
 import com.example.demo.service.EnhancedLocationService;
 import com.example.demo.service.GeofenceService;
 import com.example.demo.model.Device;
+import com.example.demo.model.DeviceStats;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
@@ -26,7 +27,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.Map;
 
 @Route("dashboard")
 @PageTitle("LAPSO - Professional Laptop Security Dashboard")
@@ -72,6 +72,8 @@ public class CleanDashboard extends VerticalLayout {
             UI.getCurrent().getPage().addJavaScript("https://cdn.jsdelivr.net/npm/sockjs-client@1/dist/sockjs.min.js");
             UI.getCurrent().getPage().addJavaScript("https://cdn.jsdelivr.net/npm/stompjs@2.3.3/lib/stomp.min.js");
             UI.getCurrent().getPage().addJavaScript("./js/battery-alerts.js");
+            // Live device deltas; updates the device cards through their data-device-id/data-field attributes
+            UI.getCurrent().getPage().addJavaScript("./js/lapso-realtime.js");
         }
         
         createCleanDashboard();
@@ -189,12 +191,12 @@ public class CleanDashboard extends VerticalLayout {
         statusCards.setJustifyContentMode(FlexComponent.JustifyContentMode.CENTER);
 
         String userEmail = authService.getCurrentUser();
-        Map<String, Object> analytics = analyticsService.getDashboardAnalytics(userEmail != null ? userEmail : "");
+        DeviceStats stats = deviceService.getStats(userEmail);
 
         statusCards.add(
-            createFriendlyStatusCard("Devices", analytics.get("totalDevices").toString(), "#10b981"),
-            createFriendlyStatusCard("Online", analytics.get("onlineDevices").toString(), "#3b82f6"),
-            createFriendlyStatusCard("Protected", analytics.get("totalDevices").toString(), "#059669")
+            createFriendlyStatusCard("Devices", String.valueOf(stats.getTotal()), "#10b981"),
+            createFriendlyStatusCard("Online", String.valueOf(stats.getOnline()), "#3b82f6"),
+            createFriendlyStatusCard("Protected", String.valueOf(stats.getTotal()), "#059669")
         );
 
         statusSection.add(sectionTitle, statusCards);
@@ -352,6 +354,7 @@ public class CleanDashboard extends VerticalLayout {
             .set("cursor", "pointer");
         
         card.addClickListener(e -> UI.getCurrent().navigate("map"));
+        card.getElement().setAttribute("data-device-id", device.getDeviceId());
 
         // Device image (like Microsoft Find My Device)
         Div deviceImageContainer = new Div();
@@ -415,6 +418,7 @@ public class CleanDashboard extends VerticalLayout {
             .set("font-size", "14px")
             .set("margin", "0 0 4px 0")
             .set("font-weight", "500");
+        statusP.getElement().setAttribute("data-field", "status");
 
         // Last seen
         String lastSeenText = getTimeAgo(device.getLastSeen());
@@ -423,6 +427,7 @@ public class CleanDashboard extends VerticalLayout {
             .set("color", "#6b7280")
             .set("font-size", "13px")
             .set("margin", "0");
+        lastSeenP.getElement().setAttribute("data-field", "last-seen");
 
         // Battery display
         HorizontalLayout batteryInfo = new HorizontalLayout();
@@ -457,6 +462,7 @@ public class CleanDashboard extends VerticalLayout {
                 .set("padding", "4px 8px")
                 .set("background", batteryColor + "20")
                 .set("border-radius", "6px");
+            batteryBadge.getElement().setAttribute("data-field", "battery");
             
             if (device.getIsCharging() != null && device.getIsCharging()) {
                 Span chargingBadge = new Span("⚡ Charging");
@@ -3,8 +3,11 @@ package com.example.demo.views;
 import com.example.demo.service.PerfectAuthService;
 import com.example.demo.service.DeviceService;
 import com.example.demo.service.QuickActionsService;
+import com.example.demo.service.LiveMapBroadcaster;
 import com.example.demo.model.Device;
+import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.button.ButtonVariant;
@@ -20,6 +23,7 @@ import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.server.auth.AnonymousAllowed;
+import com.vaadin.flow.shared.Registration;
 // import org.springframework.beans.factory.annotation.Autowired;
 import com.vaadin.flow.component.combobox.ComboBox;
 
@@ -34,13 +38,18 @@ public class CleanMapView extends VerticalLayout {
     private final PerfectAuthService authService;
     private final DeviceService deviceService;
     private final QuickActionsService quickActionsService;
+    private final LiveMapBroadcaster liveMapBroadcaster;
     private String selectedDeviceId;
     private String deviceIdToUpdate;  // Added for delete functionality
+    private List<Device> devices = List.of();  // Loaded once per view; live changes arrive through push
+    private Registration mapUpdates;
 
-    public CleanMapView(PerfectAuthService authService, DeviceService deviceService, QuickActionsService quickActionsService) {
+    public CleanMapView(PerfectAuthService authService, DeviceService deviceService, QuickActionsService quickActionsService,
+                        LiveMapBroadcaster liveMapBroadcaster) {
         this.authService = authService;
         this.deviceService = deviceService;
         this.quickActionsService = quickActionsService;
+        this.liveMapBroadcaster = liveMapBroadcaster;
         
         // Add user email to page for WebSocket subscription
         if (authService.isAuthenticated()) {
@@ -61,6 +70,28 @@ public class CleanMapView extends VerticalLayout {
         createCleanMapInterface();
     }
 
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        String userEmail = authService.isAuthenticated() ? authService.getLoggedInUser() : null;
+        if (userEmail == null) {
+            return;
+        }
+        // Device changes for this user are pushed to this UI at the broadcaster's frame rate
+        UI ui = attachEvent.getUI();
+        mapUpdates = liveMapBroadcaster.register(userEmail, json -> ui.access(() ->
+            ui.getPage().executeJs("window.lapsoMap && window.lapsoMap.updateMarkers(JSON.parse($0))", json)));
+    }
+
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        if (mapUpdates != null) {
+            mapUpdates.remove();
+            mapUpdates = null;
+        }
+        super.onDetach(detachEvent);
+    }
+
     private void createCleanMapInterface() {
         setSizeFull();
         setPadding(false);
@@ -137,7 +168,7 @@ public class CleanMapView extends VerticalLayout {
         refreshBtn.getStyle()
             .set("border-radius", "8px");
         refreshBtn.addClickListener(e -> {
-            UI.getCurrent().getPage().reload();
+            refreshMarkers();
         });
         
         // Delete Device button
@@ -192,7 +223,7 @@ public class CleanMapView extends VerticalLayout {
         }
         
         // Get user devices
-        List<Device> devices = deviceService.getCurrentUserDevices();
+        devices = deviceService.getCurrentUserDevices();
         
         if (devices.isEmpty()) {
             createEmptyMapState(container);
@@ -272,10 +303,12 @@ public class CleanMapView extends VerticalLayout {
                 
                 String safeName = device.getDeviceName() != null ? 
                     device.getDeviceName().replaceAll("[\"'\\\\]", "") : "Unknown";
+                String safeId = device.getDeviceId() != null ? device.getDeviceId().replaceAll("[\"'\\\\]", "") : "";
                 boolean isOnline = device.getIsOnline() != null && device.getIsOnline();
                 
                 devicesJson.append(String.format(
-                    "{\"name\":\"%s\",\"lat\":%f,\"lng\":%f,\"online\":%b}",
+                    "{\"id\":\"%s\",\"name\":\"%s\",\"lat\":%f,\"lng\":%f,\"online\":%b}",
+                    safeId,
                     safeName,
                     device.getLatitude(),
                     device.getLongitude(),
@@ -447,25 +480,28 @@ public class CleanMapView extends VerticalLayout {
                             );
                         }
                         
-                        // Add device markers
-                        devices.forEach(function(device) {
-                            var statusIcon = device.online ? '🟢' : '🔴';
-                            var markerColor = device.online ? '#4caf50' : '#f44336';
-                            
-                            var customIcon = L.divIcon({
+                        function deviceIcon(name, online) {
+                            return L.divIcon({
                                 className: 'custom-device-marker',
-                                html: '<div style="background:' + markerColor + 
+                                html: '<div style="background:' + (online ? '#4caf50' : '#f44336') + 
                                       ';color:white;padding:6px 10px;border-radius:15px;font-weight:bold;' +
                                       'box-shadow:0 2px 8px rgba(0,0,0,0.3);white-space:nowrap;font-size:12px;">' +
-                                      statusIcon + ' ' + device.name + '</div>',
+                                      (online ? '🟢' : '🔴') + ' ' + name + '</div>',
                                 iconSize: [null, null],
                                 iconAnchor: [0, 0]
                             });
+                        }
+                        
+                        // Add device markers
+                        var markers = {};
+                        devices.forEach(function(device) {
+                            var markerColor = device.online ? '#4caf50' : '#f44336';
                             
                             var marker = L.marker([device.lat, device.lng], {
-                                icon: customIcon,
+                                icon: deviceIcon(device.name, device.online),
                                 title: device.name
                             }).addTo(map);
+                            markers[device.id] = { marker: marker, name: device.name, online: device.online };
                             
                             var popupContent = '<div style="padding:8px;">' +
                                 '<b style="font-size:14px;">' + device.name + '</b><br>' + 
@@ -506,6 +542,53 @@ public class CleanMapView extends VerticalLayout {
                             });
                         });
                         
+                        // Incremental updates pushed by the server (LiveMapBroadcaster). Deltas arriving
+                        // within one animation frame are merged and applied together.
+                        var queued = {};
+                        var frameRequested = false;
+                        
+                        function applyQueued() {
+                            frameRequested = false;
+                            var batch = queued;
+                            queued = {};
+                            Object.keys(batch).forEach(function(id) {
+                                var change = batch[id];
+                                var entry = markers[id];
+                                if (!entry) {
+                                    if (change.la == null || change.lo == null) {
+                                        return;
+                                    }
+                                    // Device got its first location while the map was open
+                                    entry = markers[id] = { marker: null, name: change.n || id, online: !!change.o };
+                                    entry.marker = L.marker([change.la, change.lo], {
+                                        icon: deviceIcon(entry.name, entry.online),
+                                        title: entry.name
+                                    }).addTo(map);
+                                    return;
+                                }
+                                if (change.la != null && change.lo != null) {
+                                    entry.marker.setLatLng([change.la, change.lo]);
+                                }
+                                if (('o' in change && change.o !== entry.online) || (change.n && change.n !== entry.name)) {
+                                    entry.online = 'o' in change ? change.o : entry.online;
+                                    entry.name = change.n || entry.name;
+                                    entry.marker.setIcon(deviceIcon(entry.name, entry.online));
+                                }
+                            });
+                        }
+                        
+                        window.lapsoMap = {
+                            updateMarkers: function(delta) {
+                                delta.forEach(function(change) {
+                                    queued[change.id] = Object.assign(queued[change.id] || {}, change);
+                                });
+                                if (!frameRequested) {
+                                    frameRequested = true;
+                                    requestAnimationFrame(applyQueued);
+                                }
+                            }
+                        };
+                        
                         console.log('Mappls map loaded successfully with ' + devices.length + ' device(s)');
                         
                     } catch (error) {
@@ -525,10 +608,24 @@ public class CleanMapView extends VerticalLayout {
         UI.getCurrent().getPage().executeJs(mapScript);
     }
     
+    /**
+     * Resync every marker in place, without rebuilding the map
+     */
+    private void refreshMarkers() {
+        try {
+            devices = deviceService.getCurrentUserDevices();
+            UI.getCurrent().getPage().executeJs(
+                "window.lapsoMap && window.lapsoMap.updateMarkers(JSON.parse($0))", liveMapBroadcaster.encodeAll(devices));
+            Notification.show("Map refreshed", 2000, Notification.Position.TOP_CENTER)
+                .addThemeVariants(NotificationVariant.LUMO_SUCCESS);
+        } catch (Exception e) {
+            Notification.show("Failed to refresh map", 3000, Notification.Position.MIDDLE)
+                .addThemeVariants(NotificationVariant.LUMO_ERROR);
+        }
+    }
+    
     private void updateDeviceLocationFromBrowser() {
-        // Get user's devices
-        List<Device> devices = deviceService.getCurrentUserDevices();
-        
+        // Devices loaded with the view
         if (devices.isEmpty()) {
             Notification.show("No devices found", 3000, Notification.Position.MIDDLE)
                 .addThemeVariants(NotificationVariant.LUMO_ERROR);
@@ -577,10 +674,9 @@ public class CleanMapView extends VerticalLayout {
                         .then(response => response.json())
                         .then(data => {
                             if (data.success) {
-                                notification.textContent = 'Device location updated! Reloading map...';
-                                setTimeout(() => {
-                                    location.reload();
-                                }, 2000);
+                                // The marker moves through server push; no reload needed
+                                notification.textContent = 'Device location updated!';
+                                setTimeout(() => notification.remove(), 3000);
                             } else {
                                 notification.textContent = 'Error: ' + data.message;
                                 notification.style.background = '#f44336';
@@ -0,0 +1,5 @@
+-- Per-device agent secret
+-- Issued once when the agent registers and required on the agent's STOMP CONNECT; only its
+-- SHA-256 is stored, so a database read does not reveal a usable secret
+
+ALTER TABLE laptops ADD COLUMN IF NOT EXISTS agent_token_hash VARCHAR(64);
@@ -0,0 +1,6 @@
+-- Per-user token for the device SSE feed
+-- Kiosks, wallboards and scripts present it instead of a browser session; only its SHA-256 is stored
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS feed_token_hash VARCHAR(64);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_users_feed_token_hash ON users(feed_token_hash);
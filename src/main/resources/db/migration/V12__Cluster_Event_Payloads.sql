@@ -0,0 +1,10 @@
+-- Cluster event payloads too large for NOTIFY
+-- ClusterEventBus stores the event here and notifies its row id; rows are purged after a few minutes
+
+CREATE TABLE IF NOT EXISTS cluster_event_payloads (
+    id BIGSERIAL PRIMARY KEY,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_cluster_event_payloads_created_at ON cluster_event_payloads(created_at);
@@ -0,0 +1,20 @@
+-- Transactional outbox
+-- Side effects (WebSocket pushes, emails) written in the same transaction as the device update
+-- and delivered after commit by OutboxDispatcher
+
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGSERIAL PRIMARY KEY,
+    aggregate_key VARCHAR(255) NOT NULL,
+    event_type VARCHAR(255) NOT NULL,
+    destination VARCHAR(255),
+    recipient VARCHAR(255),
+    payload TEXT,
+    status VARCHAR(255) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Dispatcher reads pending events in id order
+CREATE INDEX IF NOT EXISTS idx_outbox_events_status_id ON outbox_events(status, id);
@@ -0,0 +1,19 @@
+-- Polygon and corridor geofences
+-- encoded_vertices holds the ring/route in encoded polyline format;
+-- for corridors radius_meters is the half-width. The bounding box is maintained by the application.
+
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS shape VARCHAR(255) DEFAULT 'CIRCLE';
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS encoded_vertices TEXT;
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS min_latitude DOUBLE PRECISION;
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS min_longitude DOUBLE PRECISION;
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS max_latitude DOUBLE PRECISION;
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS max_longitude DOUBLE PRECISION;
+
+-- Backfill boxes for existing circles (same 111000 m/degree bound the application uses)
+UPDATE geofences SET
+    shape = COALESCE(shape, 'CIRCLE'),
+    min_latitude = GREATEST(-90, center_latitude - radius_meters / 111000.0),
+    max_latitude = LEAST(90, center_latitude + radius_meters / 111000.0),
+    min_longitude = GREATEST(-180, center_longitude - radius_meters / (111000.0 * GREATEST(COS(RADIANS(LEAST(89.0, ABS(center_latitude) + radius_meters / 111000.0))), 0.000001))),
+    max_longitude = LEAST(180, center_longitude + radius_meters / (111000.0 * GREATEST(COS(RADIANS(LEAST(89.0, ABS(center_latitude) + radius_meters / 111000.0))), 0.000001)))
+WHERE min_latitude IS NULL;
@@ -0,0 +1,10 @@
+-- Geofence membership snapshot
+-- Which fences each device is inside, restored at startup to avoid re-firing ENTRY alerts
+
+CREATE TABLE IF NOT EXISTS geofence_membership (
+    device_id VARCHAR(255) PRIMARY KEY,
+    fence_ids TEXT,
+    updated_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_geofence_membership_updated_at ON geofence_membership(updated_at);
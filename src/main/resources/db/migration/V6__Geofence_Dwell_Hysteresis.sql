@@ -0,0 +1,4 @@
+-- Per-fence transition thresholds; NULL falls back to app.geofence.default-* settings
+
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS dwell_seconds INTEGER;
+ALTER TABLE geofences ADD COLUMN IF NOT EXISTS hysteresis_meters DOUBLE PRECISION;
@@ -0,0 +1,22 @@
+-- Index-assisted geofence containment
+-- Fences are matched by their bounding box in the database and by exact shape in the application.
+-- The GiST index uses the built-in box type, so no PostGIS extension is required.
+
+-- Rows created before V4 that the backfill could not cover
+UPDATE geofences SET
+    min_latitude = GREATEST(-90, center_latitude - radius_meters / 111000.0),
+    max_latitude = LEAST(90, center_latitude + radius_meters / 111000.0),
+    min_longitude = -180,
+    max_longitude = 180
+WHERE min_latitude IS NULL OR min_longitude IS NULL OR max_latitude IS NULL OR max_longitude IS NULL;
+
+-- Point-in-box lookups: box(...) @> point(lng, lat)
+CREATE INDEX IF NOT EXISTS idx_geofences_bbox_gist ON geofences
+    USING gist (box(point(min_longitude, min_latitude), point(max_longitude, max_latitude)))
+    WHERE is_active = true;
+
+-- Per-user range scan for the portable bounding-box query
+CREATE INDEX IF NOT EXISTS idx_geofences_user_bbox ON geofences(user_id, min_latitude, max_latitude)
+    WHERE is_active = true;
+
+ANALYZE geofences;
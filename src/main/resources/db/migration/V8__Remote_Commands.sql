@@ -0,0 +1,29 @@
+-- Durable device command queue
+-- Agents claim PENDING commands with SELECT ... FOR UPDATE SKIP LOCKED, so any node can serve
+-- a poll and two concurrent polls never receive the same command
+
+CREATE TABLE IF NOT EXISTS remote_commands (
+    id BIGSERIAL PRIMARY KEY,
+    device_id BIGINT NOT NULL REFERENCES laptops(id) ON DELETE CASCADE,
+    user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    command_type VARCHAR(255) NOT NULL,
+    command_params TEXT,
+    status VARCHAR(255) NOT NULL DEFAULT 'PENDING',
+    priority INTEGER NOT NULL DEFAULT 5,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    sent_at TIMESTAMP,
+    executed_at TIMESTAMP,
+    completed_at TIMESTAMP,
+    expires_at TIMESTAMP,
+    result TEXT,
+    screenshot_url VARCHAR(255),
+    retry_count INTEGER DEFAULT 0,
+    max_retries INTEGER DEFAULT 3
+);
+
+-- Claim order for one device; only pending rows are indexed
+CREATE INDEX IF NOT EXISTS idx_remote_commands_pending ON remote_commands(device_id, priority DESC, created_at, id)
+    WHERE status = 'PENDING';
+
+-- History per device
+CREATE INDEX IF NOT EXISTS idx_remote_commands_device_created ON remote_commands(device_id, created_at DESC);
@@ -0,0 +1,5 @@
+-- Outbox claiming across nodes
+-- A node claims due events (status CLAIMED, next_attempt_at = lease expiry) before delivering them;
+-- devices with a claimed event are skipped by other nodes, which needs a lookup by aggregate key
+
+CREATE INDEX IF NOT EXISTS idx_outbox_events_key_status ON outbox_events(aggregate_key, status);
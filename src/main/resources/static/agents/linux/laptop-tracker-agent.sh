@@ -182,13 +182,56 @@ EOF
     fi
 }
 
+# Device id and owner written by the installer; the device token is kept next to them
+LAPSO_DIR="/opt/lapso"
+CONFIG_FILE="$LAPSO_DIR/config.json"
+TOKEN_FILE="$LAPSO_DIR/device.token"
+DEVICE_TOKEN=""
+
+config_value() {
+    grep -o "\"$1\": *\"[^\"]*\"" "$CONFIG_FILE" 2>/dev/null | sed "s/\"$1\": *\"\([^\"]*\)\"/\1/"
+}
+
+# Load the device token, registering the device for one if there is none yet. The server only
+# issues it to a device it has not seen; for an existing device the owner reissues it from the
+# dashboard and saves it to $TOKEN_FILE.
+ensure_device_token() {
+    if [ -s "$TOKEN_FILE" ]; then
+        DEVICE_TOKEN=$(cat "$TOKEN_FILE")
+        return 0
+    fi
+    
+    local device_id user_email fingerprint response token
+    device_id=$(config_value deviceId)
+    user_email=$(config_value userEmail)
+    if [ -z "$device_id" ] || [ -z "$user_email" ]; then
+        echo "No device id or owner email in $CONFIG_FILE - cannot obtain a device token"
+        return 1
+    fi
+    fingerprint=$(printf '%s:%s' "$device_id" "$user_email" | sha256sum | awk '{print $1}')
+    
+    response=$(curl -s -X POST \
+        -H "Content-Type: application/json" \
+        -d "{\"deviceId\":\"$device_id\",\"ownerEmail\":\"$user_email\",\"deviceName\":\"$(hostname)\",\"deviceOwnerFingerprint\":\"$fingerprint\"}" \
+        "$SERVER_URL/api/devices/register")
+    token=$(echo "$response" | grep -o '"deviceToken": *"[^"]*"' | sed 's/"deviceToken": *"\([^"]*\)"/\1/')
+    if [ -z "$token" ]; then
+        echo "No device token issued - reissue it from the dashboard and save it to $TOKEN_FILE"
+        return 1
+    fi
+    
+    (umask 077 && printf '%s' "$token" > "$TOKEN_FILE")
+    DEVICE_TOKEN="$token"
+    echo "Device token issued and saved"
+}
+
 # Function to get pending commands from server
 get_pending_commands() {
     local serial_number="$1"
     
     echo "Checking for pending commands..."
     
-    RESPONSE=$(curl -s -w "%{http_code}" "$SERVER_URL/api/agent/commands/$serial_number")
+    RESPONSE=$(curl -s -w "%{http_code}" ${DEVICE_TOKEN:+-H "X-Device-Token: $DEVICE_TOKEN"} "$SERVER_URL/api/agent/commands/$serial_number")
     
     HTTP_CODE=$(echo "$RESPONSE" | tail -c 4)
     RESPONSE_BODY=$(echo "$RESPONSE" | head -c -4)
@@ -422,6 +465,9 @@ DEVICE_INFO=$(get_device_info)
 if [ -n "$DEVICE_INFO" ]; then
     echo "Device information collected successfully"
     
+    # The command channel needs the device token
+    ensure_device_token
+    
     # Send device information to server
     if send_device_data "$DEVICE_INFO"; then
         echo "Device registered successfully"
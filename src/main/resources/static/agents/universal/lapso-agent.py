@@ -13,6 +13,8 @@ import requests
 import platform
 import subprocess
 import threading
+import hashlib
+from collections import OrderedDict
 from datetime import datetime
 import psutil
 import socket
@@ -24,6 +26,12 @@ class LapsoAgent:
         self.user_email = user_email
         self.running = True
         self.update_interval = 30  # seconds
+        # Secret for the command channel, issued by the server once when the device registers
+        self.token_file = os.path.join(os.path.expanduser("~"), ".lapso", f"{self.device_id}.token")
+        self.device_token = self.load_device_token()
+        # Command ids already run; a resend after a lost ack or result must never run e.g. a WIPE twice
+        self.seen_commands = OrderedDict()
+        self.seen_commands_lock = threading.Lock()
         
         print(f"🛡️ LAPSO Agent Starting...")
         print(f"📱 Platform: {platform.system()} {platform.release()}")
@@ -42,6 +50,40 @@ class LapsoAgent:
         except:
             return f"LAPSO-{platform.system()[:3].upper()}-{int(time.time())}"
     
+    def load_device_token(self):
+        try:
+            with open(self.token_file) as f:
+                return f.read().strip() or None
+        except OSError:
+            return None
+    
+    def save_device_token(self, token):
+        """Keep the device token across restarts; only the owner can have it reissued from the dashboard"""
+        try:
+            os.makedirs(os.path.dirname(self.token_file), exist_ok=True)
+            fd = os.open(self.token_file, os.O_WRONLY | os.O_CREAT | os.O_TRUNC, 0o600)
+            with os.fdopen(fd, "w") as f:
+                f.write(token)
+        except OSError as e:
+            print(f"⚠️ Could not save device token: {e}")
+        self.device_token = token
+    
+    def token_headers(self):
+        """The server requires the device token on command polls once it has issued one"""
+        return {"X-Device-Token": self.device_token} if self.device_token else {}
+    
+    def first_delivery(self, command_id, keep=256):
+        """True the first time a command id is seen; remembers the last `keep` ids"""
+        if command_id is None:
+            return True
+        with self.seen_commands_lock:
+            if command_id in self.seen_commands:
+                return False
+            self.seen_commands[command_id] = time.time()
+            while len(self.seen_commands) > keep:
+                self.seen_commands.popitem(last=False)
+            return True
+    
     def get_system_info(self):
         """Get comprehensive system information"""
         try:
@@ -238,6 +280,10 @@ class LapsoAgent:
         try:
             system_info = self.get_system_info()
             
+            system_info["ownerEmail"] = self.user_email
+            system_info["deviceOwnerFingerprint"] = hashlib.sha256(
+                f"{self.device_id}:{self.user_email}".encode()).hexdigest()
+            
             response = requests.post(
                 f"{self.server_url}/api/devices/register",
                 json=system_info,
@@ -246,6 +292,8 @@ class LapsoAgent:
             
             if response.status_code == 200:
                 result = response.json()
+                if result.get('deviceToken'):
+                    self.save_device_token(result['deviceToken'])
                 print(f"✅ Device registered successfully: {result.get('message', 'OK')}")
                 return True
             else:
@@ -284,6 +332,7 @@ class LapsoAgent:
             response = requests.get(
                 f"{self.server_url}/api/device-commands/poll/{self.device_id}",
                 params={"userEmail": self.user_email},
+                headers=self.token_headers(),
                 timeout=5
             )
             
@@ -292,7 +341,8 @@ class LapsoAgent:
                 commands = data.get('commands', [])
                 
                 for command in commands:
-                    self.execute_command(command)
+                    if self.first_delivery(command.get('commandId')):
+                        self.execute_command(command)
                 
                 return True
             else:
@@ -303,6 +353,118 @@ class LapsoAgent:
             print(f"❌ Command poll error: {e}")
             return False
     
+    def wait_for_commands(self, wait_seconds=55):
+        """Long poll: the server answers as soon as a command is queued, or after wait_seconds"""
+        response = requests.get(
+            f"{self.server_url}/api/device-commands/wait/{self.device_id}",
+            params={"userEmail": self.user_email, "timeoutSeconds": wait_seconds},
+            headers=self.token_headers(),
+            timeout=wait_seconds + 15
+        )
+        if response.status_code == 404 and b'"success"' not in response.content:
+            return None  # Server without long poll support
+        if response.status_code != 200:
+            print(f"⚠️ Command wait failed: {response.status_code}")
+            return False
+        for command in response.json().get('commands', []):
+            if self.first_delivery(command.get('commandId')):
+                self.execute_command(command)
+        return True
+    
+    @staticmethod
+    def stomp_frame(command, headers, body=""):
+        lines = [command] + [f"{key}:{value}" for key, value in headers.items()]
+        return "\n".join(lines) + "\n\n" + body + "\x00"
+    
+    @staticmethod
+    def parse_stomp_frame(data):
+        head, _, body = data.partition("\n\n")
+        lines = head.lstrip("\r\n").split("\n")
+        headers = dict(line.split(":", 1) for line in lines[1:] if ":" in line)
+        return lines[0], headers, body.rstrip("\x00")
+    
+    def command_socket(self, websocket):
+        """Receive pushed commands over STOMP on /mobile-ws until the connection drops"""
+        if not self.device_token:
+            raise Exception(f"no device token - it is issued when the device first registers, or reissued by its owner into {self.token_file}")
+        ws_url = self.server_url.replace("http", "ws", 1) + "/mobile-ws"
+        ws = websocket.create_connection(ws_url, timeout=30)
+        try:
+            ws.send(self.stomp_frame("CONNECT", {
+                "accept-version": "1.2",
+                "host": self.server_url.split("://", 1)[-1].split("/", 1)[0],
+                "heart-beat": "25000,25000",
+                "device-id": self.device_id,
+                "user-email": self.user_email,
+                "device-token": self.device_token,
+            }))
+            command, headers, body = self.parse_stomp_frame(ws.recv())
+            if command != "CONNECTED":
+                raise Exception(headers.get("message", command))
+            ws.send(self.stomp_frame("SUBSCRIBE", {"id": "commands", "destination": "/user/queue/commands"}))
+            print("🔌 Command channel connected - commands are pushed instantly")
+            
+            ws.settimeout(25)
+            last_received = time.time()
+            while self.running:
+                try:
+                    data = ws.recv()
+                except websocket.WebSocketTimeoutException:
+                    if time.time() - last_received > 75:
+                        raise Exception("server heartbeat lost")
+                    ws.send("\n")  # Our heartbeat
+                    continue
+                last_received = time.time()
+                if not data.strip("\r\n"):
+                    continue  # Server heartbeat
+                command, headers, body = self.parse_stomp_frame(data)
+                if command == "ERROR":
+                    raise Exception(headers.get("message", "STOMP error"))
+                if command == "MESSAGE":
+                    cmd = json.loads(body)
+                    # Ack resends too, so the server stops retrying, but run each command only once
+                    ws.send(self.stomp_frame("SEND", {"destination": "/app/agent/ack", "content-type": "application/json"},
+                                             json.dumps({"commandId": cmd.get("commandId")})))
+                    if not self.first_delivery(cmd.get("commandId")):
+                        print(f"↩️ Ignoring repeated command {cmd.get('commandId')}")
+                        continue
+                    threading.Thread(target=self.execute_command, args=(cmd,), daemon=True).start()
+        finally:
+            ws.close()
+    
+    def command_loop(self):
+        """Receive commands right away via the push channel or long poll; fall back to polling on the update interval"""
+        try:
+            import websocket  # pip install websocket-client
+        except ImportError:
+            websocket = None
+            print("ℹ️ websocket-client not installed, using long poll for commands")
+        
+        long_poll = True
+        while self.running:
+            try:
+                if websocket is not None:
+                    try:
+                        self.command_socket(websocket)
+                    except Exception as e:
+                        print(f"⚠️ Command channel down ({e}), using long poll until it reconnects")
+                    # One long poll picks up commands sent back to the queue while the socket was down
+                    if self.wait_for_commands() is False:
+                        time.sleep(5)
+                elif long_poll:
+                    result = self.wait_for_commands()
+                    if result is None:
+                        print("ℹ️ Server has no long poll, polling every update interval")
+                        long_poll = False
+                    elif result is False:
+                        time.sleep(5)
+                else:
+                    self.poll_commands()
+                    time.sleep(self.update_interval)
+            except Exception as e:
+                print(f"❌ Command wait error: {e}")
+                time.sleep(5)
+    
     def execute_command(self, command):
         """Execute a command from the server"""
         try:
@@ -474,15 +636,15 @@ class LapsoAgent:
         if not self.register_device():
             print("❌ Failed to register device, continuing anyway...")
         
+        # Commands arrive on their own thread so they don't wait for the next status update
+        threading.Thread(target=self.command_loop, daemon=True).start()
+        
         # Main loop
         while self.running:
             try:
                 # Update device status
                 self.update_device_status()
                 
-                # Poll for commands
-                self.poll_commands()
-                
                 # Wait for next update
                 time.sleep(self.update_interval)
                 
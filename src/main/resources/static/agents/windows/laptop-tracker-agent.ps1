@@ -34,6 +34,57 @@ function Write-Log {
 if ([string]::IsNullOrWhiteSpace($DeviceId)) { Write-Error "DeviceId is required"; exit 1 }
 if ([string]::IsNullOrWhiteSpace($UserEmail)) { Write-Error "UserEmail is required"; exit 1 }
 
+# Secret for the command channel, issued when the device first registers
+$DeviceTokenFile = Join-Path (Join-Path $env:ProgramData "Lapso") "device.token"
+$DeviceToken = $null
+
+function Get-DeviceToken {
+    if (Test-Path $DeviceTokenFile) {
+        $token = (Get-Content -Path $DeviceTokenFile -Raw).Trim()
+        if ($token) { return $token }
+    }
+    return $null
+}
+
+function Save-DeviceToken {
+    param([string]$Token)
+    $dir = Split-Path $DeviceTokenFile
+    if (-not (Test-Path $dir)) { New-Item -Path $dir -ItemType Directory -Force | Out-Null }
+    Set-Content -Path $DeviceTokenFile -Value $Token -NoNewline
+    # Readable by SYSTEM and Administrators only
+    & icacls $DeviceTokenFile /inheritance:r /grant:r "*S-1-5-18:F" "*S-1-5-32-544:F" | Out-Null
+}
+
+# Register the device to obtain its token. The server only issues one to a device it has not seen;
+# for an existing device the owner reissues it from the dashboard and saves it to $DeviceTokenFile.
+function Register-DeviceToken {
+    param(
+        [string]$DeviceId,
+        [string]$UserEmail
+    )
+    try {
+        $sha = [System.Security.Cryptography.SHA256]::Create()
+        $hash = $sha.ComputeHash([System.Text.Encoding]::UTF8.GetBytes("${DeviceId}:${UserEmail}"))
+        $fingerprint = -join ($hash | ForEach-Object { $_.ToString("x2") })
+        $body = @{
+            deviceId = $DeviceId
+            ownerEmail = $UserEmail
+            deviceName = $env:COMPUTERNAME
+            deviceOwnerFingerprint = $fingerprint
+        } | ConvertTo-Json
+        $resp = Invoke-RestMethod -Uri "$ServerUrl/api/devices/register" -Method Post -Body $body -ContentType 'application/json' -TimeoutSec 15
+        if ($resp.deviceToken) {
+            Save-DeviceToken -Token $resp.deviceToken
+            Write-Log "Device token issued and saved" "INFO"
+            return $resp.deviceToken
+        }
+        Write-Log ("No device token issued - reissue it from the dashboard and save it to {0}" -f $DeviceTokenFile) "WARN"
+    } catch {
+        Write-Log ("Device registration failed: {0}" -f $_.Exception.Message) "ERROR"
+    }
+    return $null
+}
+
 function Send-Heartbeat {
     param(
         [string]$DeviceId,
@@ -312,7 +363,9 @@ function Get-PendingCommands {
     )
     try {
         $uri = "$ServerUrl/api/device-commands/poll/${DeviceId}?userEmail=$UserEmail"
-        $response = Invoke-RestMethod -Uri $uri -Method Get -TimeoutSec 10
+        $headers = @{}
+        if ($script:DeviceToken) { $headers["X-Device-Token"] = $script:DeviceToken }
+        $response = Invoke-RestMethod -Uri $uri -Method Get -Headers $headers -TimeoutSec 10
         
         Write-Log "🔍 POLL RESPONSE: success=$($response.success), commandCount=$($response.commandCount)" "INFO"
         Write-Log "🔍 POLL RESPONSE: commands type=$($response.commands.GetType().Name), count=$($response.commands.Count)" "INFO"
@@ -598,6 +651,12 @@ Write-Log ("User Email: {0}" -f $UserEmail) "INFO"
 Write-Log ("Agent Version: {0}" -f $AgentVersion) "INFO"
 Write-Log "Agent is running - sending heartbeats and polling for commands every 30 seconds" "INFO"
 
+# Register before the first heartbeat, which would create the device without a token
+$DeviceToken = Get-DeviceToken
+if (-not $DeviceToken) {
+    $DeviceToken = Register-DeviceToken -DeviceId $DeviceId -UserEmail $UserEmail
+}
+
 while ($true) {
     try {
         # Check for agent updates periodically
@@ -607,7 +666,8 @@ while ($true) {
         $location = Get-DeviceLocation
         [void](Send-Heartbeat -DeviceId $DeviceId -UserEmail $UserEmail -DeviceInfo $deviceInfo -Location $location)
         
-        # Poll for and execute pending commands
+        # Poll for and execute pending commands; pick up a token the owner has saved since
+        if (-not $DeviceToken) { $DeviceToken = Get-DeviceToken }
         Process-PendingCommands -DeviceId $DeviceId -UserEmail $UserEmail
     } catch {
         Write-Log ("Agent loop error: {0}" -f $_.Exception.Message) "ERROR"
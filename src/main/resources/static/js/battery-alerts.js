@@ -78,9 +78,11 @@ class BatteryAlertSystem {
             this.handleAlert(JSON.parse(message.body));
         });
         
-        // Subscribe to device updates as well
-        this.stompClient.subscribe('/topic/device-updates', (message) => {
-            this.handleDeviceUpdate(JSON.parse(message.body));
+        // Updates for this user's own and shared devices only
+        this.stompClient.subscribe('/user/queue/devices', (message) => {
+            // Batched frame with the latest update of every device that changed since the last one
+            const frame = JSON.parse(message.body);
+            (frame.updates || [frame]).forEach((update) => this.handleDeviceUpdate(update));
         });
         
         this.showConnectionStatus(true);
@@ -7,6 +7,13 @@ class LapsoRealTime {
     constructor() {
         this.updateInterval = 30000; // 30 seconds
         this.isConnected = false;
+        
+        // Live device state from /user/queue/device-deltas: handle -> device fields
+        this.stompClient = null;
+        this.devices = {};
+        this.lastSeq = null;
+        this.snapshotPending = false;
+        window.addEventListener('lapso:device-delta', (event) => this.updateDeviceCard(event.detail));
         this.init();
     }
     
@@ -16,9 +23,117 @@ class LapsoRealTime {
         console.log('🎯 Honest tracking - no false claims about accuracy');
         this.startLocationUpdates();
         this.startStatusMonitoring();
+        this.startDeltaStream();
         this.showRealTimeIndicator();
     }
     
+    /**
+     * Field-level device deltas over STOMP.
+     * A snapshot carries every field of every device keyed by a small handle; after that each
+     * frame only carries changed fields. Frames are numbered, and a gap triggers a new snapshot.
+     */
+    startDeltaStream() {
+        if (typeof SockJS === 'undefined' || typeof Stomp === 'undefined') {
+            return; // Page without the STOMP client
+        }
+        this.stompClient = Stomp.over(new SockJS('/ws'));
+        this.stompClient.debug = null;
+        this.stompClient.connect({}, () => {
+            this.stompClient.subscribe('/user/queue/device-deltas', (message) => {
+                this.applyDelta(JSON.parse(message.body));
+            });
+            this.requestSnapshot();
+        }, () => {
+            // Reconnect and resync from a fresh snapshot
+            this.lastSeq = null;
+            setTimeout(() => this.startDeltaStream(), 5000);
+        });
+    }
+    
+    /**
+     * Ask for a full snapshot; it is answered directly to this session
+     */
+    requestSnapshot() {
+        if (this.snapshotPending || !this.stompClient) {
+            return;
+        }
+        this.snapshotPending = true;
+        const subscription = this.stompClient.subscribe('/app/devices/snapshot', (message) => {
+            subscription.unsubscribe();
+            this.snapshotPending = false;
+            this.applySnapshot(JSON.parse(message.body));
+        });
+    }
+    
+    applySnapshot(frame) {
+        this.devices = {};
+        frame.d.forEach((device) => {
+            this.devices[device.h] = device;
+            this.emitDeviceDelta(device, device);
+        });
+        this.lastSeq = frame.s;
+        console.log('📡 Device snapshot received:', frame.d.length, 'device(s) at seq', frame.s);
+    }
+    
+    applyDelta(frame) {
+        if (this.lastSeq === null) {
+            return; // Waiting for the snapshot
+        }
+        if (frame.s <= this.lastSeq) {
+            return; // Already covered by the snapshot
+        }
+        if (frame.s !== this.lastSeq + 1) {
+            console.warn('⚠️ Device delta gap', this.lastSeq, '->', frame.s, '- resyncing');
+            this.lastSeq = null;
+            this.requestSnapshot();
+            return;
+        }
+        this.lastSeq = frame.s;
+        frame.u.forEach((changed) => {
+            const device = Object.assign(this.devices[changed.h] || {}, changed);
+            this.devices[changed.h] = device;
+            this.emitDeviceDelta(device, changed);
+        });
+        this.showUpdateIndicator();
+    }
+    
+    /**
+     * Notify the map and dashboard widgets; detail.changed only holds the fields in this frame
+     */
+    emitDeviceDelta(device, changed) {
+        window.dispatchEvent(new CustomEvent('lapso:device-delta', {
+            detail: { id: device.id, device: device, changed: changed }
+        }));
+    }
+    
+    /**
+     * Refresh a dashboard device card (data-device-id) from the fields that changed
+     */
+    updateDeviceCard(detail) {
+        const card = document.querySelector(`[data-device-id="${CSS.escape(detail.id || '')}"]`);
+        if (!card) {
+            return;
+        }
+        const device = detail.device;
+        const changed = detail.changed;
+        const status = card.querySelector('[data-field="status"]');
+        if (status && ('o' in changed || 'ad' in changed)) {
+            status.textContent = device.o ? (device.ad || 'Online') : 'Offline';
+            status.style.color = device.o ? '#059669' : '#6b7280';
+        }
+        const battery = card.querySelector('[data-field="battery"]');
+        if (battery && 'b' in changed && device.b != null) {
+            const color = device.b >= 80 ? '#059669' : device.b >= 50 ? '#3b82f6' : device.b >= 20 ? '#f59e0b' : '#ef4444';
+            battery.textContent = (device.b >= 20 ? '🔋' : '🪫') + ' ' + device.b + '%';
+            battery.style.color = color;
+            battery.style.background = color + '20';
+        }
+        const lastSeen = card.querySelector('[data-field="last-seen"]');
+        if (lastSeen && 'ls' in changed && device.ls != null) {
+            lastSeen.textContent = 'just now';
+        }
+    }
+    
     /**
      * Start real-time location updates (every 30 seconds)
      * Microsoft Find My Device requires manual refresh
@@ -211,12 +326,21 @@ style.textContent = `
 document.head.appendChild(style);
 
 // Initialize LAPSO Real-Time System
-document.addEventListener('DOMContentLoaded', () => {
+// Views add this script after the page has loaded, when DOMContentLoaded has already fired
+function startLapsoRealTime() {
+    if (window.lapsoRealTime) {
+        return;
+    }
     window.lapsoRealTime = new LapsoRealTime();
     console.log('🛡️ LAPSO Real-Time System Initialized');
     console.log('⚡ Updates every 30 seconds - More frequent than Microsoft Find My Device');
     console.log('🎯 Honest reality: Requires devices to be online for tracking');
-});
+}
+if (document.readyState === 'loading') {
+    document.addEventListener('DOMContentLoaded', startLapsoRealTime);
+} else {
+    startLapsoRealTime();
+}
 
 // Export for global access
 window.LapsoRealTime = LapsoRealTime;
\ No newline at end of file
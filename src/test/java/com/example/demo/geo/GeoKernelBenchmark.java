@@ -0,0 +1,165 @@
+package com.example.demo.geo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GeoKernel accuracy against speed. Times each distance formula over point pairs a given
+ * distance apart, and prints each formula's error for the same pairs once per run: against
+ * Vincenty (WGS84, the true distance) and against haversine (the error of the approximation
+ * itself), so the cost of every formula can be read next to what it gives up.
+ * mathCosHaversine is the formula as it was before the cos(latitude) table.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.geo.GeoKernelBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoKernelBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    // Pair separation: a geofence check, a city-scale hop, a flight
+    @Param({"1", "100", "2000"})
+    private double distanceKm;
+
+    private final double[] lat1 = new double[PAIRS];
+    private final double[] lng1 = new double[PAIRS];
+    private final double[] lat2 = new double[PAIRS];
+    private final double[] lng2 = new double[PAIRS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        double angular = distanceKm * 1000 / GeoKernel.EARTH_RADIUS_METERS;
+        for (int i = 0; i < PAIRS; i++) {
+            lat1[i] = random.nextDouble() * 120 - 60;
+            // Clear of the antimeridian, which the equirectangular formula does not handle
+            lng1[i] = random.nextDouble() * 280 - 140;
+            // Spherical destination point at the given distance and a random bearing
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double phi1 = Math.toRadians(lat1[i]);
+            double phi2 = Math.asin(Math.sin(phi1) * Math.cos(angular) + Math.cos(phi1) * Math.sin(angular) * Math.cos(bearing));
+            double dLambda = Math.atan2(Math.sin(bearing) * Math.sin(angular) * Math.cos(phi1),
+                    Math.cos(angular) - Math.sin(phi1) * Math.sin(phi2));
+            lat2[i] = Math.toDegrees(phi2);
+            lng2[i] = lng1[i] + Math.toDegrees(dLambda);
+        }
+        printAccuracy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double haversine() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += GeoKernel.haversineMeters(lat1[i], lng1[i], lat2[i], lng2[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double mathCosHaversine() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += mathCosHaversine(lat1[i], lng1[i], lat2[i], lng2[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double equirectangular() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += GeoKernel.equirectangularMeters(lat1[i], lng1[i], lat2[i], lng2[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double distance() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += GeoKernel.distanceMeters(lat1[i], lng1[i], lat2[i], lng2[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public double vincenty() {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += GeoKernel.vincentyMeters(lat1[i], lng1[i], lat2[i], lng2[i]);
+        }
+        return sum;
+    }
+
+    // Mean and worst relative error of each formula against Vincenty and haversine for this run's pairs
+    private void printAccuracy() {
+        String[] names = {"haversine", "mathCosHaversine", "equirectangular", "distance"};
+        double[] sums = new double[names.length];
+        double[] worst = new double[names.length];
+        double[] sphereSums = new double[names.length];
+        double[] sphereWorst = new double[names.length];
+        for (int i = 0; i < PAIRS; i++) {
+            double reference = GeoKernel.vincentyMeters(lat1[i], lng1[i], lat2[i], lng2[i]);
+            double sphere = mathCosHaversine(lat1[i], lng1[i], lat2[i], lng2[i]);
+            double[] values = {
+                GeoKernel.haversineMeters(lat1[i], lng1[i], lat2[i], lng2[i]),
+                mathCosHaversine(lat1[i], lng1[i], lat2[i], lng2[i]),
+                GeoKernel.equirectangularMeters(lat1[i], lng1[i], lat2[i], lng2[i]),
+                GeoKernel.distanceMeters(lat1[i], lng1[i], lat2[i], lng2[i])
+            };
+            for (int k = 0; k < names.length; k++) {
+                double error = Math.abs(values[k] - reference) / reference;
+                sums[k] += error;
+                worst[k] = Math.max(worst[k], error);
+                double sphereError = Math.abs(values[k] - sphere) / sphere;
+                sphereSums[k] += sphereError;
+                sphereWorst[k] = Math.max(sphereWorst[k], sphereError);
+            }
+        }
+        System.out.println();
+        System.out.printf("Relative error at %.0f km        vs Vincenty (mean / worst)   vs haversine (mean / worst)%n", distanceKm);
+        for (int k = 0; k < names.length; k++) {
+            System.out.printf("  %-18s %12.5f%% / %.5f%%   %12.7f%% / %.7f%%%n", names[k],
+                    100 * sums[k] / PAIRS, 100 * worst[k], 100 * sphereSums[k] / PAIRS, 100 * sphereWorst[k]);
+        }
+    }
+
+    private static double mathCosHaversine(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * GeoKernel.EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeoKernelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
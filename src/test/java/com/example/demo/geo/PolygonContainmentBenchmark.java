@@ -0,0 +1,134 @@
+package com.example.demo.geo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-polygon on a 1k-vertex fence: PolygonShape's banded edge table against a plain
+ * ray cast over every edge, plus boundary distances with and without a limit.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.geo.PolygonContainmentBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonContainmentBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({"1000"})
+    private int vertices;
+
+    private PolygonShape polygon;
+    private double[] ringLats;
+    private double[] ringLngs;
+    private double[] pointLats;
+    private double[] pointLngs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        // Jagged star around a city center, about 5 km across, so bands hold a realistic mix of edges
+        ringLats = new double[vertices];
+        ringLngs = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 0.02 + 0.01 * random.nextDouble();
+            ringLats[i] = 40.0 + radius * Math.sin(angle);
+            ringLngs[i] = -74.0 + radius * Math.cos(angle);
+        }
+        polygon = new PolygonShape(ringLats, ringLngs);
+
+        // Points inside the bounding box, where the box check cannot answer on its own
+        pointLats = new double[POINTS];
+        pointLngs = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            pointLats[i] = 40.0 + (random.nextDouble() * 2 - 1) * 0.03;
+            pointLngs[i] = -74.0 + (random.nextDouble() * 2 - 1) * 0.03;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int bandedContains() {
+        int inside = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (polygon.contains(pointLats[i], pointLngs[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int fullScanContains() {
+        int inside = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (rayCast(pointLats[i], pointLngs[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double boundaryDistance() {
+        double sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += polygon.boundaryDistanceMeters(pointLats[i], pointLngs[i]);
+        }
+        return sum;
+    }
+
+    // The dwell hysteresis only needs to know whether the point is within a small margin of the boundary
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double boundaryDistanceWithin100m() {
+        double sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += polygon.boundaryDistanceMeters(pointLats[i], pointLngs[i], 100);
+        }
+        return sum;
+    }
+
+    // Textbook even-odd test over every edge, the cost PolygonShape's bands avoid
+    private boolean rayCast(double latitude, double longitude) {
+        boolean inside = false;
+        for (int i = 0, j = vertices - 1; i < vertices; j = i++) {
+            if ((ringLats[i] > latitude) != (ringLats[j] > latitude)) {
+                double crossingLng = ringLngs[i] + (latitude - ringLats[i]) * (ringLngs[j] - ringLngs[i]) / (ringLats[j] - ringLats[i]);
+                if (crossingLng > longitude) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PolygonContainmentBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.demo.service;
+
+import com.example.demo.model.RemoteCommand;
+import com.example.demo.repository.RemoteCommandRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CommandLifecycleSchedulerTest {
+
+    private static final long SENT_TIMEOUT_SECONDS = 300;
+    private static final long EXECUTION_TIMEOUT_SECONDS = 900;
+
+    private RemoteCommandRepository repository;
+    private ClusterEventBus clusterEventBus;
+    private CommandLifecycleScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(RemoteCommandRepository.class);
+        clusterEventBus = mock(ClusterEventBus.class);
+        scheduler = new CommandLifecycleScheduler();
+        ReflectionTestUtils.setField(scheduler, "remoteCommandRepository", repository);
+        ReflectionTestUtils.setField(scheduler, "clusterEventBus", clusterEventBus);
+        ReflectionTestUtils.setField(scheduler, "sentTimeoutSeconds", SENT_TIMEOUT_SECONDS);
+        ReflectionTestUtils.setField(scheduler, "executionTimeoutSeconds", EXECUTION_TIMEOUT_SECONDS);
+    }
+
+    @Test
+    void pendingCommandExpiresOnceItsDeadlinePasses() {
+        RemoteCommand due = command(1L, DeviceCommandQueue.PENDING);
+        due.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        RemoteCommand later = command(2L, DeviceCommandQueue.PENDING);
+        later.setExpiresAt(LocalDateTime.now().plusMinutes(10));
+        when(repository.expirePending(eq(1L), any())).thenAnswer(invocation -> {
+            due.setStatus("EXPIRED");
+            return 1;
+        });
+
+        scheduler.track(due);
+        scheduler.track(later);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 2000);
+
+        verify(repository).expirePending(eq(1L), any());
+        verify(repository, never()).expirePending(eq(2L), any());
+        assertEquals(1L, scheduler.getStats().get("expired"));
+        // The expired command is disarmed, the later one stays armed
+        assertEquals(1, scheduler.getStats().get("armed"));
+    }
+
+    @Test
+    void unansweredSentCommandGoesBackToPendingAndWakesItsDevice() {
+        RemoteCommand sent = command(3L, DeviceCommandQueue.SENT);
+        sent.setSentAt(LocalDateTime.now().minusSeconds(SENT_TIMEOUT_SECONDS + 1));
+        when(repository.requeueUnanswered(eq(3L), any())).thenAnswer(invocation -> {
+            sent.setStatus(DeviceCommandQueue.PENDING);
+            sent.setExpiresAt(LocalDateTime.now().plusMinutes(30));
+            return 1;
+        });
+        when(repository.findDeviceIdByCommandId(3L)).thenReturn(Optional.of("device-3"));
+
+        scheduler.track(sent);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 2000);
+
+        verify(clusterEventBus).publish(DeviceCommandQueue.PENDING_EVENT, Map.of("deviceId", "device-3"));
+        verify(repository, never()).failUnanswered(anyLong(), any(), any(), anyString());
+        assertEquals(1L, scheduler.getStats().get("retried"));
+        // Re-armed with the expiry of its PENDING state
+        assertEquals(1, scheduler.getStats().get("armed"));
+    }
+
+    @Test
+    void sentCommandOutOfRetriesFails() {
+        RemoteCommand sent = command(4L, DeviceCommandQueue.SENT);
+        sent.setSentAt(LocalDateTime.now().minusSeconds(SENT_TIMEOUT_SECONDS + 1));
+        when(repository.requeueUnanswered(eq(4L), any())).thenReturn(0);
+        when(repository.failUnanswered(eq(4L), any(), any(), anyString())).thenAnswer(invocation -> {
+            sent.setStatus(DeviceCommandQueue.FAILED);
+            return 1;
+        });
+
+        scheduler.track(sent);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 2000);
+
+        assertEquals(1L, scheduler.getStats().get("timedOut"));
+        assertEquals(0, scheduler.getStats().get("armed"));
+    }
+
+    @Test
+    void executingCommandWithoutResultFails() {
+        RemoteCommand executing = command(5L, DeviceCommandQueue.EXECUTING);
+        executing.setExecutedAt(LocalDateTime.now().minusSeconds(EXECUTION_TIMEOUT_SECONDS + 1));
+        when(repository.failUnfinished(eq(5L), any(), any(), anyString())).thenAnswer(invocation -> {
+            executing.setStatus(DeviceCommandQueue.FAILED);
+            return 1;
+        });
+
+        scheduler.track(executing);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 2000);
+
+        verify(repository).failUnfinished(eq(5L), any(), any(), anyString());
+        assertEquals(1L, scheduler.getStats().get("timedOut"));
+    }
+
+    @Test
+    void finishedCommandIsDisarmed() {
+        RemoteCommand pending = command(6L, DeviceCommandQueue.PENDING);
+        pending.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        scheduler.track(pending);
+
+        pending.setStatus(DeviceCommandQueue.COMPLETED);
+        scheduler.track(pending);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 2000);
+
+        verify(repository, never()).expirePending(anyLong(), any());
+        assertEquals(0, scheduler.getStats().get("armed"));
+    }
+
+    @Test
+    void ackDeadlineGoesToTheAckHandlersAndKeepsTheStatusDeadline() {
+        RemoteCommand sent = command(7L, DeviceCommandQueue.SENT);
+        sent.setSentAt(LocalDateTime.now());
+        List<Long> acksDue = new ArrayList<>();
+        scheduler.addAckHandler(acksDue::add);
+
+        scheduler.track(sent);
+        scheduler.scheduleAck(7L, System.currentTimeMillis() + 1000);
+        scheduler.expireDeadlines(System.currentTimeMillis() + 3000);
+
+        assertEquals(List.of(7L), acksDue);
+        verify(repository, never()).requeueUnanswered(anyLong(), any());
+        assertEquals(1, scheduler.getStats().get("armed"));
+        assertEquals(0, scheduler.getStats().get("ackArmed"));
+    }
+
+    @Test
+    void sweepCountsOverdueCommandsAsWheelMisses() {
+        RemoteCommand missed = command(8L, DeviceCommandQueue.PENDING);
+        missed.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        when(repository.findByStatusAndExpiresAtBefore(eq(DeviceCommandQueue.PENDING), any())).thenReturn(List.of(missed));
+        when(repository.expirePending(eq(8L), any())).thenAnswer(invocation -> {
+            missed.setStatus("EXPIRED");
+            return 1;
+        });
+
+        scheduler.sweepOverdue();
+
+        verify(repository).expirePending(eq(8L), any());
+        assertEquals(1L, scheduler.getStats().get("wheelMisses"));
+        assertEquals(1, scheduler.getStats().get("lastSweepOverdue"));
+    }
+
+    private RemoteCommand command(Long id, String status) {
+        RemoteCommand command = new RemoteCommand();
+        command.setId(id);
+        command.setStatus(status);
+        when(repository.findById(id)).thenReturn(Optional.of(command));
+        return command;
+    }
+}
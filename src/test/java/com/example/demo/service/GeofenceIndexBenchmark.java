@@ -0,0 +1,244 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Geofence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Containment lookups for one user with 100k active circular fences, one point per operation,
+ * exact shape test included:
+ *
+ * - rtree: GeofenceIndexService's in-memory StrRTree
+ * - bbox:  the portable bounding-box query, on the (user_id, min_latitude, max_latitude) B-tree
+ * - gist:  the PostgreSQL box @> point query on the V7 GiST index (PostgreSQL only)
+ * - acos:  the query before bounding boxes, a great-circle distance per fence
+ *
+ * The database modes run on an in-memory H2 by default. For PostgreSQL, pass a JDBC URL; the
+ * benchmark works in its own bench_geofences table and drops it afterwards:
+ * -Dlapso.bench.jdbc-url=jdbc:postgresql://localhost:5432/postgres -Dlapso.bench.jdbc-user=... -Dlapso.bench.jdbc-password=...
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.service.GeofenceIndexBenchmark
+ * or, to pick modes (gist is not in the default set):
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args="GeofenceIndexBenchmark -p mode=bbox,gist"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeofenceIndexBenchmark {
+
+    private static final String USER_ID = "bench-user";
+    private static final int POINTS = 1024;
+
+    @Param({"100000"})
+    private int fenceCount;
+
+    @Param({"rtree", "bbox", "acos"})
+    private String mode;
+
+    private Geofence[] fences;
+    private StrRTree<Geofence> tree;
+    private double[] pointLats;
+    private double[] pointLngs;
+    private int next;
+
+    private Connection connection;
+    private PreparedStatement query;
+    private boolean postgres;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(11);
+
+        // A fleet spread over a 10 by 10 degree region, fences of 100 m to 3 km
+        fences = new Geofence[fenceCount];
+        List<Geofence> active = new ArrayList<>(fenceCount);
+        for (int i = 0; i < fenceCount; i++) {
+            Geofence fence = new Geofence("fence-" + i, 35 + random.nextDouble() * 10, -100 + random.nextDouble() * 10,
+                    100 + random.nextDouble() * 2900, USER_ID);
+            fence.setId((long) i);
+            fence.setIsActive(true);
+            fence.refreshBoundingBox();
+            fences[i] = fence;
+            active.add(fence);
+        }
+
+        // Half the points near a fence center, half anywhere in the region
+        pointLats = new double[POINTS];
+        pointLngs = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            if (i % 2 == 0) {
+                Geofence near = fences[random.nextInt(fenceCount)];
+                pointLats[i] = near.getCenterLatitude() + (random.nextDouble() - 0.5) * 0.02;
+                pointLngs[i] = near.getCenterLongitude() + (random.nextDouble() - 0.5) * 0.02;
+            } else {
+                pointLats[i] = 35 + random.nextDouble() * 10;
+                pointLngs[i] = -100 + random.nextDouble() * 10;
+            }
+        }
+
+        if ("rtree".equals(mode)) {
+            tree = StrRTree.build(active, Geofence::boundingBox);
+        } else {
+            setUpDatabase();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS bench_geofences");
+            }
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public int findContaining() throws Exception {
+        int i = next++ & (POINTS - 1);
+        double latitude = pointLats[i];
+        double longitude = pointLngs[i];
+
+        if (tree != null) {
+            int[] count = new int[1];
+            tree.search(latitude, longitude, fence -> {
+                if (fence.containsPoint(latitude, longitude)) {
+                    count[0]++;
+                }
+            });
+            return count[0];
+        }
+
+        bind(latitude, longitude);
+        int found = 0;
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                // Distance query rows are exact already; box candidates still need the shape test
+                if ("acos".equals(mode) || fences[(int) rs.getLong(1)].containsPoint(latitude, longitude)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private void setUpDatabase() throws Exception {
+        String url = System.getProperty("lapso.bench.jdbc-url", "jdbc:h2:mem:geofence-bench;DB_CLOSE_DELAY=-1");
+        connection = DriverManager.getConnection(url,
+                System.getProperty("lapso.bench.jdbc-user", "sa"), System.getProperty("lapso.bench.jdbc-password", ""));
+        postgres = url.startsWith("jdbc:postgresql:");
+        if ("gist".equals(mode) && !postgres) {
+            throw new IllegalStateException("mode=gist needs -Dlapso.bench.jdbc-url pointing at PostgreSQL");
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS bench_geofences");
+            statement.execute("CREATE TABLE bench_geofences (id BIGINT PRIMARY KEY, user_id VARCHAR(255) NOT NULL, "
+                    + "is_active BOOLEAN NOT NULL, center_latitude DOUBLE PRECISION NOT NULL, center_longitude DOUBLE PRECISION NOT NULL, "
+                    + "radius_meters DOUBLE PRECISION NOT NULL, min_latitude DOUBLE PRECISION, min_longitude DOUBLE PRECISION, "
+                    + "max_latitude DOUBLE PRECISION, max_longitude DOUBLE PRECISION)");
+        }
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench_geofences VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (Geofence fence : fences) {
+                insert.setLong(1, fence.getId());
+                insert.setString(2, USER_ID);
+                insert.setBoolean(3, true);
+                insert.setDouble(4, fence.getCenterLatitude());
+                insert.setDouble(5, fence.getCenterLongitude());
+                insert.setDouble(6, fence.getRadiusMeters());
+                insert.setDouble(7, fence.getMinLatitude());
+                insert.setDouble(8, fence.getMinLongitude());
+                insert.setDouble(9, fence.getMaxLatitude());
+                insert.setDouble(10, fence.getMaxLongitude());
+                insert.addBatch();
+                if (fence.getId() % 5000 == 4999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        // The indexes of the V7 migration; H2 has no partial indexes
+        try (Statement statement = connection.createStatement()) {
+            if (postgres) {
+                statement.execute("CREATE INDEX bench_geofences_bbox_gist ON bench_geofences USING gist "
+                        + "(box(point(min_longitude, min_latitude), point(max_longitude, max_latitude))) WHERE is_active = true");
+                statement.execute("CREATE INDEX bench_geofences_user_bbox ON bench_geofences(user_id, min_latitude, max_latitude) WHERE is_active = true");
+                statement.execute("ANALYZE bench_geofences");
+            } else {
+                statement.execute("CREATE INDEX bench_geofences_user_bbox ON bench_geofences(user_id, min_latitude, max_latitude)");
+            }
+        }
+
+        // Same predicates as GeofenceRepository, before and after bounding boxes
+        String sql = switch (mode) {
+            case "bbox" -> "SELECT id FROM bench_geofences WHERE user_id = ? AND is_active = true "
+                    + "AND min_latitude <= ? AND max_latitude >= ? AND min_longitude <= ? AND max_longitude >= ?";
+            case "gist" -> "SELECT id FROM bench_geofences WHERE is_active = true "
+                    + "AND box(point(min_longitude, min_latitude), point(max_longitude, max_latitude)) @> point(?, ?) AND user_id = ?";
+            case "acos" -> "SELECT id FROM bench_geofences WHERE user_id = ? AND is_active = true "
+                    + "AND (6371000 * acos(cos(radians(?)) * cos(radians(center_latitude)) * "
+                    + "cos(radians(center_longitude) - radians(?)) + "
+                    + "sin(radians(?)) * sin(radians(center_latitude)))) <= radius_meters";
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        };
+        query = connection.prepareStatement(sql);
+    }
+
+    private void bind(double latitude, double longitude) throws Exception {
+        switch (mode) {
+            case "bbox" -> {
+                query.setString(1, USER_ID);
+                query.setDouble(2, latitude);
+                query.setDouble(3, latitude);
+                query.setDouble(4, longitude);
+                query.setDouble(5, longitude);
+            }
+            case "gist" -> {
+                query.setDouble(1, longitude);
+                query.setDouble(2, latitude);
+                query.setString(3, USER_ID);
+            }
+            default -> {
+                query.setString(1, USER_ID);
+                query.setDouble(2, latitude);
+                query.setDouble(3, longitude);
+                query.setDouble(4, latitude);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeofenceIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
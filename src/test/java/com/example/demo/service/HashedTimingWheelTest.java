@@ -0,0 +1,94 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimingWheelTest {
+
+    private static final long TICK = 1000;
+
+    @Test
+    void deadlineLaterInTheCurrentTickFiresOnTheNextAdvance() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(TICK, 8);
+        long start = System.currentTimeMillis();
+        long tickStart = start - start % TICK;
+
+        wheel.schedule("device", tickStart + 700);
+
+        // Advancing inside the same tick, before the deadline, must not skip the bucket
+        assertTrue(wheel.advance(tickStart + 300).isEmpty());
+        assertEquals(List.of("device"), wheel.advance(tickStart + TICK + 300));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlineNeverFiresEarlyAndAtMostOneTickPastTheNextAdvance() {
+        HashedTimingWheel<Integer> wheel = new HashedTimingWheel<>(TICK, 16);
+        long start = System.currentTimeMillis() + TICK;
+        for (int offset = 0; offset < 5000; offset += 137) {
+            wheel.schedule(offset, start + offset);
+        }
+
+        long step = 250;
+        int fired = 0;
+        for (long now = start; now <= start + 7000; now += step) {
+            for (Integer offset : wheel.advance(now)) {
+                long deadline = start + offset;
+                assertTrue(now >= deadline, "fired early: " + offset);
+                assertTrue(now - deadline <= TICK + step, "fired late: " + offset + " at " + (now - start));
+                fired++;
+            }
+        }
+        assertEquals((5000 + 136) / 137, fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void deadlinesBeyondOneRotationWaitForTheirOwnRotation() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(TICK, 4);
+        long start = System.currentTimeMillis();
+
+        wheel.schedule("far", start + 10 * TICK);
+        for (long now = start; now < start + 9 * TICK; now += TICK) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        assertEquals(List.of("far"), wheel.advance(start + 11 * TICK));
+    }
+
+    @Test
+    void reschedulingReplacesTheDeadlineAndCancelDisarms() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(TICK, 8);
+        long start = System.currentTimeMillis();
+
+        wheel.schedule("a", start + TICK);
+        wheel.schedule("a", start + 5 * TICK);
+        assertEquals(start + 5 * TICK, wheel.getDeadline("a"));
+        assertTrue(wheel.advance(start + 3 * TICK).isEmpty());
+        assertEquals(List.of("a"), wheel.advance(start + 6 * TICK));
+
+        wheel.schedule("b", start + 7 * TICK);
+        assertTrue(wheel.cancel("b"));
+        assertFalse(wheel.cancel("b"));
+        assertNull(wheel.getDeadline("b"));
+        assertTrue(wheel.advance(start + 10 * TICK).isEmpty());
+    }
+
+    @Test
+    void pastDeadlinesFireOnTheNextTickAndLongPausesCatchUp() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(TICK, 4);
+        long start = System.currentTimeMillis();
+
+        wheel.schedule("past", start - 60_000);
+        wheel.schedule("soon", start + 2 * TICK);
+        // A pause longer than a whole rotation still fires everything that is due
+        List<String> fired = wheel.advance(start + 20 * TICK);
+        assertEquals(2, fired.size());
+        assertTrue(fired.containsAll(List.of("past", "soon")));
+    }
+}
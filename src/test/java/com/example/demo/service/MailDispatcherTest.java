@@ -0,0 +1,187 @@
+package com.example.demo.service;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailDispatcherTest {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private RecordingSender sender;
+    private MailDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        sender = new RecordingSender();
+        sender.setHost("localhost");
+        sender.setPort(ServerSetupTest.SMTP.getPort());
+
+        dispatcher = new MailDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "mailSender", sender);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", 100);
+        ReflectionTestUtils.setField(dispatcher, "workerCount", 1);
+        ReflectionTestUtils.setField(dispatcher, "batchSize", 50);
+        ReflectionTestUtils.setField(dispatcher, "digestWindowMs", 60000L);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 3);
+        ReflectionTestUtils.setField(dispatcher, "retryBackoffMs", 50L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    void firstAlertIsSentAtOnceAndFollowUpsMergeIntoOneDigest() throws Exception {
+        dispatcher.start();
+
+        dispatcher.submit("owner@example.com", "Device Offline", "Laptop went offline");
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        assertEquals("Device Offline", greenMail.getReceivedMessages()[0].getSubject());
+
+        dispatcher.submit("owner@example.com", "Low Battery", "Laptop at 5%");
+        dispatcher.submit("owner@example.com", "Geofence Exit", "Laptop left Home");
+        // Follow-ups wait for the window to close
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        assertEquals(1, dispatcher.getStats().get("openDigests"));
+
+        ReflectionTestUtils.invokeMethod(dispatcher, "flushDigests", true);
+        assertTrue(greenMail.waitForIncomingEmail(5000, 2));
+
+        MimeMessage digest = greenMail.getReceivedMessages()[1];
+        assertEquals("🔔 LAPSO: 2 new alerts", digest.getSubject());
+        String body = (String) digest.getContent();
+        assertTrue(body.contains("Low Battery"));
+        assertTrue(body.contains("Geofence Exit"));
+        assertEquals(2L, dispatcher.getStats().get("mergedIntoDigest"));
+    }
+
+    @Test
+    void quietWindowClosesWithoutSendingAgain() throws Exception {
+        ReflectionTestUtils.setField(dispatcher, "digestWindowMs", 1L);
+        dispatcher.start();
+
+        dispatcher.submit("owner@example.com", "Device Offline", "Laptop went offline");
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        dispatcher.flushDueDigests();
+
+        assertEquals(0, dispatcher.getStats().get("openDigests"));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    void mailQueuedBehindASendGoesOutInOneBatch() throws Exception {
+        ReflectionTestUtils.setField(dispatcher, "digestWindowMs", 0L);
+        sender.hold = new CountDownLatch(1);
+        dispatcher.start();
+
+        // The worker takes the first mail and blocks in send; the rest pile up behind it
+        dispatcher.submit("user0@example.com", "Alert 0", "Body 0");
+        assertTrue(sender.sending.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            dispatcher.submit("user" + i + "@example.com", "Alert " + i, "Body " + i);
+        }
+        sender.hold.countDown();
+
+        assertTrue(greenMail.waitForIncomingEmail(5000, 10));
+        assertEquals(List.of(1, 9), sender.batchSizes);
+        assertEquals(2L, dispatcher.getStats().get("batches"));
+    }
+
+    @Test
+    void failedBatchIsRetriedAndReportsTheReceipt() throws Exception {
+        sender.failuresLeft = 1;
+        dispatcher.start();
+
+        CountDownLatch delivered = new CountDownLatch(1);
+        dispatcher.submit("owner@example.com", "Device Offline", "Laptop went offline", new MailDispatcher.DeliveryReceipt() {
+            @Override
+            public void sent() {
+                delivered.countDown();
+            }
+
+            @Override
+            public void failed(String reason, boolean permanent) {
+            }
+        });
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        assertEquals(1L, dispatcher.getStats().get("retried"));
+        assertEquals(0L, dispatcher.getStats().get("failed"));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    void mailIsGivenUpAfterMaxAttempts() throws Exception {
+        sender.failuresLeft = Integer.MAX_VALUE;
+        dispatcher.start();
+
+        CountDownLatch gaveUp = new CountDownLatch(1);
+        boolean[] permanent = new boolean[1];
+        dispatcher.submit("owner@example.com", "Device Offline", "Laptop went offline", new MailDispatcher.DeliveryReceipt() {
+            @Override
+            public void sent() {
+            }
+
+            @Override
+            public void failed(String reason, boolean isPermanent) {
+                permanent[0] = isPermanent;
+                gaveUp.countDown();
+            }
+        });
+
+        assertTrue(gaveUp.await(5, TimeUnit.SECONDS));
+        assertTrue(permanent[0]);
+        assertEquals(2L, dispatcher.getStats().get("retried"));
+        assertEquals(1L, dispatcher.getStats().get("failed"));
+        assertEquals(0, greenMail.getReceivedMessages().length);
+    }
+
+    /**
+     * Real SMTP sender that records batch sizes, can hold the first send, and can fail like a refused connection
+     */
+    private static class RecordingSender extends JavaMailSenderImpl {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final CountDownLatch sending = new CountDownLatch(1);
+        volatile CountDownLatch hold;
+        volatile int failuresLeft;
+
+        @Override
+        public void send(SimpleMailMessage... simpleMessages) {
+            batchSizes.add(simpleMessages.length);
+            sending.countDown();
+            if (hold != null) {
+                try {
+                    hold.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                hold = null;
+            }
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new MailSendException("Connection refused");
+            }
+            super.send(simpleMessages);
+        }
+    }
+}